@@ -1,7 +1,5 @@
 package org.odyssey;
 
-import java.util.ArrayList;
-
 import org.odyssey.fragments.AboutFragment;
 import org.odyssey.fragments.AlbumsSectionFragment;
 import org.odyssey.fragments.AlbumsSectionFragment.OnAlbumSelectedListener;
@@ -19,7 +17,8 @@ import org.odyssey.fragments.PlaylistFragment;
 import org.odyssey.fragments.PlaylistNameDialogFragment.OnPlaylistNameListener;
 import org.odyssey.fragments.SavedPlaylistFragment;
 import org.odyssey.fragments.SettingsFragment;
-import org.odyssey.playbackservice.PlaybackService;
+import org.odyssey.playbackservice.PlaybackClock;
+import org.odyssey.playbackservice.PlaybackListener;
 import org.odyssey.playbackservice.PlaybackService.RANDOMSTATE;
 import org.odyssey.playbackservice.PlaybackService.REPEATSTATE;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
@@ -27,10 +26,7 @@ import org.odyssey.playbackservice.TrackItem;
 import org.odyssey.views.QuickControl;
 
 import android.app.ActionBar;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.RemoteException;
@@ -61,7 +57,7 @@ public class MainActivity extends FragmentActivity implements OnAlbumSelectedLis
 
     private String mRequestedFragment = "";
 
-    private NowPlayingReceiver mNowPlayingReceiver = null;
+    private QuickControlListener mStatusListener = null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -163,21 +159,19 @@ public class MainActivity extends FragmentActivity implements OnAlbumSelectedLis
             mRequestedFragment = "currentsong";
             Log.v(TAG, "Current song fragment requested: " + resumeIntent.getExtras().getString("Fragment"));
         }
-
-        if (mNowPlayingReceiver != null) {
-            unregisterReceiver(mNowPlayingReceiver);
-            mNowPlayingReceiver = null;
-        }
-        mNowPlayingReceiver = new NowPlayingReceiver();
-        registerReceiver(mNowPlayingReceiver, new IntentFilter(PlaybackService.MESSAGE_NEWTRACKINFORMATION));
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        if (mNowPlayingReceiver != null) {
-            unregisterReceiver(mNowPlayingReceiver);
-            mNowPlayingReceiver = null;
+        if (mStatusListener != null) {
+            try {
+                mServiceConnection.getPBS().unregisterListener(mStatusListener);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+            mStatusListener.release();
+            mStatusListener = null;
         }
 
         // TODO evaluate
@@ -482,36 +476,13 @@ public class MainActivity extends FragmentActivity implements OnAlbumSelectedLis
 
                     invalidateOptionsMenu();
                 }
-                // Set nowplaying bottom info
-                final boolean isRandom = mServiceConnection.getPBS().getRandom() == 1 ? true : false;
-                final boolean songPlaying = mServiceConnection.getPBS().getPlaying() == 1 ? true : false;
-                final boolean isRepeat = mServiceConnection.getPBS().getRepeat() == 1 ? true : false;
-                final TrackItem trackItem = mServiceConnection.getPBS().getCurrentSong();
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // update imagebuttons
-                        if (songPlaying) {
-                            mQuickControl.setPlayPauseButtonDrawable(getResources().getDrawable(android.R.drawable.ic_media_pause));
-                        } else {
-                            mQuickControl.setPlayPauseButtonDrawable(getResources().getDrawable(android.R.drawable.ic_media_play));
-                        }
-                        if (isRepeat) {
-                            mQuickControl.setRepeatButtonDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark_active));
-                        } else {
-                            mQuickControl.setRepeatButtonDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark));
-                        }
-                        if (isRandom) {
-                            mQuickControl.setRandomButtonDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark_active));
-                        } else {
-                            mQuickControl.setRandomButtonDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark));
-                        }
-                        if (trackItem != null) {
-                            mQuickControl.setTitleText(trackItem.getTrackTitle());
-                            mQuickControl.setArtistText(trackItem.getTrackArtist());
-                        }
-                    }
-                });
+                // Set nowplaying bottom info, the listener gets the current
+                // state first
+                if (mStatusListener != null) {
+                    mStatusListener.release();
+                }
+                mStatusListener = new QuickControlListener();
+                mServiceConnection.registerListener(mStatusListener);
             } catch (RemoteException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
@@ -526,55 +497,32 @@ public class MainActivity extends FragmentActivity implements OnAlbumSelectedLis
 
     }
 
-    private class NowPlayingReceiver extends BroadcastReceiver {
+    private class QuickControlListener extends PlaybackListener {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent.getAction().equals(PlaybackService.MESSAGE_NEWTRACKINFORMATION)) {
-                Log.v(TAG, "Received new information");
-                // Extract nowplaying info
-                ArrayList<NowPlayingInformation> infoArray = intent.getExtras().getParcelableArrayList(PlaybackService.INTENT_NOWPLAYINGNAME);
-                if (infoArray.size() != 0) {
-                    NowPlayingInformation info = infoArray.get(0);
-                    final boolean songPlaying = (info.getPlaying() == 1) ? true : false;
-                    final boolean isRepeat = (info.getRepeat() == REPEATSTATE.REPEAT_ALL.ordinal()) ? true : false;
-                    final boolean isRandom = (info.getRandom() == RANDOMSTATE.RANDOM_ON.ordinal()) ? true : false;
-                    runOnUiThread(new Runnable() {
-
-                        @Override
-                        public void run() {
-                            if (songPlaying) {
-                                mQuickControl.setPlayPauseButtonDrawable(getResources().getDrawable(android.R.drawable.ic_media_pause));
-                            } else {
-                                mQuickControl.setPlayPauseButtonDrawable(getResources().getDrawable(android.R.drawable.ic_media_play));
-                            }
-                            if (isRepeat) {
-                                mQuickControl.setRepeatButtonDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark_active));
-                            } else {
-                                mQuickControl.setRepeatButtonDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark));
-                            }
-                            if (isRandom) {
-                                mQuickControl.setRandomButtonDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark_active));
-                            } else {
-                                mQuickControl.setRandomButtonDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark));
-                            }
-                        }
-                    });
-                }
+        protected void trackChanged(int index, TrackItem track) {
+            if (track != null) {
+                mQuickControl.setTitleText(track.getTrackTitle());
+                mQuickControl.setArtistText(track.getTrackArtist());
+            }
+        }
 
-                // Extract current track info
-                final ArrayList<TrackItem> trackArray = intent.getExtras().getParcelableArrayList(PlaybackService.INTENT_TRACKITEMNAME);
-                if (trackArray.size() != 0) {
-                    runOnUiThread(new Runnable() {
-
-                        @Override
-                        public void run() {
-                            TrackItem trackItem = trackArray.get(0);
-                            mQuickControl.setTitleText(trackItem.getTrackTitle());
-                            mQuickControl.setArtistText(trackItem.getTrackArtist());
-                        }
-                    });
-                }
+        @Override
+        protected void playStateChanged(PlaybackClock clock, int repeat, int random) {
+            if (clock.isPlaying()) {
+                mQuickControl.setPlayPauseButtonDrawable(getResources().getDrawable(android.R.drawable.ic_media_pause));
+            } else {
+                mQuickControl.setPlayPauseButtonDrawable(getResources().getDrawable(android.R.drawable.ic_media_play));
+            }
+            if (repeat == REPEATSTATE.REPEAT_ALL.ordinal()) {
+                mQuickControl.setRepeatButtonDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark_active));
+            } else {
+                mQuickControl.setRepeatButtonDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark));
+            }
+            if (random == RANDOMSTATE.RANDOM_ON.ordinal()) {
+                mQuickControl.setRandomButtonDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark_active));
+            } else {
+                mQuickControl.setRandomButtonDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark));
             }
         }
     }
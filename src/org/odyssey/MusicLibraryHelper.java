@@ -1,22 +1,32 @@
 package org.odyssey;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.odyssey.manager.CoverDecodePool;
 import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.playbackservice.TrackSelector;
 
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.provider.MediaStore;
+import android.util.Log;
 
 public class MusicLibraryHelper {
     private static final String TAG = "MusicLibraryHelper";
+    public static final int MAX_SELECTION_ARGS = 500;
     public static final String[] projectionAlbums = { MediaStore.Audio.Albums.ALBUM, MediaStore.Audio.Albums.ALBUM_KEY, MediaStore.Audio.Albums.NUMBER_OF_SONGS, MediaStore.Audio.Albums._ID, MediaStore.Audio.Albums.ALBUM_ART,
             MediaStore.Audio.Albums.ARTIST };
     public static final String[] projectionArtists = { MediaStore.Audio.Artists.ARTIST, MediaStore.Audio.Artists.ARTIST_KEY, MediaStore.Audio.Artists.NUMBER_OF_TRACKS, MediaStore.Audio.Artists._ID, MediaStore.Audio.Artists.NUMBER_OF_ALBUMS };
     public static final String[] projectionTracks = { MediaStore.Audio.Media.TITLE, MediaStore.Audio.Media.DISPLAY_NAME, MediaStore.Audio.Media.TRACK, MediaStore.Audio.Media.ALBUM_KEY, MediaStore.Audio.Media.DURATION, MediaStore.Audio.Media.ALBUM,
-            MediaStore.Audio.Media.ARTIST, MediaStore.Audio.Media.DATA };
+            MediaStore.Audio.Media.ARTIST, MediaStore.Audio.Media.DATA, MediaStore.Audio.Media._ID };
     public static final String[] projectionPlaylistTracks = { MediaStore.Audio.Playlists.Members.TITLE, MediaStore.Audio.Playlists.Members.DISPLAY_NAME, MediaStore.Audio.Playlists.Members.TRACK, MediaStore.Audio.Playlists.Members.ALBUM_KEY,
-            MediaStore.Audio.Playlists.Members.DURATION, MediaStore.Audio.Playlists.Members.ALBUM, MediaStore.Audio.Playlists.Members.ARTIST, MediaStore.Audio.Playlists.Members.DATA, MediaStore.Audio.Playlists.Members._ID };
+            MediaStore.Audio.Playlists.Members.DURATION, MediaStore.Audio.Playlists.Members.ALBUM, MediaStore.Audio.Playlists.Members.ARTIST, MediaStore.Audio.Playlists.Members.DATA, MediaStore.Audio.Playlists.Members._ID,
+            MediaStore.Audio.Playlists.Members.AUDIO_ID };
 
     public static final String[] projectionPlaylists = { MediaStore.Audio.Playlists.NAME, MediaStore.Audio.Playlists._ID };
 
@@ -40,62 +50,449 @@ public class MusicLibraryHelper {
         int trackno = 0;
         long duration = 0;
         String albumKey = "";
+        long id = -1;
 
         if (trackCursor != null && trackCursor.getCount() > 0) {
             trackCursor.moveToFirst();
-            title = trackCursor.getString(trackCursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-            artist = trackCursor.getString(trackCursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-            album = trackCursor.getString(trackCursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-            trackno = trackCursor.getInt(trackCursor.getColumnIndex(MediaStore.Audio.Media.TRACK));
-            duration = trackCursor.getLong(trackCursor.getColumnIndex(MediaStore.Audio.Media.DURATION));
-            albumKey = trackCursor.getString(trackCursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_KEY));
+            TrackCursorReader reader = TrackCursorReader.forTracks(trackCursor);
+            title = reader.getTitle();
+            artist = reader.getArtist();
+            album = reader.getAlbum();
+            trackno = reader.getTrackNumber();
+            duration = reader.getDuration();
+            albumKey = reader.getAlbumKey();
+            id = reader.getId();
         }
 
         trackCursor.close();
 
-        return new TrackItem(title, artist, album, url, trackno, duration, albumKey);
+        return new TrackItem(title, artist, album, url, trackno, duration, albumKey, id);
     }
 
-    public static class CoverBitmapGenerator {
-        private CoverBitmapListener mListener;
-        private Context mContext;
-        private TrackItem mTrack;
-        private Thread mGeneratorThread;
+    /**
+     * Resolves the MediaStore audio ids into trackitems. The order of ids is
+     * kept, ids not found in the MediaStore are skipped.
+     * 
+     * @param ids
+     * @param resolver
+     * @return
+     */
+    public static ArrayList<TrackItem> getTrackItemsFromIds(long[] ids, ContentResolver resolver) {
+        HashMap<Long, TrackItem> tracks = new HashMap<Long, TrackItem>();
 
-        public CoverBitmapGenerator(Context context, CoverBitmapListener listener) {
-            mContext = context;
-            mListener = listener;
+        // sqlite limits the number of arguments per query
+        for (int start = 0; start < ids.length; start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, ids.length);
+
+            StringBuilder selection = new StringBuilder(MediaStore.Audio.Media._ID + " IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                selectionArgs[i - start] = String.valueOf(ids[i]);
+            }
+            selection.append(")");
+
+            Cursor trackCursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projectionTracks, selection.toString(), selectionArgs, null);
+            if (trackCursor == null) {
+                continue;
+            }
+
+            if (trackCursor.moveToFirst()) {
+                TrackCursorReader reader = TrackCursorReader.forTracks(trackCursor);
+                do {
+                    TrackItem item = reader.getTrackItem();
+                    tracks.put(item.getTrackId(), item);
+                } while (trackCursor.moveToNext());
+            }
+
+            trackCursor.close();
         }
 
-        public void getImage(TrackItem track) {
-            if (track != null) {
-                mTrack = track;
-                // Create generator thread
-                mGeneratorThread = new Thread(new DownloadRunner());
-                mGeneratorThread.start();
+        ArrayList<TrackItem> trackList = new ArrayList<TrackItem>(ids.length);
+        for (long id : ids) {
+            TrackItem item = tracks.get(id);
+            if (item != null) {
+                trackList.add(item);
             }
         }
 
-        private class DownloadRunner implements Runnable {
+        return trackList;
+    }
+
+    /**
+     * Returns all tracks of the album ordered by track number
+     * 
+     * @param albumKey
+     * @param resolver
+     * @return
+     */
+    public static ArrayList<TrackItem> getTracksForAlbum(String albumKey, ContentResolver resolver) {
+        String where = MediaStore.Audio.Media.ALBUM_KEY + "=?";
+        String[] whereVal = { albumKey };
+
+        Cursor cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projectionTracks, where, whereVal, MediaStore.Audio.Media.TRACK);
+
+        ArrayList<TrackItem> tracks = new ArrayList<TrackItem>();
+        if (cursor != null) {
+            readTrackItems(cursor, MediaStore.Audio.Media._ID, tracks);
+            cursor.close();
+        }
+        return tracks;
+    }
+
+    /**
+     * Returns the tracks of all albums with one query (per 500 albums). Tracks
+     * are grouped by album in the order of albumKeys and ordered by track
+     * number within an album.
+     * 
+     * @param albumKeys
+     * @param resolver
+     * @return
+     */
+    public static ArrayList<TrackItem> getTracksForAlbums(List<String> albumKeys, ContentResolver resolver) {
+        HashMap<String, ArrayList<TrackItem>> albumTracks = new HashMap<String, ArrayList<TrackItem>>();
+        for (String albumKey : albumKeys) {
+            albumTracks.put(albumKey, new ArrayList<TrackItem>());
+        }
+
+        ArrayList<TrackItem> tracks = new ArrayList<TrackItem>();
+
+        for (int start = 0; start < albumKeys.size(); start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, albumKeys.size());
+
+            StringBuilder selection = new StringBuilder(MediaStore.Audio.Media.ALBUM_KEY + " IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                selectionArgs[i - start] = albumKeys.get(i);
+            }
+            selection.append(")");
+
+            Cursor cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projectionTracks, selection.toString(), selectionArgs, MediaStore.Audio.Media.TRACK);
+            if (cursor == null) {
+                continue;
+            }
+
+            tracks.clear();
+            readTrackItems(cursor, MediaStore.Audio.Media._ID, tracks);
+            cursor.close();
+
+            for (TrackItem track : tracks) {
+                ArrayList<TrackItem> album = albumTracks.get(track.getTrackAlbumKey());
+                if (album != null) {
+                    album.add(track);
+                }
+            }
+        }
+
+        tracks.clear();
+        for (String albumKey : albumKeys) {
+            tracks.addAll(albumTracks.get(albumKey));
+        }
+        return tracks;
+    }
+
+    /**
+     * Returns the tracks of all albums of the artist, albums sorted by name.
+     * 
+     * @param artistId
+     * @param resolver
+     * @return
+     */
+    public static ArrayList<TrackItem> getTracksForArtist(long artistId, ContentResolver resolver) {
+        String[] projection = { MediaStore.Audio.Albums.ALBUM_KEY };
+        Cursor cursorAlbums = resolver.query(MediaStore.Audio.Artists.Albums.getContentUri("external", artistId), projection, "", null, MediaStore.Audio.Albums.ALBUM + " COLLATE NOCASE");
+
+        ArrayList<String> albumKeys = new ArrayList<String>();
+        if (cursorAlbums != null) {
+            if (cursorAlbums.moveToFirst()) {
+                int albumKeyColumn = cursorAlbums.getColumnIndex(MediaStore.Audio.Albums.ALBUM_KEY);
+                do {
+                    albumKeys.add(cursorAlbums.getString(albumKeyColumn));
+                } while (cursorAlbums.moveToNext());
+            }
+            cursorAlbums.close();
+        }
+
+        return getTracksForAlbums(albumKeys, resolver);
+    }
+
+    /**
+     * Returns all tracks of the saved playlist in playlist order
+     * 
+     * @param playlistId
+     * @param resolver
+     * @return
+     */
+    public static ArrayList<TrackItem> getTracksForPlaylist(long playlistId, ContentResolver resolver) {
+        Cursor cursor = resolver.query(MediaStore.Audio.Playlists.Members.getContentUri("external", playlistId), projectionPlaylistTracks, "", null, "");
+
+        ArrayList<TrackItem> tracks = new ArrayList<TrackItem>();
+        if (cursor != null) {
+            readTrackItems(cursor, MediaStore.Audio.Playlists.Members.AUDIO_ID, tracks);
+            cursor.close();
+        }
+        return tracks;
+    }
+
+    /**
+     * Returns all tracks of the library in the given order (one of the
+     * TrackSelector.ORDER_* constants)
+     * 
+     * @param order
+     * @param resolver
+     * @return
+     */
+    public static ArrayList<TrackItem> getAllTracks(int order, ContentResolver resolver) {
+        Cursor cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projectionTracks, "", null, getAllTracksSortOrder(order));
+
+        ArrayList<TrackItem> tracks = new ArrayList<TrackItem>();
+        if (cursor != null) {
+            readTrackItems(cursor, MediaStore.Audio.Media._ID, tracks);
+            cursor.close();
+        }
+        return tracks;
+    }
 
-            @Override
-            public void run() {
-                String where = android.provider.MediaStore.Audio.Albums.ALBUM_KEY + "=?";
+    /**
+     * Returns the MediaStore sort order for one of the TrackSelector.ORDER_*
+     * constants
+     */
+    public static String getAllTracksSortOrder(int order) {
+        switch (order) {
+        case TrackSelector.ORDER_ALBUM:
+            return MediaStore.Audio.Media.ALBUM + " COLLATE NOCASE, " + MediaStore.Audio.Media.TRACK;
+        case TrackSelector.ORDER_ARTIST:
+            return MediaStore.Audio.Media.ARTIST + " COLLATE NOCASE, " + MediaStore.Audio.Media.ALBUM + " COLLATE NOCASE, " + MediaStore.Audio.Media.TRACK;
+        default:
+            return MediaStore.Audio.Media.TITLE + " COLLATE NOCASE";
+        }
+    }
 
-                String whereVal[] = { mTrack.getTrackAlbumKey() };
+    /**
+     * Resolves the selector to the tracks it describes
+     * 
+     * @param selector
+     * @param resolver
+     * @return
+     */
+    public static ArrayList<TrackItem> getTracks(TrackSelector selector, ContentResolver resolver) {
+        switch (selector.getType()) {
+        case TrackSelector.TYPE_ALBUM:
+            return getTracksForAlbum(selector.getKey(), resolver);
+        case TrackSelector.TYPE_ARTIST:
+            return getTracksForArtist(selector.getId(), resolver);
+        case TrackSelector.TYPE_PLAYLIST:
+            return getTracksForPlaylist(selector.getId(), resolver);
+        case TrackSelector.TYPE_ALL_TRACKS:
+            return getAllTracks(selector.getOrder(), resolver);
+        default:
+            Log.e(TAG, "Unknown track selector: " + selector);
+            return new ArrayList<TrackItem>();
+        }
+    }
 
-                Cursor cursor = mContext.getContentResolver().query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, new String[] { MediaStore.Audio.Albums.ALBUM_ART }, where, whereVal, "");
+    /**
+     * Returns an aggregate over the audio table (number of tracks, highest id
+     * and last modification) that changes whenever tracks are added, removed
+     * or rescanned. Null if the MediaStore does not answer.
+     * 
+     * @param resolver
+     * @return
+     */
+    public static String getLibraryFingerprint(ContentResolver resolver) {
+        String[] projection = { "count(*)", "max(" + MediaStore.Audio.Media._ID + ")", "max(" + MediaStore.Audio.Media.DATE_MODIFIED + ")" };
+        String fingerprint = null;
+        try {
+            Cursor cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projection, null, null, null);
+            if (cursor != null) {
+                if (cursor.moveToFirst()) {
+                    fingerprint = cursor.getLong(0) + "_" + cursor.getLong(1) + "_" + cursor.getLong(2);
+                }
+                cursor.close();
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Could not read library fingerprint");
+        }
+        return fingerprint;
+    }
 
-                String coverPath = null;
+    /**
+     * Returns the number of albums with album art. The media scanner fills in
+     * album art later than the tracks, so this changes without the library
+     * fingerprint. -1 if the MediaStore does not answer.
+     * 
+     * @param resolver
+     * @return
+     */
+    public static int getAlbumArtCount(ContentResolver resolver) {
+        String[] projection = { "count(" + MediaStore.Audio.Albums.ALBUM_ART + ")" };
+        int count = -1;
+        try {
+            Cursor cursor = resolver.query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, projection, null, null, null);
+            if (cursor != null) {
                 if (cursor.moveToFirst()) {
-                    coverPath = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART));
+                    count = cursor.getInt(0);
                 }
-                if (coverPath != null) {
-                    BitmapDrawable cover = (BitmapDrawable) BitmapDrawable.createFromPath(coverPath);
-                    mListener.receiveBitmap(cover);
+                cursor.close();
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Could not read album art count");
+        }
+        return count;
+    }
+
+    /**
+     * Reads all rows of a cursor with the columns of projectionTracks or
+     * projectionPlaylistTracks into trackitems. idColumnName is the column
+     * with the MediaStore audio id.
+     * 
+     * @param cursor
+     * @param idColumnName
+     * @param tracks
+     */
+    public static void readTrackItems(Cursor cursor, String idColumnName, List<TrackItem> tracks) {
+        if (cursor.moveToFirst()) {
+            TrackCursorReader reader = new TrackCursorReader(cursor, idColumnName);
+            do {
+                tracks.add(reader.getTrackItem());
+            } while (cursor.moveToNext());
+        }
+    }
+
+    /*
+     * Reads the current row of a cursor with the columns of projectionTracks
+     * or projectionPlaylistTracks. The column indices are looked up once when
+     * the reader is created, so keep one reader per cursor instead of calling
+     * getColumnIndex() for every row.
+     */
+    public static class TrackCursorReader {
+        private final Cursor mCursor;
+
+        private final int mTitleColumn;
+        private final int mArtistColumn;
+        private final int mAlbumColumn;
+        private final int mUrlColumn;
+        private final int mTrackColumn;
+        private final int mDurationColumn;
+        private final int mAlbumKeyColumn;
+        private final int mIdColumn;
+
+        /*
+         * idColumnName is the column with the MediaStore audio id
+         */
+        public TrackCursorReader(Cursor cursor, String idColumnName) {
+            mCursor = cursor;
+            mTitleColumn = cursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
+            mArtistColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+            mAlbumColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+            mUrlColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATA);
+            mTrackColumn = cursor.getColumnIndex(MediaStore.Audio.Media.TRACK);
+            mDurationColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DURATION);
+            mAlbumKeyColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_KEY);
+            mIdColumn = cursor.getColumnIndex(idColumnName);
+        }
+
+        /*
+         * Reader for cursors on the audio table with projectionTracks
+         */
+        public static TrackCursorReader forTracks(Cursor cursor) {
+            return new TrackCursorReader(cursor, MediaStore.Audio.Media._ID);
+        }
+
+        /*
+         * Reader for cursors on playlist members with projectionPlaylistTracks
+         */
+        public static TrackCursorReader forPlaylistTracks(Cursor cursor) {
+            return new TrackCursorReader(cursor, MediaStore.Audio.Playlists.Members.AUDIO_ID);
+        }
+
+        public Cursor getCursor() {
+            return mCursor;
+        }
+
+        public TrackItem getTrackItem() {
+            return new TrackItem(mCursor.getString(mTitleColumn), mCursor.getString(mArtistColumn), mCursor.getString(mAlbumColumn), mCursor.getString(mUrlColumn), mCursor.getInt(mTrackColumn), mCursor.getLong(mDurationColumn),
+                    mCursor.getString(mAlbumKeyColumn), mCursor.getLong(mIdColumn));
+        }
+
+        public String getTitle() {
+            return mCursor.getString(mTitleColumn);
+        }
+
+        public String getArtist() {
+            return mCursor.getString(mArtistColumn);
+        }
+
+        public String getAlbum() {
+            return mCursor.getString(mAlbumColumn);
+        }
+
+        public String getUrl() {
+            return mCursor.getString(mUrlColumn);
+        }
+
+        public int getTrackNumber() {
+            return mCursor.getInt(mTrackColumn);
+        }
+
+        public long getDuration() {
+            return mCursor.getLong(mDurationColumn);
+        }
+
+        public String getAlbumKey() {
+            return mCursor.getString(mAlbumKeyColumn);
+        }
+
+        public long getId() {
+            return mCursor.getLong(mIdColumn);
+        }
+    }
+
+    /*
+     * Loads the cover of a track through the CoverDecodePool. The cover is
+     * scaled to width x height and shared with all other users through the
+     * CoverCache. A new getImage() call cancels the previous request, so only
+     * the cover of the last track is delivered.
+     */
+    public static class CoverBitmapGenerator {
+        private CoverBitmapListener mListener;
+        private Context mContext;
+        private CoverDecodePool.Request mRequest;
+        private int mWidth;
+        private int mHeight;
+        private int mPriority;
+
+        public CoverBitmapGenerator(Context context, CoverBitmapListener listener, int width, int height, int priority) {
+            mContext = context;
+            mListener = listener;
+            mWidth = width;
+            mHeight = height;
+            mPriority = priority;
+        }
+
+        public synchronized void getImage(TrackItem track) {
+            if (track != null) {
+                cancel();
+                if (track.getTrackAlbumKey() != null) {
+                    mRequest = CoverDecodePool.getInstance(mContext).loadAlbumCover(track.getTrackAlbumKey(), mWidth, mHeight, mPriority, new CoverDecodePool.CoverListener() {
+                        @Override
+                        public void onCoverLoaded(Bitmap cover) {
+                            mListener.receiveBitmap(new BitmapDrawable(mContext.getResources(), cover));
+                        }
+                    });
                 }
             }
+        }
 
+        /*
+         * Cancels the pending request, the listener is not called anymore
+         */
+        public synchronized void cancel() {
+            if (mRequest != null) {
+                mRequest.cancel();
+                mRequest = null;
+            }
         }
 
     }
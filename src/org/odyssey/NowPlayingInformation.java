@@ -20,6 +20,7 @@ public final class NowPlayingInformation implements Parcelable {
     private int mRepeat;
     private int mRandom;
     private int mPlaylistLength;
+    private int mPlaylistVersion;
 
     public static Parcelable.Creator<NowPlayingInformation> CREATOR = new Parcelable.Creator<NowPlayingInformation>() {
 
@@ -31,8 +32,9 @@ public final class NowPlayingInformation implements Parcelable {
             int repeat = source.readInt();
             int random = source.readInt();
             int playlistlength = source.readInt();
+            int playlistversion = source.readInt();
 
-            return new NowPlayingInformation(playing, playingURL, playingIndex, repeat, random, playlistlength);
+            return new NowPlayingInformation(playing, playingURL, playingIndex, repeat, random, playlistlength, playlistversion);
         }
 
         @Override
@@ -47,13 +49,14 @@ public final class NowPlayingInformation implements Parcelable {
         return 0;
     }
 
-    public NowPlayingInformation(int playing, String playingURL, int playingIndex, int repeat, int random, int playlistlength) {
+    public NowPlayingInformation(int playing, String playingURL, int playingIndex, int repeat, int random, int playlistlength, int playlistversion) {
         mPlaying = playing;
         mPlayingURL = playingURL;
         mPlayingIndex = playingIndex;
         mRepeat = repeat;
         mRandom = random;
         mPlaylistLength = playlistlength;
+        mPlaylistVersion = playlistversion;
     }
 
     @Override
@@ -64,6 +67,7 @@ public final class NowPlayingInformation implements Parcelable {
         dest.writeInt(mRepeat);
         dest.writeInt(mRandom);
         dest.writeInt(mPlaylistLength);
+        dest.writeInt(mPlaylistVersion);
     }
 
     public int getPlaying() {
@@ -94,4 +98,8 @@ public final class NowPlayingInformation implements Parcelable {
         return mPlaylistLength;
     }
 
+    public int getPlaylistVersion() {
+        return mPlaylistVersion;
+    }
+
 }
@@ -1,10 +1,12 @@
 package org.odyssey.adapters;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import org.odyssey.databasemodel.AlbumModel;
+import org.odyssey.manager.SectionIndex;
+import org.odyssey.manager.SectionedList;
+import org.odyssey.views.GridCoverPrefetcher;
 import org.odyssey.views.GridItem;
 
 import android.content.Context;
@@ -15,13 +17,11 @@ import android.widget.BaseAdapter;
 import android.widget.GridView;
 import android.widget.SectionIndexer;
 
-public class AlbumAdapter extends BaseAdapter implements SectionIndexer {
+public class AlbumAdapter extends BaseAdapter implements SectionIndexer, GridCoverPrefetcher.CoverPathProvider {
 
     private final static String TAG = "OdysseyAlbumAdapter";
 
-    ArrayList<String> mSectionList;
-    ArrayList<Integer> mSectionPositions;
-    HashMap<Character, Integer> mPositionSectionMap;
+    SectionIndex mSectionIndex;
     private Context mContext;
 
     private List<AlbumModel> mModelData;
@@ -32,9 +32,7 @@ public class AlbumAdapter extends BaseAdapter implements SectionIndexer {
     public AlbumAdapter(Context context, GridView rootGrid) {
         super();
 
-        mSectionList = new ArrayList<String>();
-        mSectionPositions = new ArrayList<Integer>();
-        mPositionSectionMap = new HashMap<Character, Integer>();
+        mSectionIndex = SectionIndex.EMPTY;
         mContext = context;
         mModelData = new ArrayList<AlbumModel>();
 
@@ -57,6 +55,9 @@ public class AlbumAdapter extends BaseAdapter implements SectionIndexer {
 
         if (mScrollSpeed == 0) {
             ((GridItem) convertView).startCoverImageTask();
+        } else {
+            // prefetched covers can be shown while scrolling
+            ((GridItem) convertView).showCachedCover();
         }
         return convertView;
     }
@@ -64,76 +65,39 @@ public class AlbumAdapter extends BaseAdapter implements SectionIndexer {
     /**
      * Swaps the model of this adapter. This sets the dataset on which the
      * adapter creates the GridItems. This should generally be safe to call.
-     * Clears old section data and model data and recreates sectionScrolling
-     * data.
+     * The fast scroll sections are taken from the list, they were created by
+     * the loader.
      * 
      * @param albums
      *            Actual model data
      */
-    public void swapModel(List<AlbumModel> albums) {
+    public void swapModel(SectionedList<AlbumModel> albums) {
         Log.v(TAG, "Swapping data model");
         if (albums == null) {
-            mModelData.clear();
+            // the old list could be shared with the library model
+            mModelData = new ArrayList<AlbumModel>();
+            mSectionIndex = SectionIndex.EMPTY;
         } else {
             mModelData = albums;
-        }
-        // create sectionlist for fastscrolling
-
-        mSectionList.clear();
-        mSectionPositions.clear();
-        mPositionSectionMap.clear();
-        if (mModelData.size() > 0) {
-            char lastSection = 0;
-
-            AlbumModel currentAlbum = mModelData.get(0);
-
-            lastSection = currentAlbum.getAlbumName().toUpperCase().charAt(0);
-
-            mSectionList.add("" + lastSection);
-            mSectionPositions.add(0);
-            mPositionSectionMap.put(lastSection, mSectionList.size() - 1);
-
-            for (int i = 1; i < getCount(); i++) {
-
-                currentAlbum = mModelData.get(i);
-
-                char currentSection = currentAlbum.getAlbumName().toUpperCase().charAt(0);
-
-                if (lastSection != currentSection) {
-                    mSectionList.add("" + currentSection);
-
-                    lastSection = currentSection;
-                    mSectionPositions.add(i);
-                    mPositionSectionMap.put(currentSection, mSectionList.size() - 1);
-                }
-
-            }
+            // created by the loader in the background
+            mSectionIndex = albums.getSectionIndex();
         }
         notifyDataSetChanged();
     }
 
     @Override
     public int getPositionForSection(int sectionIndex) {
-        return mSectionPositions.get(sectionIndex);
+        return mSectionIndex.getPositionForSection(sectionIndex);
     }
 
     @Override
     public int getSectionForPosition(int pos) {
-
-        String albumName = mModelData.get(pos).getAlbumName();
-
-        char albumSection = albumName.toUpperCase().charAt(0);
-
-        if (mPositionSectionMap.containsKey(albumSection)) {
-            int sectionIndex = mPositionSectionMap.get(albumSection);
-            return sectionIndex;
-        }
-        return 0;
+        return mSectionIndex.getSectionForPosition(pos);
     }
 
     @Override
     public Object[] getSections() {
-        return mSectionList.toArray();
+        return mSectionIndex.getSections();
     }
 
     @Override
@@ -151,6 +115,11 @@ public class AlbumAdapter extends BaseAdapter implements SectionIndexer {
         return position;
     }
 
+    @Override
+    public String getCoverPath(int position) {
+        return mModelData.get(position).getAlbumArtURL();
+    }
+
     /**
      * Sets the scrollspeed of the parent GridView. For smoother scrolling
      * 
@@ -1,10 +1,12 @@
 package org.odyssey.adapters;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import org.odyssey.databasemodel.ArtistModel;
+import org.odyssey.manager.SectionIndex;
+import org.odyssey.manager.SectionedList;
+import org.odyssey.views.GridCoverPrefetcher;
 import org.odyssey.views.GridItem;
 
 import android.content.Context;
@@ -15,14 +17,12 @@ import android.widget.BaseAdapter;
 import android.widget.GridView;
 import android.widget.SectionIndexer;
 
-public class ArtistsAdapter extends BaseAdapter implements SectionIndexer {
+public class ArtistsAdapter extends BaseAdapter implements SectionIndexer, GridCoverPrefetcher.CoverPathProvider {
 
     private static final String TAG = "OdysseyArtistsAdapter";
 
     private Context mContext;
-    private ArrayList<String> mSectionList;
-    private ArrayList<Integer> mSectionPositions;
-    private HashMap<Character, Integer> mPositionSectionMap;
+    private SectionIndex mSectionIndex;
 
     private List<ArtistModel> mModelData;
 
@@ -33,9 +33,7 @@ public class ArtistsAdapter extends BaseAdapter implements SectionIndexer {
     public ArtistsAdapter(Context context, GridView rootGrid) {
         super();
 
-        mSectionList = new ArrayList<String>();
-        mSectionPositions = new ArrayList<Integer>();
-        mPositionSectionMap = new HashMap<Character, Integer>();
+        mSectionIndex = SectionIndex.EMPTY;
         mModelData = new ArrayList<ArtistModel>();
         mContext = context;
         mRootGrid = rootGrid;
@@ -57,6 +55,9 @@ public class ArtistsAdapter extends BaseAdapter implements SectionIndexer {
 
         if (mScrollSpeed == 0) {
             ((GridItem) convertView).startCoverImageTask();
+        } else {
+            // prefetched covers can be shown while scrolling
+            ((GridItem) convertView).showCachedCover();
         }
         return convertView;
     }
@@ -64,83 +65,39 @@ public class ArtistsAdapter extends BaseAdapter implements SectionIndexer {
     /**
      * Swaps the model of this adapter. This sets the dataset on which the
      * adapter creates the GridItems. This should generally be safe to call.
-     * Clears old section data and model data and recreates sectionScrolling
-     * data.
+     * The fast scroll sections are taken from the list, they were created by
+     * the loader.
      * 
      * @param albums
      *            Actual model data
      */
-    public void swapModel(List<ArtistModel> artists) {
+    public void swapModel(SectionedList<ArtistModel> artists) {
         Log.v(TAG, "Swapping data model");
         if (artists == null) {
-            mModelData.clear();
+            // the old list could be shared with the library model
+            mModelData = new ArrayList<ArtistModel>();
+            mSectionIndex = SectionIndex.EMPTY;
         } else {
             mModelData = artists;
-        }
-        // create sectionlist for fastscrolling
-
-        mSectionList.clear();
-        mSectionPositions.clear();
-        mPositionSectionMap.clear();
-        if (mModelData.size() > 0) {
-            char lastSection = 0;
-
-            ArtistModel currentArtist = mModelData.get(0);
-
-            lastSection = currentArtist.getArtistName().toUpperCase().charAt(0);
-
-            mSectionList.add("" + lastSection);
-            mSectionPositions.add(0);
-            mPositionSectionMap.put(lastSection, mSectionList.size() - 1);
-
-            for (int i = 1; i < getCount(); i++) {
-
-                currentArtist = mModelData.get(i);
-
-                char currentSection = currentArtist.getArtistName().toUpperCase().charAt(0);
-
-                if (lastSection != currentSection) {
-                    mSectionList.add("" + currentSection);
-
-                    lastSection = currentSection;
-                    mSectionPositions.add(i);
-                    mPositionSectionMap.put(currentSection, mSectionList.size() - 1);
-                }
-
-            }
+            // created by the loader in the background
+            mSectionIndex = artists.getSectionIndex();
         }
         notifyDataSetChanged();
     }
 
     @Override
     public int getPositionForSection(int sectionIndex) {
-        if (sectionIndex >= 0 && sectionIndex < mSectionPositions.size()) {
-            return mSectionPositions.get(sectionIndex);
-        }
-        return 0;
+        return mSectionIndex.getPositionForSection(sectionIndex);
     }
 
     @Override
     public int getSectionForPosition(int pos) {
-
-        ArtistModel artist = (ArtistModel) getItem(pos);
-
-        String artistsName = artist.getArtistName();
-
-        char artistSection = artistsName.toUpperCase().charAt(0);
-
-        if (mPositionSectionMap.containsKey(artistSection)) {
-            int sectionIndex = mPositionSectionMap.get(artistSection);
-            return sectionIndex;
-        }
-
-        return 0;
+        return mSectionIndex.getSectionForPosition(pos);
     }
 
     @Override
     public Object[] getSections() {
-
-        return mSectionList.toArray();
+        return mSectionIndex.getSections();
     }
 
     @Override
@@ -158,6 +115,11 @@ public class ArtistsAdapter extends BaseAdapter implements SectionIndexer {
         return position;
     }
 
+    @Override
+    public String getCoverPath(int position) {
+        return mModelData.get(position).getArtURL();
+    }
+
     public void setScrollSpeed(int speed) {
         mScrollSpeed = speed;
     }
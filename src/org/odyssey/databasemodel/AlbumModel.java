@@ -6,12 +6,14 @@ public class AlbumModel {
     private String mAlbumArtURL;
     private String mArtistName;
     private String mAlbumKey;
+    private long mID;
     
-    public AlbumModel(String name, String albumArtURL, String artistName, String albumkey ) {
+    public AlbumModel(String name, String albumArtURL, String artistName, String albumkey, long albumID) {
         mAlbumName = name;
         mAlbumArtURL = albumArtURL;
         mArtistName = artistName;
         mAlbumKey = albumkey;
+        mID = albumID;
     }
     
     public String getAlbumName() {
@@ -30,6 +32,10 @@ public class AlbumModel {
         return mAlbumKey;
     }
     
+    public long getID() {
+        return mID;
+    }
+    
     @Override
     public String toString() {
         return "Album: " + getAlbumName() + " from: " + getArtistName();
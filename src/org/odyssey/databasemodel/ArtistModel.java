@@ -34,6 +34,14 @@ public class ArtistModel {
         return mID;
     }
 
+    public int getAlbumCount() {
+        return mAlbumCount;
+    }
+
+    public int getTrackCount() {
+        return mTrackCount;
+    }
+
     @Override
     public String toString() {
         return "Artist: " + getArtistName();
@@ -1,7 +1,5 @@
 package org.odyssey.fragments;
 
-import java.util.List;
-
 import org.odyssey.MainActivity;
 import org.odyssey.MusicLibraryHelper;
 import org.odyssey.R;
@@ -12,8 +10,10 @@ import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnPlayAllSelectedListener
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnSettingsSelectedListener;
 import org.odyssey.fragments.ArtistsSectionFragment.OnArtistSelectedListener;
 import org.odyssey.loader.AlbumLoader;
+import org.odyssey.manager.SectionedList;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
-import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.playbackservice.TrackSelector;
+import org.odyssey.views.GridCoverPrefetcher;
 import org.odyssey.views.GridItem;
 
 import android.app.ActionBar;
@@ -41,7 +41,7 @@ import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.GridView;
 
-public class AlbumsSectionFragment extends Fragment implements LoaderManager.LoaderCallbacks<List<AlbumModel>>, OnItemClickListener {
+public class AlbumsSectionFragment extends Fragment implements LoaderManager.LoaderCallbacks<SectionedList<AlbumModel>>, OnItemClickListener {
 
     AlbumAdapter mCursorAdapter;
 
@@ -66,6 +66,7 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
     private static final String TAG = "AlbumsSectionFragment";
 
     private GridView mRootGrid;
+    private GridCoverPrefetcher mPrefetcher;
     private int mLastPosition;
     private int mScrollSpeed = 0;
 
@@ -134,6 +135,8 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
         
         mRootGrid.setAdapter(mCursorAdapter);
 
+        mPrefetcher = new GridCoverPrefetcher(mRootGrid, mCursorAdapter);
+
         mRootGrid.setOnItemClickListener((OnItemClickListener) this);
 
         if (getArguments() != null) {
@@ -154,6 +157,7 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
             private boolean mFloating = false;
 
             public void onScrollStateChanged(AbsListView view, int scrollState) {
+                mPrefetcher.onScrollStateChanged(scrollState);
                 if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
                     mScrollSpeed = 0;
                     mCursorAdapter.setScrollSpeed(0);
@@ -170,6 +174,7 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
             }
 
             public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                mPrefetcher.onScroll(firstVisibleItem, visibleItemCount, totalItemCount);
                 if (firstVisibleItem != mLastFirstVisibleItem) {
                     long currentTime = System.currentTimeMillis();
                     if (currentTime == mLastTime) {
@@ -256,7 +261,8 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
     @Override
     public void onPause() {
         super.onPause();
-
+        mPrefetcher.cancel();
+        mServiceConnection.closeConnection();
     }
 
     @Override
@@ -333,44 +339,20 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
 
         AlbumModel clickedAlbum = (AlbumModel) mCursorAdapter.getItem(position);
         String albumKey = clickedAlbum.getAlbumKey();
-        // get and enqueue albumtracks
-
-        String whereVal[] = { albumKey };
-
-        String where = android.provider.MediaStore.Audio.Media.ALBUM_KEY + "=?";
 
-        String orderBy = android.provider.MediaStore.Audio.Media.TRACK;
-
-        Cursor cursor = getActivity().getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionTracks, where, whereVal, orderBy);
-
-        // get all tracks on the current album
-        if (cursor.moveToFirst()) {
-            do {
-                String title = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-                long duration = cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION));
-                int no = cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.TRACK));
-                String artist = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-                String album = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-                String url = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA));
-
-                TrackItem item = new TrackItem(title, artist, album, url, no, duration, albumKey);
-
-                // enqueue current track
-                try {
-                    mServiceConnection.getPBS().enqueueTrack(item);
-                } catch (RemoteException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-
-            } while (cursor.moveToNext());
+        // enqueue albumtracks, the service reads them itself
+        try {
+            mServiceConnection.enqueueSelection(TrackSelector.forAlbum(albumKey));
+        } catch (RemoteException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
         }
     }
 
     private void playAlbum(int position) {
         // Remove old tracks
         try {
-            mServiceConnection.getPBS().clearPlaylist();
+            mServiceConnection.clearPlaylist();
         } catch (RemoteException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
@@ -381,7 +363,7 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
 
         // play album
         try {
-            mServiceConnection.getPBS().jumpTo(0);
+            mServiceConnection.jumpTo(0);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -394,20 +376,23 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
 
         // Remove old tracks
         try {
-            mServiceConnection.getPBS().clearPlaylist();
+            mServiceConnection.clearPlaylist();
         } catch (RemoteException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
         }
 
-        // get and enqueue albumtracks
-        for (int i = 0; i < mCursorAdapter.getCount(); i++) {
-            enqueueAlbum(i);
+        // enqueue all albums of the current artist
+        try {
+            mServiceConnection.enqueueSelection(TrackSelector.forArtist(mArtistID));
+        } catch (RemoteException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
         }
 
         // play album
         try {
-            mServiceConnection.getPBS().jumpTo(0);
+            mServiceConnection.jumpTo(0);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -438,7 +423,7 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
     }
 
     @Override
-    public Loader<List<AlbumModel>> onCreateLoader(int arg0, Bundle bundle) {
+    public Loader<SectionedList<AlbumModel>> onCreateLoader(int arg0, Bundle bundle) {
         if (bundle == null) {
 
             // all albums
@@ -461,8 +446,9 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
     }
 
     @Override
-    public void onLoadFinished(Loader<List<AlbumModel>> arg0, List<AlbumModel> model) {
+    public void onLoadFinished(Loader<SectionedList<AlbumModel>> arg0, SectionedList<AlbumModel> model) {
         Log.v(TAG, "Loader finished");
+        mPrefetcher.cancel();
         mCursorAdapter.swapModel(model);
         // Reset old scroll position
         if (mLastPosition >= 0) {
@@ -473,7 +459,8 @@ public class AlbumsSectionFragment extends Fragment implements LoaderManager.Loa
     }
 
     @Override
-    public void onLoaderReset(Loader<List<AlbumModel>> arg0) {
+    public void onLoaderReset(Loader<SectionedList<AlbumModel>> arg0) {
+        mPrefetcher.cancel();
         mCursorAdapter.swapModel(null);
     }
 
@@ -6,18 +6,25 @@ import org.odyssey.MainActivity;
 import org.odyssey.MusicLibraryHelper;
 import org.odyssey.R;
 import org.odyssey.fragments.ArtistsSectionFragment.OnArtistSelectedListener;
+import org.odyssey.manager.CoverCache;
+import org.odyssey.manager.CoverDecodePool;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
 import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.playbackservice.TrackSelector;
+import org.odyssey.views.TrackRowHolder;
 
 import android.app.ActionBar;
 import android.app.Activity;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.drawable.Drawable;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.provider.MediaStore;
 import android.support.v4.app.Fragment;
+import android.support.v4.util.LruCache;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.LayoutInflater;
@@ -38,6 +45,16 @@ public class AlbumsTracksFragment extends Fragment {
 
     private static final String TAG = "AlbumsTracksFragment";
 
+    // Number of recently opened albums whose tracks are kept
+    private static final int TRACK_CACHE_SIZE = 8;
+
+    // Rows handed to the list at once while the query is read
+    private static final int STREAM_BATCH_SIZE = 32;
+
+    // Tracks of recently opened albums by album key, only used on the UI
+    // thread
+    private static final LruCache<String, ArrayList<TrackItem>> sAlbumTracks = new LruCache<String, ArrayList<TrackItem>>(TRACK_CACHE_SIZE);
+
     public final static String ARG_ALBUMKEY = "albumkey";
     public final static String ARG_ALBUMTITLE = "albumtitle";
     public final static String ARG_ALBUMART = "albumart";
@@ -57,6 +74,10 @@ public class AlbumsTracksFragment extends Fragment {
     private TextView mAlbumTitleView;
     private TextView mAlbumArtistView;
 
+    private AlbumTracksTask mTracksTask;
+    private CoverDecodePool.Request mCoverRequest;
+    private Bitmap mCoverBitmap;
+
     // FIXME listener in new file?
     OnArtistSelectedListener mArtistSelectedCallback;
 
@@ -147,6 +168,25 @@ public class AlbumsTracksFragment extends Fragment {
 
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        if (mTracksTask != null) {
+            mTracksTask.cancel(false);
+            mTracksTask = null;
+        }
+        if (mCoverRequest != null) {
+            mCoverRequest.cancel();
+            mCoverRequest = null;
+        }
+        if (mCoverBitmap != null) {
+            mCoverView.setImageDrawable(null);
+            CoverCache.getInstance(getActivity()).releaseBitmap(mCoverBitmap);
+            mCoverBitmap = null;
+        }
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -154,12 +194,42 @@ public class AlbumsTracksFragment extends Fragment {
         mServiceConnection.openConnection();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mServiceConnection.closeConnection();
+    }
+
     private void setAlbumInformation() {
 
+        mCoverView.setImageResource(R.drawable.coverplaceholder);
+
         if (mAlbumCoverPath != null) {
-            mCoverView.setImageDrawable(Drawable.createFromPath(mAlbumCoverPath));
-        } else {
-            mCoverView.setImageResource(R.drawable.coverplaceholder);
+            // scaled to the header through the cover cache, decoded in the
+            // background unless it is cached already
+            int size = getResources().getDimensionPixelSize(R.dimen.album_cover_height);
+            Bitmap cover = CoverCache.getInstance(getActivity()).getCachedBitmap(mAlbumCoverPath, size, size, true);
+            if (cover != null) {
+                showCover(cover);
+            } else {
+                mCoverRequest = CoverDecodePool.getInstance(getActivity()).loadCover(mAlbumCoverPath, size, size, CoverDecodePool.PRIORITY_VISIBLE, new CoverDecodePool.CoverListener() {
+                    @Override
+                    public void onCoverLoaded(final Bitmap cover) {
+                        mCoverView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mCoverRequest != null) {
+                                    mCoverRequest = null;
+                                    showCover(cover);
+                                } else {
+                                    // the view is gone already
+                                    CoverCache.getInstance(mCoverView.getContext()).releaseBitmap(cover);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
         }
 
         mAlbumTitleView.setText(mAlbumTitle);
@@ -167,33 +237,113 @@ public class AlbumsTracksFragment extends Fragment {
         mAlbumArtistView.setText(mAlbumArtist);
     }
 
+    /*
+     * Shows a cover that was acquired for the header.
+     */
+    private void showCover(Bitmap cover) {
+        if (mCoverBitmap != null) {
+            CoverCache.getInstance(getActivity()).releaseBitmap(mCoverBitmap);
+        }
+        mCoverView.setImageBitmap(cover);
+        mCoverBitmap = cover;
+    }
+
     private void setAlbumTracks() {
 
-        String whereVal[] = { mAlbumKey };
+        // a recently opened album is shown right away, the query still runs
+        // to pick up changes of the library
+        ArrayList<TrackItem> cachedTracks = sAlbumTracks.get(mAlbumKey);
+        if (cachedTracks != null) {
+            mTrackListAdapter.addAll(cachedTracks);
+        }
+
+        mTracksTask = new AlbumTracksTask(mAlbumKey, cachedTracks);
+        mTracksTask.execute();
+    }
+
+    /*
+     * Reads the tracks of an album in the background. Without cached tracks
+     * the rows are added to the list in batches while the cursor is read,
+     * otherwise the list is only replaced if the album changed.
+     */
+    private class AlbumTracksTask extends AsyncTask<Void, ArrayList<TrackItem>, ArrayList<TrackItem>> {
+
+        private ContentResolver mResolver;
+        private String mKey;
+        private ArrayList<TrackItem> mCachedTracks;
+
+        public AlbumTracksTask(String albumKey, ArrayList<TrackItem> cachedTracks) {
+            mResolver = getActivity().getContentResolver();
+            mKey = albumKey;
+            mCachedTracks = cachedTracks;
+        }
 
-        Cursor cursor = getActivity().getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionTracks, where, whereVal, orderBy);
+        @SuppressWarnings("unchecked")
+        @Override
+        protected ArrayList<TrackItem> doInBackground(Void... params) {
+            String whereVal[] = { mKey };
+
+            Cursor cursor = mResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionTracks, where, whereVal, orderBy);
+
+            ArrayList<TrackItem> trackList = new ArrayList<TrackItem>();
+            if (cursor == null) {
+                return trackList;
+            }
 
-        ArrayList<TrackItem> trackList = new ArrayList<TrackItem>();
+            // get all tracks on the current album
+            if (cursor.moveToFirst()) {
+                MusicLibraryHelper.TrackCursorReader reader = MusicLibraryHelper.TrackCursorReader.forTracks(cursor);
+                int published = 0;
+                do {
+                    trackList.add(reader.getTrackItem());
+
+                    if (mCachedTracks == null && trackList.size() - published == STREAM_BATCH_SIZE) {
+                        publishProgress(new ArrayList<TrackItem>(trackList.subList(published, trackList.size())));
+                        published = trackList.size();
+                    }
+                } while (!isCancelled() && cursor.moveToNext());
+
+                if (mCachedTracks == null && published < trackList.size()) {
+                    publishProgress(new ArrayList<TrackItem>(trackList.subList(published, trackList.size())));
+                }
+            }
 
-        // get all tracks on the current album
-        if (cursor.moveToFirst()) {
-            do {
-                String title = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-                long duration = cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION));
-                int no = cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.TRACK));
-                String artist = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-                String album = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-                String url = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA));
+            cursor.close();
 
-                TrackItem item = new TrackItem(title, artist, album, url, no, duration, mAlbumKey);
+            return trackList;
+        }
 
-                trackList.add(item);
-            } while (cursor.moveToNext());
+        @Override
+        protected void onProgressUpdate(ArrayList<TrackItem>... batches) {
+            if (!isCancelled()) {
+                mTrackListAdapter.addAll(batches[0]);
+            }
         }
 
-        cursor.close();
+        @Override
+        protected void onPostExecute(ArrayList<TrackItem> trackList) {
+            sAlbumTracks.put(mKey, trackList);
+
+            if (mCachedTracks != null && !isSameTracks(mCachedTracks, trackList)) {
+                mTrackListAdapter.setNotifyOnChange(false);
+                mTrackListAdapter.clear();
+                mTrackListAdapter.addAll(trackList);
+                mTrackListAdapter.notifyDataSetChanged();
+            }
+            mTracksTask = null;
+        }
 
-        mTrackListAdapter.addAll(trackList);
+        private boolean isSameTracks(ArrayList<TrackItem> oldTracks, ArrayList<TrackItem> newTracks) {
+            if (oldTracks.size() != newTracks.size()) {
+                return false;
+            }
+            for (int i = 0; i < oldTracks.size(); i++) {
+                if (oldTracks.get(i).getTrackId() != newTracks.get(i).getTrackId()) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     @Override
@@ -235,50 +385,14 @@ public class AlbumsTracksFragment extends Fragment {
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
 
-            TextView trackTitleView;
-            TextView trackDurationView;
-            TextView trackNumberView;
-            TextView trackArtistView;
-
             if (convertView == null) {
                 convertView = mInflater.inflate(mLayoutResourceId, null);
             }
 
-            trackTitleView = (TextView) convertView.findViewById(R.id.textViewTracklistTitleItem);
-            trackDurationView = (TextView) convertView.findViewById(R.id.textViewTracklistDurationItem);
-            trackNumberView = (TextView) convertView.findViewById(R.id.textViewTracklistNumberItem);
-            trackArtistView = (TextView) convertView.findViewById(R.id.textViewTracklistArtistItem);
+            TrackRowHolder holder = TrackRowHolder.get(convertView, R.id.textViewTracklistTitleItem, R.id.textViewTracklistDurationItem, R.id.textViewTracklistNumberItem, R.id.textViewTracklistArtistItem, 0);
 
-            // set tracktitle
             TrackItem trackItem = getItem(position);
-
-            trackTitleView.setText(trackItem.getTrackTitle());
-
-            // calculate duration in minutes and seconds
-            String seconds = String.valueOf((trackItem.getTrackDuration() % 60000) / 1000);
-
-            String minutes = String.valueOf(trackItem.getTrackDuration() / 60000);
-
-            if (seconds.length() == 1) {
-                trackDurationView.setText(minutes + ":0" + seconds);
-            } else {
-                trackDurationView.setText(minutes + ":" + seconds);
-            }
-
-            // calculate track and discnumber
-            if (("" + trackItem.getTrackNumber()).length() < 4) {
-                trackNumberView.setText("" + trackItem.getTrackNumber());
-            } else {
-
-                // TODO shall we use discnumber?
-                String discNumber = ("" + trackItem.getTrackNumber()).substring(0, 2);
-                String trackNumber = ("" + trackItem.getTrackNumber()).substring(2);
-
-                trackNumberView.setText(trackNumber);
-            }
-
-            // set artist
-            trackArtistView.setText(trackItem.getTrackArtist());
+            holder.bind(trackItem.getTrackTitle(), trackItem.getTrackArtist(), null, trackItem.getTrackNumber(), trackItem.getTrackDuration());
 
             return convertView;
 
@@ -295,9 +409,9 @@ public class AlbumsTracksFragment extends Fragment {
         }
 
         try {
-            mServiceConnection.getPBS().clearPlaylist();
+            mServiceConnection.clearPlaylist();
             enqueueAlbum();
-            mServiceConnection.getPBS().jumpTo(index);
+            mServiceConnection.jumpTo(index);
         } catch (RemoteException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
@@ -308,13 +422,11 @@ public class AlbumsTracksFragment extends Fragment {
         // Enqueue complete album
 
         // enqueue albumtracks
-        for (int i = 0; i < mTrackListAdapter.getCount(); i++) {
-            try {
-                mServiceConnection.getPBS().enqueueTrack(mTrackListAdapter.getItem(i));
-            } catch (RemoteException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+        try {
+            mServiceConnection.enqueueSelection(TrackSelector.forAlbum(mAlbumKey));
+        } catch (RemoteException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
         }
     }
 
@@ -322,7 +434,7 @@ public class AlbumsTracksFragment extends Fragment {
         // Enqueue single track
 
         try {
-            mServiceConnection.getPBS().enqueueTrack(mTrackListAdapter.getItem(position));
+            mServiceConnection.enqueueTrack(mTrackListAdapter.getItem(position));
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -333,7 +445,7 @@ public class AlbumsTracksFragment extends Fragment {
         // Enqueue single track
 
         try {
-            mServiceConnection.getPBS().enqueueTrackAsNext(mTrackListAdapter.getItem(position));
+            mServiceConnection.enqueueTrackAsNext(mTrackListAdapter.getItem(position));
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -7,7 +7,7 @@ import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnAboutSelectedListener;
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnPlayAllSelectedListener;
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnSettingsSelectedListener;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
-import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.playbackservice.TrackSelector;
 
 import android.app.Activity;
 import android.content.Context;
@@ -149,6 +149,12 @@ public class AllPlaylistsFragment extends Fragment implements LoaderManager.Load
         mServiceConnection.openConnection();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mServiceConnection.closeConnection();
+    }
+
     @Override
     public void onStart() {
         super.onStart();
@@ -271,7 +277,7 @@ public class AllPlaylistsFragment extends Fragment implements LoaderManager.Load
 
         // Remove current playlist
         try {
-            mServiceConnection.getPBS().clearPlaylist();
+            mServiceConnection.clearPlaylist();
         } catch (RemoteException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
@@ -284,35 +290,17 @@ public class AllPlaylistsFragment extends Fragment implements LoaderManager.Load
 
         long playlistID = cursorPlaylist.getLong(cursorPlaylist.getColumnIndex(MediaStore.Audio.Playlists._ID));
 
-        Cursor cursorTracks = getActivity().getContentResolver().query(MediaStore.Audio.Playlists.Members.getContentUri("external", playlistID), MusicLibraryHelper.projectionPlaylistTracks, "", null, "");
-
-        // get all tracks of the playlist
-        if (cursorTracks.moveToFirst()) {
-            do {
-                String title = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TITLE));
-                long duration = cursorTracks.getLong(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DURATION));
-                int no = cursorTracks.getInt(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TRACK));
-                String artistTitle = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ARTIST));
-                String album = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM));
-                String url = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DATA));
-                String albumKey = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM_KEY));
-
-                TrackItem item = new TrackItem(title, artistTitle, album, url, no, duration, albumKey);
-
-                // enqueue current track
-                try {
-                    mServiceConnection.getPBS().enqueueTrack(item);
-                } catch (RemoteException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-
-            } while (cursorTracks.moveToNext());
+        // enqueue all tracks of the playlist
+        try {
+            mServiceConnection.enqueueSelection(TrackSelector.forPlaylist(playlistID));
+        } catch (RemoteException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
         }
 
         // play playlist
         try {
-            mServiceConnection.getPBS().jumpTo(0);
+            mServiceConnection.jumpTo(0);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -1,26 +1,23 @@
 package org.odyssey.fragments;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
 import org.odyssey.MainActivity;
-import org.odyssey.MusicLibraryHelper;
 import org.odyssey.R;
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnAboutSelectedListener;
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnPlayAllSelectedListener;
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnSettingsSelectedListener;
+import org.odyssey.loader.TrackLoader;
+import org.odyssey.manager.LibraryTracks;
+import org.odyssey.manager.SectionIndex;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
 import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.views.TrackRowHolder;
 
 import android.app.Activity;
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.RemoteException;
-import android.provider.MediaStore;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -40,9 +37,8 @@ import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.SectionIndexer;
-import android.widget.TextView;
 
-public class AllTracksFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, OnItemClickListener {
+public class AllTracksFragment extends Fragment implements LoaderManager.LoaderCallbacks<LibraryTracks>, OnItemClickListener {
 
     private static final String TAG = "AllTracksFragment";
     private ListView mListView = null;
@@ -89,7 +85,7 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
 
         View rootView = inflater.inflate(R.layout.fragment_alltracks, container, false);
 
-        mCursorAdapter = new AllTracksCursorAdapter(getActivity(), null, 0);
+        mCursorAdapter = new AllTracksCursorAdapter(getActivity(), null);
 
         // create listview for tracklist
         mListView = (ListView) rootView.findViewById(R.id.listViewAllTracks);
@@ -147,102 +143,53 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
         mServiceConnection.openConnection();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mServiceConnection.closeConnection();
+    }
+
     private class AllTracksCursorAdapter extends BaseAdapter implements SectionIndexer {
 
         private LayoutInflater mInflater;
-        private Cursor mCursor;
-        ArrayList<String> mSectionList;
-        ArrayList<Integer> mSectionPositions;
-        HashMap<Character, Integer> mPositionSectionMap;
+        private LibraryTracks mTracks;
+        private SectionIndex mSectionIndex;
 
-        public AllTracksCursorAdapter(Context context, Cursor c, int flags) {
+        public AllTracksCursorAdapter(Context context, LibraryTracks tracks) {
 
             super();
 
             mInflater = LayoutInflater.from(context);
-            mCursor = c;
-            mSectionList = new ArrayList<String>();
-            mSectionPositions = new ArrayList<Integer>();
-            mPositionSectionMap = new HashMap<Character, Integer>();
+            mTracks = tracks;
+            mSectionIndex = tracks != null ? tracks.getSectionIndex() : SectionIndex.EMPTY;
         }
 
         @Override
         public int getPositionForSection(int sectionIndex) {
-            if (sectionIndex >= 0 && sectionIndex < mSectionPositions.size()) {
-                return mSectionPositions.get(sectionIndex);
-            }
-            return 0;
+            return mSectionIndex.getPositionForSection(sectionIndex);
         }
 
         @Override
         public int getSectionForPosition(int pos) {
-
-            this.mCursor.moveToPosition(pos);
-
-            String trackName = this.mCursor.getString(this.mCursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-
-            char trackSection = trackName.toUpperCase().charAt(0);
-            if (mPositionSectionMap.containsKey(trackSection)) {
-                int sectionIndex = mPositionSectionMap.get(trackSection);
-                return sectionIndex;
-            }
-
-            return 0;
+            return mSectionIndex.getSectionForPosition(pos);
         }
 
         @Override
         public Object[] getSections() {
-
-            return mSectionList.toArray();
+            return mSectionIndex.getSections();
         }
 
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
 
-            TextView trackTitleView;
-            TextView trackDurationView;
-            TextView trackNumberView;
-            TextView trackArtistView;
-
             if (convertView == null) {
                 convertView = mInflater.inflate(R.layout.listview_alltracks_item, null);
             }
 
-            trackTitleView = (TextView) convertView.findViewById(R.id.textViewAllTracksTitleItem);
-            trackDurationView = (TextView) convertView.findViewById(R.id.textViewAllTracksDurationItem);
-            trackNumberView = (TextView) convertView.findViewById(R.id.textViewAllTracksNumberItem);
-            trackArtistView = (TextView) convertView.findViewById(R.id.textViewAllTracksArtistItem);
-
-            // set tracktitle
-            TrackItem trackItem = (TrackItem) getItem(position);
-
-            trackTitleView.setText(trackItem.getTrackTitle());
-
-            // calculate duration in minutes and seconds
-            String seconds = String.valueOf((trackItem.getTrackDuration() % 60000) / 1000);
-
-            String minutes = String.valueOf(trackItem.getTrackDuration() / 60000);
-
-            if (seconds.length() == 1) {
-                trackDurationView.setText(minutes + ":0" + seconds);
-            } else {
-                trackDurationView.setText(minutes + ":" + seconds);
-            }
-
-            // calculate track and discnumber
-            if (("" + trackItem.getTrackNumber()).length() < 4) {
-                trackNumberView.setText("" + trackItem.getTrackNumber());
-            } else {
-
-                // TODO shall we use discnumber?
-                String discNumber = ("" + trackItem.getTrackNumber()).substring(0, 2);
-                String trackNumber = ("" + trackItem.getTrackNumber()).substring(2);
+            TrackRowHolder holder = TrackRowHolder.get(convertView, R.id.textViewAllTracksTitleItem, R.id.textViewAllTracksDurationItem, R.id.textViewAllTracksNumberItem, R.id.textViewAllTracksArtistItem, 0);
 
-                trackNumberView.setText(trackNumber);
-            }
-
-            // set artist
-            trackArtistView.setText(trackItem.getTrackArtist() + " - " + trackItem.getTrackAlbum());
+            // bound straight from the track table, no trackitem per row
+            holder.bind(mTracks.getTitle(position), mTracks.getArtist(position), mTracks.getAlbum(position), mTracks.getTrackNumber(position), mTracks.getDuration(position));
 
             return convertView;
         }
@@ -250,10 +197,10 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
         @Override
         public int getCount() {
 
-            if (mCursor == null) {
+            if (mTracks == null) {
                 return 0;
             } else {
-                return mCursor.getCount();
+                return mTracks.size();
             }
         }
 
@@ -261,20 +208,7 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
         public Object getItem(int position) {
 
             // return trackitem
-
-            mCursor.moveToPosition(position);
-
-            String title = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-            long duration = mCursor.getLong(mCursor.getColumnIndex(MediaStore.Audio.Media.DURATION));
-            int no = mCursor.getInt(mCursor.getColumnIndex(MediaStore.Audio.Media.TRACK));
-            String artist = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-            String album = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-            String url = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Media.DATA));
-            String albumKey = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_KEY));
-
-            TrackItem item = new TrackItem(title, artist, album, url, no, duration, albumKey);
-
-            return item;
+            return mTracks.getTrackItem(position);
 
         }
 
@@ -284,54 +218,17 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
             return position;
         }
 
-        public Cursor swapCursor(Cursor c) {
-
-            mCursor = c;
-
-            if (mCursor == null) {
-                return c;
-            }
-
-            // create sectionlist for fastscrolling
-
-            mSectionList.clear();
-            mSectionPositions.clear();
-            mPositionSectionMap.clear();
+        public LibraryTracks swapTracks(LibraryTracks tracks) {
 
-            this.mCursor.moveToPosition(0);
+            mTracks = tracks;
 
-            int index = this.mCursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
-            char lastSection = 0;
-
-            if (index > 0) {
-                lastSection = this.mCursor.getString(this.mCursor.getColumnIndex(MediaStore.Audio.Media.TITLE)).toUpperCase().charAt(0);
-            }
-
-            mSectionList.add("" + lastSection);
-            mSectionPositions.add(0);
-            mPositionSectionMap.put(lastSection, mSectionList.size() - 1);
-
-            for (int i = 1; i < this.mCursor.getCount(); i++) {
-
-                this.mCursor.moveToPosition(i);
-
-                char currentSection = this.mCursor.getString(this.mCursor.getColumnIndex(MediaStore.Audio.Media.TITLE)).toUpperCase().charAt(0);
-
-                if (lastSection != currentSection) {
-                    mSectionList.add("" + currentSection);
-
-                    lastSection = currentSection;
-                    mSectionPositions.add(i);
-                    mPositionSectionMap.put(currentSection, mSectionList.size() - 1);
-
-                }
-
-            }
+            // the sections were created together with the tracks
+            mSectionIndex = tracks != null ? tracks.getSectionIndex() : SectionIndex.EMPTY;
 
             // notify for screen update
             notifyDataSetChanged();
 
-            return c;
+            return tracks;
 
         }
     }
@@ -340,9 +237,9 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
         // clear playlist and play current track
 
         try {
-            mServiceConnection.getPBS().clearPlaylist();
+            mServiceConnection.clearPlaylist();
             enqueueTrack(position);
-            mServiceConnection.getPBS().jumpTo(0);
+            mServiceConnection.jumpTo(0);
         } catch (RemoteException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
@@ -353,7 +250,7 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
         // Enqueue single track
 
         try {
-            mServiceConnection.getPBS().enqueueTrack((TrackItem) mCursorAdapter.getItem(position));
+            mServiceConnection.enqueueTrack((TrackItem) mCursorAdapter.getItem(position));
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -364,7 +261,7 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
         // Enqueue single track
 
         try {
-            mServiceConnection.getPBS().enqueueTrackAsNext((TrackItem) mCursorAdapter.getItem(position));
+            mServiceConnection.enqueueTrackAsNext((TrackItem) mCursorAdapter.getItem(position));
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -413,17 +310,17 @@ public class AllTracksFragment extends Fragment implements LoaderManager.LoaderC
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
-        return new CursorLoader(getActivity(), MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionTracks, "", null, MediaStore.Audio.Media.TITLE + " COLLATE NOCASE");
+    public Loader<LibraryTracks> onCreateLoader(int id, Bundle bundle) {
+        return new TrackLoader(getActivity());
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mCursorAdapter.swapCursor(cursor);
+    public void onLoadFinished(Loader<LibraryTracks> loader, LibraryTracks tracks) {
+        mCursorAdapter.swapTracks(tracks);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<LibraryTracks> loader) {
+        mCursorAdapter.swapTracks(null);
     }
 }
@@ -1,9 +1,6 @@
 package org.odyssey.fragments;
 
-import java.util.List;
-
 import org.odyssey.MainActivity;
-import org.odyssey.MusicLibraryHelper;
 import org.odyssey.R;
 import org.odyssey.adapters.ArtistsAdapter;
 import org.odyssey.databasemodel.ArtistModel;
@@ -11,15 +8,15 @@ import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnAboutSelectedListener;
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnPlayAllSelectedListener;
 import org.odyssey.fragments.ArtistsAlbumsTabsFragment.OnSettingsSelectedListener;
 import org.odyssey.loader.ArtistCoverLoader;
+import org.odyssey.manager.SectionedList;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
-import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.playbackservice.TrackSelector;
+import org.odyssey.views.GridCoverPrefetcher;
 import org.odyssey.views.GridItem;
 
 import android.app.Activity;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.RemoteException;
-import android.provider.MediaStore;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
@@ -39,7 +36,7 @@ import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.GridView;
 
-public class ArtistsSectionFragment extends Fragment implements LoaderManager.LoaderCallbacks<List<ArtistModel>>, OnItemClickListener {
+public class ArtistsSectionFragment extends Fragment implements LoaderManager.LoaderCallbacks<SectionedList<ArtistModel>>, OnItemClickListener {
 
     ArtistsAdapter mAdapter;
     OnArtistSelectedListener mArtistSelectedCallback;
@@ -50,6 +47,7 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
     private static final String TAG = "OdysseyArtistsSectionFragment";
 
     private GridView mRootGrid;
+    private GridCoverPrefetcher mPrefetcher;
 
     private int mLastPosition = -1;
     private int mScrollSpeed = 0;
@@ -114,6 +112,8 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
 
         mRootGrid.setAdapter(mAdapter);
 
+        mPrefetcher = new GridCoverPrefetcher(mRootGrid, mAdapter);
+
         mRootGrid.setOnItemClickListener((OnItemClickListener) this);
 
         // register context menu
@@ -125,6 +125,7 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
             private boolean mFloating = false;
 
             public void onScrollStateChanged(AbsListView view, int scrollState) {
+                mPrefetcher.onScrollStateChanged(scrollState);
                 if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
                     mScrollSpeed = 0;
                     mAdapter.setScrollSpeed(0);
@@ -141,6 +142,7 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
             }
 
             public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                mPrefetcher.onScroll(firstVisibleItem, visibleItemCount, totalItemCount);
                 // Log.v(TAG, "Scroll from : " + firstVisibleItem +
                 // " with items: " + visibleItemCount + " and total items of: "
                 // + totalItemCount);
@@ -211,6 +213,13 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
         Log.v(TAG, "Resumed");
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mPrefetcher.cancel();
+        mServiceConnection.closeConnection();
+    }
+
     @Override
     public void onLowMemory() {
         super.onLowMemory();
@@ -272,45 +281,13 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
 
         long artistID = currentArtist.getID();
 
-        // get all albums of the current artist
-        Cursor cursorAlbums = getActivity().getContentResolver().query(MediaStore.Audio.Artists.Albums.getContentUri("external", artistID), MusicLibraryHelper.projectionAlbums, "", null, MediaStore.Audio.Albums.ALBUM + " COLLATE NOCASE");
-
-        String where = android.provider.MediaStore.Audio.Media.ALBUM_KEY + "=?";
-
-        String orderBy = android.provider.MediaStore.Audio.Media.TRACK;
-
-        // get all albums of the current artist
-        if (cursorAlbums.moveToFirst()) {
-            do {
-                String[] whereVal = { cursorAlbums.getString(cursorAlbums.getColumnIndex(MediaStore.Audio.Albums.ALBUM_KEY)) };
-
-                Cursor cursorTracks = getActivity().getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionTracks, where, whereVal, orderBy);
-
-                // get all tracks of the current album
-                if (cursorTracks.moveToFirst()) {
-                    do {
-                        String title = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Media.TITLE));
-                        long duration = cursorTracks.getLong(cursorTracks.getColumnIndex(MediaStore.Audio.Media.DURATION));
-                        int no = cursorTracks.getInt(cursorTracks.getColumnIndex(MediaStore.Audio.Media.TRACK));
-                        String artistTitle = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-                        String album = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-                        String url = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Media.DATA));
-                        String albumKey = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Media.ALBUM_KEY));
-
-                        TrackItem item = new TrackItem(title, artistTitle, album, url, no, duration, albumKey);
-
-                        // enqueue current track
-                        try {
-                            mServiceConnection.getPBS().enqueueTrack(item);
-                        } catch (RemoteException e) {
-                            // TODO Auto-generated catch block
-                            e.printStackTrace();
-                        }
-
-                    } while (cursorTracks.moveToNext());
-                }
-
-            } while (cursorAlbums.moveToNext());
+        // enqueue all albums of the current artist, the service reads them
+        // itself
+        try {
+            mServiceConnection.enqueueSelection(TrackSelector.forArtist(artistID));
+        } catch (RemoteException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
         }
 
     }
@@ -319,7 +296,7 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
 
         // Remove old tracks
         try {
-            mServiceConnection.getPBS().clearPlaylist();
+            mServiceConnection.clearPlaylist();
         } catch (RemoteException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
@@ -330,7 +307,7 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
 
         // play album
         try {
-            mServiceConnection.getPBS().jumpTo(0);
+            mServiceConnection.jumpTo(0);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -338,13 +315,14 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
     }
 
     @Override
-    public Loader<List<ArtistModel>> onCreateLoader(int arg0, Bundle arg1) {
+    public Loader<SectionedList<ArtistModel>> onCreateLoader(int arg0, Bundle arg1) {
         return new ArtistCoverLoader(getActivity());
     }
 
     @Override
-    public void onLoadFinished(Loader<List<ArtistModel>> arg0, List<ArtistModel> arg1) {
+    public void onLoadFinished(Loader<SectionedList<ArtistModel>> arg0, SectionedList<ArtistModel> arg1) {
         Log.v(TAG, "On load finished");
+        mPrefetcher.cancel();
         mAdapter.swapModel(arg1);
         if (mLastPosition >= 0) {
             mRootGrid.setSelection(mLastPosition);
@@ -354,7 +332,8 @@ public class ArtistsSectionFragment extends Fragment implements LoaderManager.Lo
     }
 
     @Override
-    public void onLoaderReset(Loader<List<ArtistModel>> arg0) {
+    public void onLoaderReset(Loader<SectionedList<ArtistModel>> arg0) {
+        mPrefetcher.cancel();
         mAdapter.swapModel(null);
     }
 
@@ -1,29 +1,25 @@
 package org.odyssey.fragments;
 
-import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
-
 import org.odyssey.MainActivity;
 import org.odyssey.MusicLibraryHelper;
 import org.odyssey.MusicLibraryHelper.CoverBitmapGenerator;
-import org.odyssey.NowPlayingInformation;
 import org.odyssey.R;
-import org.odyssey.playbackservice.PlaybackService;
+import org.odyssey.manager.CoverDecodePool;
+import org.odyssey.playbackservice.PlaybackClock;
+import org.odyssey.playbackservice.PlaybackListener;
 import org.odyssey.playbackservice.PlaybackService.RANDOMSTATE;
 import org.odyssey.playbackservice.PlaybackService.REPEATSTATE;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
 import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.views.TrackRowHolder;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.drawable.BitmapDrawable;
 import android.media.audiofx.AudioEffect;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -49,7 +45,9 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
     private ImageView mCoverImageView;
     private SeekBar mSeekBar;
     private PlaybackServiceConnection mServiceConnection;
-    private Timer mRefreshTimer = null;
+    // Position of the playing track, pushed by the service on state changes
+    private PlaybackClock mPlaybackClock = PlaybackClock.stopped();
+    private boolean mTrackingTouch = false;
     private ImageButton mPlayPauseButton;
     private ImageButton mRepeatButton;
     private ImageButton mRandomButton;
@@ -57,7 +55,7 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
     private String mImageURL;
 
     private final static String TAG = "OdysseyNowPlayingFragment";
-    private NowPlayingReceiver mNowPlayingReceiver = null;
+    private StatusListener mStatusListener = null;
 
     private String mAlbum;
 
@@ -90,7 +88,9 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
 
         mSeekBar = (SeekBar) rootView.findViewById(R.id.nowPlayingSeekBar);
 
-        mCoverGenerator = new CoverBitmapGenerator(getActivity(), new CoverReceiverClass());
+        // the cover is at most as wide as the screen
+        int coverSize = getResources().getDisplayMetrics().widthPixels;
+        mCoverGenerator = new CoverBitmapGenerator(getActivity(), new CoverReceiverClass(), coverSize, coverSize, CoverDecodePool.PRIORITY_NOW_PLAYING);
 
         mAlbum = "";
 
@@ -206,16 +206,21 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
     @Override
     public void onPause() {
         super.onPause();
-        if (mRefreshTimer != null) {
-            mRefreshTimer.cancel();
-            mRefreshTimer.purge();
-            mRefreshTimer = null;
-        }
-        if (mNowPlayingReceiver != null) {
-            getActivity().getApplicationContext().unregisterReceiver(mNowPlayingReceiver);
-            mNowPlayingReceiver = null;
+        mSeekBar.removeCallbacks(mClockTick);
+        if (mStatusListener != null) {
+            try {
+                mServiceConnection.getPBS().unregisterListener(mStatusListener);
+            } catch (RemoteException e) {
+                // the service dropped the listener with its process already
+                Log.w(TAG, "Could not unregister playback listener: " + e);
+            }
+            mStatusListener.release();
+            mStatusListener = null;
         }
-        // mServiceConnection = null;
+        // drop a pending cover, it is requested again on resume
+        mCoverGenerator.cancel();
+        mAlbum = "";
+        mServiceConnection.closeConnection();
     }
 
     @Override
@@ -254,12 +259,6 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
     @Override
     public void onResume() {
         super.onResume();
-        if (mNowPlayingReceiver != null) {
-            getActivity().getApplicationContext().unregisterReceiver(mNowPlayingReceiver);
-            mNowPlayingReceiver = null;
-        }
-        mNowPlayingReceiver = new NowPlayingReceiver();
-        getActivity().getApplicationContext().registerReceiver(mNowPlayingReceiver, new IntentFilter(PlaybackService.MESSAGE_NEWTRACKINFORMATION));
         // get the playbackservice
         mServiceConnection = new PlaybackServiceConnection(getActivity().getApplicationContext());
         mServiceConnection.setNotifier(new ServiceConnectionListener());
@@ -267,17 +266,10 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
 
     }
 
-    private void updateStatus() {
-
-        // get current track
-        TrackItem currentTrack = null;
-        try {
-            currentTrack = mServiceConnection.getPBS().getCurrentSong();
-        } catch (RemoteException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-
+    /*
+     * Shows title, artist, album, cover and duration of the current track.
+     */
+    private void showTrack(TrackItem currentTrack) {
         if (currentTrack == null) {
             currentTrack = new TrackItem();
         }
@@ -292,105 +284,70 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
         mAlbum = currentTrack.getTrackAlbum();
         mArtistTextView.setText(currentTrack.getTrackArtist());
 
-        // calculate duration in minutes and seconds
-        String seconds = String.valueOf((currentTrack.getTrackDuration() % 60000) / 1000);
-
-        String minutes = String.valueOf(currentTrack.getTrackDuration() / 60000);
-
-        if (seconds.length() == 1) {
-            mMaxDuration.setText(minutes + ":0" + seconds);
-        } else {
-            mMaxDuration.setText(minutes + ":" + seconds);
-        }
+        mMaxDuration.setText(TrackRowHolder.getDurationText(currentTrack.getTrackDuration()));
 
         // set up seekbar
         mSeekBar.setMax((int) currentTrack.getTrackDuration());
 
-        updateSeekBar();
-
-        updateDurationView();
-
-        try {
-            final boolean isRandom = mServiceConnection.getPBS().getRandom() == 1 ? true : false;
-            final boolean songPlaying = mServiceConnection.getPBS().getPlaying() == 1 ? true : false;
-            final boolean isRepeat = mServiceConnection.getPBS().getRepeat() == 1 ? true : false;
-            Activity activity = (Activity) getActivity();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // update imagebuttons
-                        if (songPlaying) {
-                            mPlayPauseButton.setImageDrawable(getResources().getDrawable(android.R.drawable.ic_media_pause));
-                        } else {
-                            mPlayPauseButton.setImageDrawable(getResources().getDrawable(android.R.drawable.ic_media_play));
-                        }
-                        if (isRepeat) {
-                            mRepeatButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark_active));
-                        } else {
-                            mRepeatButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark));
-                        }
-                        if (isRandom) {
-                            mRandomButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark_active));
-                        } else {
-                            mRandomButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark));
-                        }
-
-                    }
-                });
-            }
+        updatePosition();
+    }
 
-        } catch (RemoteException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    private void showPlayState(PlaybackClock clock, int repeat, int random) {
+        // update imagebuttons
+        if (clock != null && clock.isPlaying()) {
+            mPlayPauseButton.setImageDrawable(getResources().getDrawable(android.R.drawable.ic_media_pause));
+        } else {
+            mPlayPauseButton.setImageDrawable(getResources().getDrawable(android.R.drawable.ic_media_play));
         }
+        if (repeat == REPEATSTATE.REPEAT_ALL.ordinal()) {
+            mRepeatButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark_active));
+        } else {
+            mRepeatButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark));
+        }
+        if (random == RANDOMSTATE.RANDOM_ON.ordinal()) {
+            mRandomButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark_active));
+        } else {
+            mRandomButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark));
+        }
+
+        setPlaybackClock(clock);
     }
 
-    private void updateSeekBar() {
-        try {
-            mSeekBar.setProgress(mServiceConnection.getPBS().getTrackPosition());
-        } catch (RemoteException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    /*
+     * Sets a new clock from the service and restarts the local ticker with it.
+     */
+    private void setPlaybackClock(PlaybackClock clock) {
+        if (clock == null) {
+            clock = PlaybackClock.stopped();
         }
+        mPlaybackClock = clock;
+        updatePosition();
     }
 
-    private void updateDurationView() {
-        // calculate duration in minutes and seconds
-        String seconds = "";
-        String minutes = "";
-        try {
-            if (mServiceConnection != null) {
-                seconds = String.valueOf((mServiceConnection.getPBS().getTrackPosition() % 60000) / 1000);
-                minutes = String.valueOf(mServiceConnection.getPBS().getTrackPosition() / 60000);
-            }
-        } catch (RemoteException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    /*
+     * Shows the position of the clock and schedules the next update for the
+     * next full second while playing. No call to the service is needed.
+     */
+    private void updatePosition() {
+        long now = SystemClock.elapsedRealtime();
+        int position = mPlaybackClock.getPosition(now);
+
+        if (!mTrackingTouch) {
+            mSeekBar.setProgress(position);
         }
+        mMinDuration.setText(TrackRowHolder.getDurationText(position));
 
-        if (seconds.length() == 1) {
-            mMinDuration.setText(minutes + ":0" + seconds);
-        } else {
-            mMinDuration.setText(minutes + ":" + seconds);
+        mSeekBar.removeCallbacks(mClockTick);
+        if (mPlaybackClock.isPlaying() && isResumed()) {
+            mSeekBar.postDelayed(mClockTick, 1000 - (position % 1000));
         }
     }
 
-    private class RefreshTask extends TimerTask {
+    private final Runnable mClockTick = new Runnable() {
 
         @Override
         public void run() {
-            Activity activity = (Activity) getActivity();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        updateDurationView();
-                        updateSeekBar();
-                    }
-                });
-            }
-
+            updatePosition();
         }
     };
 
@@ -409,14 +366,12 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
 
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {
-        // TODO Auto-generated method stub
-
+        mTrackingTouch = true;
     }
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
-        // TODO Auto-generated method stub
-
+        mTrackingTouch = false;
     }
 
     private class ServiceConnectionListener implements PlaybackServiceConnection.ConnectionNotifier {
@@ -424,14 +379,18 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
         @Override
         public void onConnect() {
             Log.v(TAG, "Service connection established");
-            updateStatus();
-            if (mRefreshTimer != null) {
-                mRefreshTimer.cancel();
-                mRefreshTimer.purge();
-                mRefreshTimer = null;
+            if (mStatusListener != null) {
+                mStatusListener.release();
+            }
+            mStatusListener = new StatusListener();
+            try {
+                mServiceConnection.registerListener(mStatusListener);
+            } catch (RemoteException e) {
+                // the service is gone again, registered on the next connect
+                Log.e(TAG, "Could not register playback listener: " + e);
+                mStatusListener.release();
+                mStatusListener = null;
             }
-            mRefreshTimer = new Timer();
-            mRefreshTimer.scheduleAtFixedRate(new RefreshTask(), 0, 500);
         }
 
         @Override
@@ -442,49 +401,20 @@ public class NowPlayingFragment extends Fragment implements OnSeekBarChangeListe
 
     }
 
-    private class NowPlayingReceiver extends BroadcastReceiver {
+    /*
+     * Gets the current state right after registration, afterwards only the
+     * changes.
+     */
+    private class StatusListener extends PlaybackListener {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent.getAction().equals(PlaybackService.MESSAGE_NEWTRACKINFORMATION)) {
-                Log.v(TAG, "Received new information");
-                // Extract nowplaying info
-                ArrayList<NowPlayingInformation> infoArray = intent.getExtras().getParcelableArrayList(PlaybackService.INTENT_NOWPLAYINGNAME);
-                if (infoArray.size() != 0) {
-                    NowPlayingInformation info = infoArray.get(0);
-                    final boolean songPlaying = (info.getPlaying() == 1) ? true : false;
-                    final boolean isRepeat = (info.getRepeat() == REPEATSTATE.REPEAT_ALL.ordinal()) ? true : false;
-                    final boolean isRandom = (info.getRandom() == RANDOMSTATE.RANDOM_ON.ordinal()) ? true : false;
-
-                    Activity activity = (Activity) getActivity();
-                    if (activity != null) {
-                        activity.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                // update imagebuttons
-                                if (songPlaying) {
-                                    mPlayPauseButton.setImageDrawable(getResources().getDrawable(android.R.drawable.ic_media_pause));
-                                } else {
-                                    mPlayPauseButton.setImageDrawable(getResources().getDrawable(android.R.drawable.ic_media_play));
-                                }
-                                if (isRepeat) {
-                                    mRepeatButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark_active));
-                                } else {
-                                    mRepeatButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_repeat_dark));
-                                }
-                                if (isRandom) {
-                                    mRandomButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark_active));
-                                } else {
-                                    mRandomButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_action_shuffle_dark));
-                                }
-                                // update views
-                                updateStatus();
-                            }
-                        });
-                    }
+        protected void trackChanged(int index, TrackItem track) {
+            showTrack(track);
+        }
 
-                }
-            }
+        @Override
+        protected void playStateChanged(PlaybackClock clock, int repeat, int random) {
+            showPlayState(clock, repeat, random);
         }
     }
 
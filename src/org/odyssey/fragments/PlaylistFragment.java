@@ -3,18 +3,13 @@ package org.odyssey.fragments;
 import java.util.ArrayList;
 
 import org.odyssey.MainActivity;
-import org.odyssey.NowPlayingInformation;
 import org.odyssey.R;
 import org.odyssey.playbackservice.IOdysseyPlaybackService;
-import org.odyssey.playbackservice.PlaybackService;
+import org.odyssey.playbackservice.PlaybackListener;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
 import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.views.TrackRowHolder;
 
-import android.app.Activity;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.v4.app.Fragment;
@@ -31,9 +26,7 @@ import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.BaseAdapter;
-import android.widget.ImageView;
 import android.widget.ListView;
-import android.widget.TextView;
 
 public class PlaylistFragment extends Fragment {
 
@@ -44,7 +37,7 @@ public class PlaylistFragment extends Fragment {
     private PlaylistTracksAdapter mPlayListAdapter;
 
     private PlaybackServiceConnection mServiceConnection = null;
-    private NowPlayingReceiver mNowPlayingReceiver = null;
+    private PlaylistListener mPlaylistListener = null;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -74,7 +67,7 @@ public class PlaylistFragment extends Fragment {
                 // Get main application object for service connection
 
                 try {
-                    mServiceConnection.getPBS().jumpTo(position);
+                    mServiceConnection.jumpTo(position);
                 } catch (RemoteException e) {
                     // TODO Auto-generated catch block
                     e.printStackTrace();
@@ -97,10 +90,15 @@ public class PlaylistFragment extends Fragment {
     @Override
     public void onPause() {
         super.onPause();
-        // Unregister registered broadcast receiver to save some resources
-        if (mNowPlayingReceiver != null) {
-            getActivity().getApplicationContext().unregisterReceiver(mNowPlayingReceiver);
-            mNowPlayingReceiver = null;
+        // Unregister the listener to save some resources
+        if (mPlaylistListener != null) {
+            try {
+                mServiceConnection.getPBS().unregisterListener(mPlaylistListener);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+            mPlaylistListener.release();
+            mPlaylistListener = null;
         }
         mServiceConnection.closeConnection();
         mServiceConnection = null;
@@ -115,14 +113,6 @@ public class PlaylistFragment extends Fragment {
     @Override
     public void onResume() {
         super.onResume();
-        // Register receiver to get newest information
-        if (mNowPlayingReceiver != null) {
-            getActivity().getApplicationContext().unregisterReceiver(mNowPlayingReceiver);
-            mNowPlayingReceiver = null;
-        }
-        mNowPlayingReceiver = new NowPlayingReceiver();
-        getActivity().getApplicationContext().registerReceiver(mNowPlayingReceiver, new IntentFilter(PlaybackService.MESSAGE_NEWTRACKINFORMATION));
-
         // Reopen service connection
         mServiceConnection = new PlaybackServiceConnection(getActivity().getApplicationContext());
         mServiceConnection.setNotifier(new ServiceListener());
@@ -156,7 +146,14 @@ public class PlaylistFragment extends Fragment {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             }
-            mPlayListAdapter.notifyDataSetChanged();
+            return true;
+        case R.id.action_unshuffleplaylist:
+            try {
+                mServiceConnection.getPBS().unshufflePlaylist();
+            } catch (RemoteException e) {
+                // TODO Auto-generated catch block
+                e.printStackTrace();
+            }
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -164,9 +161,24 @@ public class PlaylistFragment extends Fragment {
 
     private class PlaylistTracksAdapter extends BaseAdapter {
 
+        // Number of tracks fetched from the service with one call
+        private static final int WINDOW_SIZE = 64;
+
         private LayoutInflater mInflater;
         private IOdysseyPlaybackService mPlaybackService;
 
+        /*
+         * Local copy of a part of the service playlist. Fetching the tracks
+         * one by one costs a binder transaction for every row, so a whole
+         * window is requested at once and only refetched when the list scrolls
+         * out of it or the playlist version changes.
+         */
+        private ArrayList<TrackItem> mWindow = new ArrayList<TrackItem>(WINDOW_SIZE);
+        private int mWindowStart = 0;
+        private int mWindowVersion = -1;
+        private int mCachedCount = -1;
+        private int mLastPosition = 0;
+
         public PlaylistTracksAdapter(IOdysseyPlaybackService iOdysseyPlaybackService) {
             super();
 
@@ -174,68 +186,142 @@ public class PlaylistFragment extends Fragment {
             mPlaybackService = iOdysseyPlaybackService;
         }
 
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
+        private TrackItem getTrack(int position) {
+            if (position < mWindowStart || position >= mWindowStart + mWindow.size()) {
+                fetchWindow(position);
+            }
+            mLastPosition = position;
 
-            TextView trackTitleView;
-            TextView trackDurationView;
-            TextView trackNumberView;
-            TextView trackArtistView;
+            if (position >= mWindowStart && position < mWindowStart + mWindow.size()) {
+                return mWindow.get(position - mWindowStart);
+            }
+            return new TrackItem();
+        }
 
-            if (convertView == null) {
-                convertView = mInflater.inflate(R.layout.listview_playlist_item, null);
+        private void fetchWindow(int position) {
+            if (mPlaybackService == null) {
+                return;
             }
 
-            trackTitleView = (TextView) convertView.findViewById(R.id.textViewPlaylistTitleItem);
-            trackDurationView = (TextView) convertView.findViewById(R.id.textViewPlaylistDurationItem);
-            trackNumberView = (TextView) convertView.findViewById(R.id.textViewPlaylistNumberItem);
-            trackArtistView = (TextView) convertView.findViewById(R.id.textViewPlaylistArtistItem);
+            // place most of the window in scroll direction
+            int start;
+            if (position >= mLastPosition) {
+                start = position - WINDOW_SIZE / 4;
+            } else {
+                start = position - (WINDOW_SIZE * 3) / 4;
+            }
+            if (start < 0) {
+                start = 0;
+            }
 
-            // set tracktitle
-            TrackItem trackItem;
+            ArrayList<TrackItem> tracks = new ArrayList<TrackItem>(WINDOW_SIZE);
             try {
-                trackItem = mPlaybackService.getPlaylistSong(position);
+                int version = mPlaybackService.getPlaylistWindow(start, WINDOW_SIZE, tracks);
+                if (mWindowVersion != -1 && version != mWindowVersion) {
+                    // playlist changed behind our back, count is stale too
+                    mCachedCount = -1;
+                }
+                mWindow = tracks;
+                mWindowStart = start;
+                mWindowVersion = version;
             } catch (RemoteException e) {
-                trackItem = new TrackItem();
+                e.printStackTrace();
+                mWindow.clear();
             }
+        }
 
-            trackTitleView.setText(trackItem.getTrackTitle());
+        /*
+         * Drops all cached tracks if the given playlist version differs from
+         * the one the cache was filled with. Versions older than the cache are
+         * ignored, the window was fetched after that change already.
+         */
+        public void setPlaylist(int size, int version) {
+            if (mWindowVersion != -1 && version - mWindowVersion < 0) {
+                return;
+            }
+            if (version != mWindowVersion) {
+                mWindow.clear();
+                mWindowStart = 0;
+                mWindowVersion = version;
+                mCachedCount = size;
+                notifyDataSetChanged();
+            }
+        }
 
-            // calculate duration in minutes and seconds
-            String seconds = String.valueOf((trackItem.getTrackDuration() % 60000) / 1000);
+        /*
+         * Checks if a change from previousVersion to version can be applied to
+         * the cached window. Drops the cache if a change was missed.
+         */
+        private boolean isNextChange(int previousVersion, int version) {
+            if (mWindowVersion != -1 && version - mWindowVersion <= 0) {
+                // the window was fetched after the change already
+                return false;
+            }
+            if (previousVersion != mWindowVersion) {
+                invalidate();
+                return false;
+            }
+            mWindowVersion = version;
+            return true;
+        }
 
-            String minutes = String.valueOf(trackItem.getTrackDuration() / 60000);
+        /*
+         * Moves the cached window behind the inserted tracks, the tracks of the
+         * window after start are dropped.
+         */
+        public void tracksInserted(int start, int count, int previousVersion, int version) {
+            if (!isNextChange(previousVersion, version)) {
+                return;
+            }
+            if (mCachedCount >= 0) {
+                mCachedCount += count;
+            }
+            if (start <= mWindowStart) {
+                mWindowStart += count;
+            } else if (start < mWindowStart + mWindow.size()) {
+                mWindow = new ArrayList<TrackItem>(mWindow.subList(0, start - mWindowStart));
+            }
+            notifyDataSetChanged();
+        }
 
-            if (seconds.length() == 1) {
-                trackDurationView.setText(minutes + ":0" + seconds);
-            } else {
-                trackDurationView.setText(minutes + ":" + seconds);
+        public void tracksRemoved(int start, int count, int previousVersion, int version) {
+            if (!isNextChange(previousVersion, version)) {
+                return;
+            }
+            if (mCachedCount >= 0) {
+                mCachedCount = Math.max(0, mCachedCount - count);
             }
+            if (start + count <= mWindowStart) {
+                mWindowStart -= count;
+            } else if (start <= mWindowStart) {
+                mWindow.clear();
+                mWindowStart = 0;
+            } else if (start < mWindowStart + mWindow.size()) {
+                mWindow = new ArrayList<TrackItem>(mWindow.subList(0, start - mWindowStart));
+            }
+            notifyDataSetChanged();
+        }
 
-            // calculate track and discnumber
-            if (("" + trackItem.getTrackNumber()).length() < 4) {
-                trackNumberView.setText("" + trackItem.getTrackNumber());
-            } else {
+        public void invalidate() {
+            mWindow.clear();
+            mWindowStart = 0;
+            mWindowVersion = -1;
+            mCachedCount = -1;
+            notifyDataSetChanged();
+        }
 
-                // TODO shall we use discnumber?
-                String discNumber = ("" + trackItem.getTrackNumber()).substring(0, 2);
-                String trackNumber = ("" + trackItem.getTrackNumber()).substring(2);
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
 
-                trackNumberView.setText(trackNumber);
+            if (convertView == null) {
+                convertView = mInflater.inflate(R.layout.listview_playlist_item, null);
             }
 
-            // set artist
-            trackArtistView.setText(trackItem.getTrackArtist() + " - " + trackItem.getTrackAlbum());
+            TrackRowHolder holder = TrackRowHolder.get(convertView, R.id.textViewPlaylistTitleItem, R.id.textViewPlaylistDurationItem, R.id.textViewPlaylistNumberItem, R.id.textViewPlaylistArtistItem, R.id.imageViewPlaylistPlay);
 
-            if (position == mPlayingIndex) {
-                ImageView playImage = (ImageView) convertView.findViewById(R.id.imageViewPlaylistPlay);
-
-                playImage.setVisibility(ImageView.VISIBLE);
-            } else {
-                ImageView playImage = (ImageView) convertView.findViewById(R.id.imageViewPlaylistPlay);
-
-                playImage.setVisibility(ImageView.GONE);
-            }
+            TrackItem trackItem = getTrack(position);
+            holder.bind(trackItem.getTrackTitle(), trackItem.getTrackArtist(), trackItem.getTrackAlbum(), trackItem.getTrackNumber(), trackItem.getTrackDuration());
+            holder.setPlaying(position == mPlayingIndex);
 
             return convertView;
 
@@ -243,9 +329,13 @@ public class PlaylistFragment extends Fragment {
 
         @Override
         public int getCount() {
+            if (mCachedCount >= 0) {
+                return mCachedCount;
+            }
             try {
                 if (mPlaybackService != null) {
-                    return mPlaybackService.getPlaylistSize();
+                    mCachedCount = mPlaybackService.getPlaylistSize();
+                    return mCachedCount;
                 } else {
                     return 0;
                 }
@@ -256,13 +346,9 @@ public class PlaylistFragment extends Fragment {
 
         @Override
         public Object getItem(int position) {
-            try {
-                if (mPlaybackService != null) {
-                    return mPlaybackService.getPlaylistSong(position);
-                } else {
-                    return null;
-                }
-            } catch (RemoteException e) {
+            if (mPlaybackService != null) {
+                return getTrack(position);
+            } else {
                 return null;
             }
         }
@@ -280,7 +366,6 @@ public class PlaylistFragment extends Fragment {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             }
-            notifyDataSetChanged();
         }
 
         public void clear() {
@@ -289,7 +374,6 @@ public class PlaylistFragment extends Fragment {
             } catch (RemoteException e) {
                 e.printStackTrace();
             }
-            notifyDataSetChanged();
         }
 
     }
@@ -317,7 +401,7 @@ public class PlaylistFragment extends Fragment {
             TrackItem track = (TrackItem) mListView.getAdapter().getItem(info.position);
             mPlayListAdapter.remove(info.position);
             try {
-                mServiceConnection.getPBS().enqueueTrackAsNext(track);
+                mServiceConnection.enqueueTrackAsNext(track);
             } catch (RemoteException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
@@ -328,32 +412,47 @@ public class PlaylistFragment extends Fragment {
         }
     }
 
-    private void updateSelectionInGUI() {
-        Activity activity = (Activity) getActivity();
-        if (activity != null) {
-            activity.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mListView.setSelection(mPlayingIndex);
-                    mPlayListAdapter.notifyDataSetChanged();
-                }
-            });
+    /*
+     * Keeps the adapter in sync with the playlist of the service. Gets the
+     * whole state right after registration, afterwards only the changes.
+     */
+    private class PlaylistListener extends PlaybackListener {
+
+        @Override
+        protected void trackChanged(int index, TrackItem track) {
+            mPlayingIndex = index;
+            if (mPlayListAdapter != null) {
+                mListView.setSelection(mPlayingIndex);
+                mPlayListAdapter.notifyDataSetChanged();
+            }
         }
-    }
 
-    private class NowPlayingReceiver extends BroadcastReceiver {
+        @Override
+        protected void indexMoved(int index) {
+            mPlayingIndex = index;
+            if (mPlayListAdapter != null) {
+                mPlayListAdapter.notifyDataSetChanged();
+            }
+        }
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent.getAction().equals(PlaybackService.MESSAGE_NEWTRACKINFORMATION)) {
-                Log.v(TAG, "Received new information");
-                // Extract nowplaying info
-                ArrayList<NowPlayingInformation> infoArray = intent.getExtras().getParcelableArrayList(PlaybackService.INTENT_NOWPLAYINGNAME);
-                if (infoArray.size() != 0) {
-                    NowPlayingInformation info = infoArray.get(0);
-                    mPlayingIndex = info.getPlayingIndex();
-                    updateSelectionInGUI();
-                }
+        protected void tracksInserted(int start, int count, int previousVersion, int version) {
+            if (mPlayListAdapter != null) {
+                mPlayListAdapter.tracksInserted(start, count, previousVersion, version);
+            }
+        }
+
+        @Override
+        protected void tracksRemoved(int start, int count, int previousVersion, int version) {
+            if (mPlayListAdapter != null) {
+                mPlayListAdapter.tracksRemoved(start, count, previousVersion, version);
+            }
+        }
+
+        @Override
+        protected void playlistChanged(int size, int version) {
+            if (mPlayListAdapter != null) {
+                mPlayListAdapter.setPlaylist(size, version);
             }
         }
     }
@@ -363,14 +462,16 @@ public class PlaylistFragment extends Fragment {
         @Override
         public void onConnect() {
             Log.v(TAG, "Service connected :)");
-            // Set index of current song
+            // the listener gets the playlist and the current index first
             try {
-                mPlayingIndex = mServiceConnection.getPBS().getCurrentIndex();
                 mPlayListAdapter = new PlaylistTracksAdapter(mServiceConnection.getPBS());
                 mListView.setAdapter(mPlayListAdapter);
 
-                mPlayListAdapter.notifyDataSetChanged();
-                updateSelectionInGUI();
+                if (mPlaylistListener != null) {
+                    mPlaylistListener.release();
+                }
+                mPlaylistListener = new PlaylistListener();
+                mServiceConnection.registerListener(mPlaylistListener);
             } catch (RemoteException e) {
                 e.printStackTrace();
             }
@@ -5,6 +5,8 @@ import org.odyssey.MusicLibraryHelper;
 import org.odyssey.R;
 import org.odyssey.playbackservice.PlaybackServiceConnection;
 import org.odyssey.playbackservice.TrackItem;
+import org.odyssey.playbackservice.TrackSelector;
+import org.odyssey.views.TrackRowHolder;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -28,9 +30,7 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ImageView;
 import android.widget.ListView;
-import android.widget.TextView;
 
 public class SavedPlaylistFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, OnItemClickListener {
 
@@ -139,14 +139,26 @@ public class SavedPlaylistFragment extends Fragment implements LoaderManager.Loa
 
     private class PlaylistTracksAdapter extends CursorAdapter {
         Cursor mCursor;
+        MusicLibraryHelper.TrackCursorReader mReader;
         LayoutInflater mInflater;
 
         public PlaylistTracksAdapter(Context context, Cursor c, int flags) {
             super(context, c, flags);
             mCursor = c;
+            mReader = c != null ? MusicLibraryHelper.TrackCursorReader.forPlaylistTracks(c) : null;
             mInflater = LayoutInflater.from(context);
         }
 
+        /*
+         * Returns the track at position or null if there is none
+         */
+        public TrackItem getTrackItem(int position) {
+            if (mCursor == null || !mCursor.moveToPosition(position)) {
+                return null;
+            }
+            return mReader.getTrackItem();
+        }
+
         @Override
         public void bindView(View view, Context context, Cursor cursor) {
             // TODO Auto-generated method stub
@@ -161,11 +173,6 @@ public class SavedPlaylistFragment extends Fragment implements LoaderManager.Loa
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
 
-            TextView trackTitleView;
-            TextView trackDurationView;
-            TextView trackNumberView;
-            TextView trackArtistView;
-
             if (convertView == null) {
                 convertView = mInflater.inflate(R.layout.listview_playlist_item, null);
             }
@@ -175,50 +182,11 @@ public class SavedPlaylistFragment extends Fragment implements LoaderManager.Loa
                 return convertView;
             }
 
-            trackTitleView = (TextView) convertView.findViewById(R.id.textViewPlaylistTitleItem);
-            trackDurationView = (TextView) convertView.findViewById(R.id.textViewPlaylistDurationItem);
-            trackNumberView = (TextView) convertView.findViewById(R.id.textViewPlaylistNumberItem);
-            trackArtistView = (TextView) convertView.findViewById(R.id.textViewPlaylistArtistItem);
+            TrackRowHolder holder = TrackRowHolder.get(convertView, R.id.textViewPlaylistTitleItem, R.id.textViewPlaylistDurationItem, R.id.textViewPlaylistNumberItem, R.id.textViewPlaylistArtistItem, R.id.imageViewPlaylistPlay);
 
-            // set tracktitle
             if (mCursor.moveToPosition(position)) {
-
-                String title = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Playlists.Members.TITLE));
-                trackTitleView.setText(title);
-
-                // calculate duration in minutes and seconds
-                long duration = mCursor.getLong(mCursor.getColumnIndex(MediaStore.Audio.Playlists.Members.DURATION));
-                String seconds = String.valueOf((duration % 60000) / 1000);
-
-                String minutes = String.valueOf(duration / 60000);
-
-                if (seconds.length() == 1) {
-                    trackDurationView.setText(minutes + ":0" + seconds);
-                } else {
-                    trackDurationView.setText(minutes + ":" + seconds);
-                }
-
-                // calculate track and discnumber
-                int no = mCursor.getInt(mCursor.getColumnIndex(MediaStore.Audio.Playlists.Members.TRACK));
-                if (("" + no).length() < 4) {
-                    trackNumberView.setText("" + no);
-                } else {
-
-                    // TODO shall we use discnumber?
-                    String discNumber = ("" + no).substring(0, 2);
-                    String trackNumber = ("" + no).substring(2);
-
-                    trackNumberView.setText(trackNumber);
-                }
-
-                // set artist
-                String artistTitle = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Playlists.Members.ARTIST));
-                String album = mCursor.getString(mCursor.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM));
-                trackArtistView.setText(artistTitle + " - " + album);
-
-                ImageView playImage = (ImageView) convertView.findViewById(R.id.imageViewPlaylistPlay);
-
-                playImage.setVisibility(ImageView.GONE);
+                holder.bind(mReader.getTitle(), mReader.getArtist(), mReader.getAlbum(), mReader.getTrackNumber(), mReader.getDuration());
+                holder.setPlaying(false);
             }
 
             return convertView;
@@ -227,6 +195,7 @@ public class SavedPlaylistFragment extends Fragment implements LoaderManager.Loa
         @Override
         public Cursor swapCursor(Cursor c) {
             mCursor = c;
+            mReader = c != null ? MusicLibraryHelper.TrackCursorReader.forPlaylistTracks(c) : null;
             return super.swapCursor(c);
         }
     }
@@ -264,22 +233,11 @@ public class SavedPlaylistFragment extends Fragment implements LoaderManager.Loa
     private void enqueueTrack(int position) {
         // Enqueue single track
 
-        Cursor cursorTracks = mPlayListAdapter.getCursor();
-
-        if (cursorTracks.moveToPosition(position)) {
-            // create trackitem
-            String title = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TITLE));
-            long duration = cursorTracks.getLong(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DURATION));
-            int no = cursorTracks.getInt(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TRACK));
-            String artistTitle = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ARTIST));
-            String album = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM));
-            String url = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DATA));
-            String albumKey = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM_KEY));
-
-            TrackItem item = new TrackItem(title, artistTitle, album, url, no, duration, albumKey);
+        TrackItem item = mPlayListAdapter.getTrackItem(position);
 
+        if (item != null) {
             try {
-                mServiceConnection.getPBS().enqueueTrack(item);
+                mServiceConnection.enqueueTrack(item);
             } catch (RemoteException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
@@ -290,22 +248,11 @@ public class SavedPlaylistFragment extends Fragment implements LoaderManager.Loa
     private void enqueueTrackAsNext(int position) {
         // Enqueue single track
 
-        Cursor cursorTracks = mPlayListAdapter.getCursor();
-
-        if (cursorTracks.moveToPosition(position)) {
-            // create trackitem
-            String title = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TITLE));
-            long duration = cursorTracks.getLong(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DURATION));
-            int no = cursorTracks.getInt(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TRACK));
-            String artistTitle = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ARTIST));
-            String album = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM));
-            String url = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DATA));
-            String albumKey = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM_KEY));
-
-            TrackItem item = new TrackItem(title, artistTitle, album, url, no, duration, albumKey);
+        TrackItem item = mPlayListAdapter.getTrackItem(position);
 
+        if (item != null) {
             try {
-                mServiceConnection.getPBS().enqueueTrackAsNext(item);
+                mServiceConnection.enqueueTrackAsNext(item);
             } catch (RemoteException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
@@ -341,41 +288,23 @@ public class SavedPlaylistFragment extends Fragment implements LoaderManager.Loa
         // Remove current playlist
 
         try {
-            mServiceConnection.getPBS().clearPlaylist();
+            mServiceConnection.clearPlaylist();
         } catch (RemoteException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
         }
 
-        Cursor cursorTracks = mPlayListAdapter.getCursor();
-
-        // get all tracks of the playlist
-        if (cursorTracks.moveToFirst()) {
-            do {
-                String title = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TITLE));
-                long duration = cursorTracks.getLong(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DURATION));
-                int no = cursorTracks.getInt(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.TRACK));
-                String artistTitle = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ARTIST));
-                String album = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM));
-                String url = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.DATA));
-                String albumKey = cursorTracks.getString(cursorTracks.getColumnIndex(MediaStore.Audio.Playlists.Members.ALBUM_KEY));
-
-                TrackItem item = new TrackItem(title, artistTitle, album, url, no, duration, albumKey);
-
-                // enqueue current track
-                try {
-                    mServiceConnection.getPBS().enqueueTrack(item);
-                } catch (RemoteException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-
-            } while (cursorTracks.moveToNext());
+        // enqueue all tracks of the playlist
+        try {
+            mServiceConnection.enqueueSelection(TrackSelector.forPlaylist(mPlaylistID));
+        } catch (RemoteException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
         }
 
         // play playlist
         try {
-            mServiceConnection.getPBS().jumpTo(position);
+            mServiceConnection.jumpTo(position);
         } catch (RemoteException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -1,68 +1,55 @@
 package org.odyssey.loader;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import org.odyssey.MusicLibraryHelper;
 import org.odyssey.databasemodel.AlbumModel;
+import org.odyssey.manager.LibraryModel;
+import org.odyssey.manager.SectionedList;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.provider.MediaStore;
 import android.support.v4.content.AsyncTaskLoader;
-import android.util.Log;
 
-public class AlbumLoader extends AsyncTaskLoader<List<AlbumModel>> {
+public class AlbumLoader extends AsyncTaskLoader<SectionedList<AlbumModel>> {
 
     private final static String TAG = "OdysseyAlbumLoader";
     private long mArtistID;
     private Context mContext;
 
+    // reload if the library changed
+    private LibraryModel.LibraryListener mLibraryListener = new LibraryModel.LibraryListener() {
+        @Override
+        public void onLibraryChanged() {
+            onContentChanged();
+        }
+    };
+
     public AlbumLoader(Context context, long artist) {
         super(context);
         mContext = context;
         mArtistID = artist;
 
+        LibraryModel.getInstance(mContext).addListener(mLibraryListener);
+
         // Starts the loading of backgroundData
         forceLoad();
     }
 
     /*
-     * Creates an list of all albums on this device and caches them inside the
-     * memory(non-Javadoc)
+     * Returns the albums of the library model, all albums or only those of
+     * the artist(non-Javadoc)
      * 
      * @see android.support.v4.content.AsyncTaskLoader#loadInBackground()
      */
     @Override
-    public List<AlbumModel> loadInBackground() {
-        // Create cursor for content retrieval
-        Cursor albumCursor;
+    public SectionedList<AlbumModel> loadInBackground() {
         if (mArtistID == -1) {
-            albumCursor = mContext.getContentResolver().query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionAlbums, "", null, MediaStore.Audio.Albums.ALBUM + " COLLATE NOCASE");
+            return LibraryModel.getInstance(mContext).getAlbums();
         } else {
-            albumCursor = mContext.getContentResolver().query(MediaStore.Audio.Artists.Albums.getContentUri("external", mArtistID), MusicLibraryHelper.projectionAlbums, "", null, MediaStore.Audio.Albums.ALBUM + " COLLATE NOCASE");
+            return LibraryModel.getInstance(mContext).getAlbums(mArtistID);
         }
-        ArrayList<AlbumModel> albums = new ArrayList<AlbumModel>();
-
-        int albumKeyColumnIndex = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_KEY);
-        int albumTitleColumnIndex = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM);
-        int imagePathColumnIndex = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART);
-        int artistTitleColumnIndex = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ARTIST);
-
-        for (int i = 0; i < albumCursor.getCount(); i++) {
-            albumCursor.moveToPosition(i);
-            String albumKey = albumCursor.getString(albumKeyColumnIndex);
-            String albumTitle = albumCursor.getString(albumTitleColumnIndex);
-            String imagePath = albumCursor.getString(imagePathColumnIndex);
-            // if (imagePath == null || imagePath.equals("")) {
-            // Log.v(TAG, "Album: " + albumTitle);
-            // }
-            String artistTitle = albumCursor.getString(artistTitleColumnIndex);
-            AlbumModel album = new AlbumModel(albumTitle, imagePath, artistTitle, albumKey);
-            albums.add(album);
+    }
 
-        }
-        albumCursor.close();
-        return albums;
+    @Override
+    protected void onReset() {
+        super.onReset();
+        LibraryModel.getInstance(mContext).removeListener(mLibraryListener);
     }
-}
\ No newline at end of file
+}
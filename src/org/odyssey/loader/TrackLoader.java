@@ -0,0 +1,47 @@
+package org.odyssey.loader;
+
+import org.odyssey.manager.LibraryModel;
+import org.odyssey.manager.LibraryTracks;
+
+import android.content.Context;
+import android.support.v4.content.AsyncTaskLoader;
+
+/*
+ * Loader for all tracks of the library sorted by title, served from the
+ * LibraryModel
+ */
+public class TrackLoader extends AsyncTaskLoader<LibraryTracks> {
+
+    private static final String TAG = "OdysseyTrackLoader";
+
+    private Context mContext;
+
+    // reload if the library changed
+    private LibraryModel.LibraryListener mLibraryListener = new LibraryModel.LibraryListener() {
+        @Override
+        public void onLibraryChanged() {
+            onContentChanged();
+        }
+    };
+
+    public TrackLoader(Context context) {
+        super(context);
+        mContext = context;
+
+        LibraryModel.getInstance(mContext).addListener(mLibraryListener);
+
+        // Starts the loading of backgroundData
+        forceLoad();
+    }
+
+    @Override
+    public LibraryTracks loadInBackground() {
+        return LibraryModel.getInstance(mContext).getTracks();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        LibraryModel.getInstance(mContext).removeListener(mLibraryListener);
+    }
+}
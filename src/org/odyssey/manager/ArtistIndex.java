@@ -0,0 +1,219 @@
+package org.odyssey.manager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.odyssey.MusicLibraryHelper;
+import org.odyssey.databasemodel.ArtistModel;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/*
+ * Persistent index of all artists with a representative cover. Reading it is
+ * a single query on a small local table. Before every read a cheap
+ * fingerprint of the MediaStore (number of tracks, highest id, last
+ * modification and number of albums with album art) is compared with the one
+ * the index was built from. Only if it changed the index is updated, and only
+ * rows that actually differ are written.
+ */
+public class ArtistIndex {
+
+    private static final String TAG = "OdysseyArtistIndex";
+
+    private static ArtistIndex mInstance = null;
+
+    private Context mContext;
+    private SQLiteDatabase mIndexDB;
+
+    private String[] projectionIndex = { ArtistIndexTable.COLUMN_ID, ArtistIndexTable.COLUMN_ARTIST, ArtistIndexTable.COLUMN_ARTISTKEY, ArtistIndexTable.COLUMN_NUMBEROFALBUMS, ArtistIndexTable.COLUMN_NUMBEROFTRACKS,
+            ArtistIndexTable.COLUMN_COVERPATH };
+
+    private ArtistIndex(Context context) {
+        mContext = context;
+        mIndexDB = new LibraryIndexDBHelper(context).getWritableDatabase();
+    }
+
+    public static synchronized ArtistIndex getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new ArtistIndex(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    /*
+     * Returns all artists sorted by name. Updates the index first if the
+     * MediaStore changed since it was built. Blocks, must not be called from
+     * the UI thread.
+     */
+    public synchronized List<ArtistModel> getArtists() {
+        String fingerprint = getFingerprint();
+        if (fingerprint == null || !fingerprint.equals(readState(LibraryIndexStateTable.ARTIST_FINGERPRINT_ROW))) {
+            updateIndex(fingerprint);
+        }
+
+        ArrayList<ArtistModel> artists = new ArrayList<ArtistModel>();
+        Cursor cursor = mIndexDB.query(ArtistIndexTable.TABLE_NAME, projectionIndex, null, null, null, null, ArtistIndexTable.COLUMN_ARTIST + " COLLATE NOCASE");
+        if (cursor.moveToFirst()) {
+            int idColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_ID);
+            int artistColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_ARTIST);
+            int artistKeyColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_ARTISTKEY);
+            int albumsColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_NUMBEROFALBUMS);
+            int tracksColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_NUMBEROFTRACKS);
+            int coverColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_COVERPATH);
+            do {
+                artists.add(new ArtistModel(cursor.getString(artistColumn), cursor.getString(coverColumn), cursor.getString(artistKeyColumn), cursor.getLong(idColumn), cursor.getInt(albumsColumn), cursor.getInt(tracksColumn)));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        return artists;
+    }
+
+    /*
+     * The library fingerprint does not change when the media scanner adds
+     * album art afterwards, the covers of the index depend on it as well.
+     */
+    private String getFingerprint() {
+        String fingerprint = MusicLibraryHelper.getLibraryFingerprint(mContext.getContentResolver());
+        int albumArtCount = MusicLibraryHelper.getAlbumArtCount(mContext.getContentResolver());
+        if (fingerprint == null || albumArtCount < 0) {
+            return null;
+        }
+        return fingerprint + "_" + albumArtCount;
+    }
+
+    /*
+     * Forces a check against the MediaStore on the next read
+     */
+    public synchronized void invalidate() {
+        mIndexDB.delete(LibraryIndexStateTable.TABLE_NAME, LibraryIndexStateTable.COLUMN_STATENAME + "=?", new String[] { LibraryIndexStateTable.ARTIST_FINGERPRINT_ROW });
+    }
+
+    /*
+     * Brings the index in line with the MediaStore. Artists are matched with
+     * the covers of their albums by exact name, the cover of the first album
+     * (by name) that has one represents the artist.
+     */
+    private void updateIndex(String fingerprint) {
+        long startTime = System.currentTimeMillis();
+
+        // first album cover of every artist
+        HashMap<String, String> covers = new HashMap<String, String>();
+        Cursor albumCursor = mContext.getContentResolver().query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, new String[] { MediaStore.Audio.Albums.ALBUM_ART, MediaStore.Audio.Albums.ARTIST }, null, null,
+                MediaStore.Audio.Albums.ALBUM + " COLLATE NOCASE");
+        if (albumCursor == null) {
+            return;
+        }
+        if (albumCursor.moveToFirst()) {
+            int artColumn = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART);
+            int artistColumn = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ARTIST);
+            do {
+                String artist = albumCursor.getString(artistColumn);
+                String coverPath = albumCursor.getString(artColumn);
+                if (artist != null && coverPath != null && !coverPath.equals("") && !covers.containsKey(artist)) {
+                    covers.put(artist, coverPath);
+                }
+            } while (albumCursor.moveToNext());
+        }
+        albumCursor.close();
+
+        Cursor artistCursor = mContext.getContentResolver().query(MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionArtists, null, null, null);
+        if (artistCursor == null) {
+            return;
+        }
+
+        HashMap<Long, ContentValues> indexRows = readIndexRows();
+        int written = 0;
+
+        mIndexDB.beginTransaction();
+        try {
+            if (artistCursor.moveToFirst()) {
+                int artistColumn = artistCursor.getColumnIndex(MediaStore.Audio.Artists.ARTIST);
+                int artistKeyColumn = artistCursor.getColumnIndex(MediaStore.Audio.Artists.ARTIST_KEY);
+                int tracksColumn = artistCursor.getColumnIndex(MediaStore.Audio.Artists.NUMBER_OF_TRACKS);
+                int idColumn = artistCursor.getColumnIndex(MediaStore.Audio.Artists._ID);
+                int albumsColumn = artistCursor.getColumnIndex(MediaStore.Audio.Artists.NUMBER_OF_ALBUMS);
+                do {
+                    long id = artistCursor.getLong(idColumn);
+                    String artist = artistCursor.getString(artistColumn);
+
+                    ContentValues values = new ContentValues();
+                    values.put(ArtistIndexTable.COLUMN_ID, id);
+                    values.put(ArtistIndexTable.COLUMN_ARTIST, artist);
+                    values.put(ArtistIndexTable.COLUMN_ARTISTKEY, artistCursor.getString(artistKeyColumn));
+                    values.put(ArtistIndexTable.COLUMN_NUMBEROFALBUMS, artistCursor.getInt(albumsColumn));
+                    values.put(ArtistIndexTable.COLUMN_NUMBEROFTRACKS, artistCursor.getInt(tracksColumn));
+                    values.put(ArtistIndexTable.COLUMN_COVERPATH, artist != null ? covers.get(artist) : null);
+
+                    // only write rows that changed
+                    ContentValues oldValues = indexRows.remove(id);
+                    if (oldValues == null || !oldValues.equals(values)) {
+                        mIndexDB.insertWithOnConflict(ArtistIndexTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                        written++;
+                    }
+                } while (artistCursor.moveToNext());
+            }
+
+            // what is left is gone from the MediaStore
+            for (Long id : indexRows.keySet()) {
+                mIndexDB.delete(ArtistIndexTable.TABLE_NAME, ArtistIndexTable.COLUMN_ID + "=?", new String[] { String.valueOf(id) });
+            }
+
+            if (fingerprint != null) {
+                ContentValues state = new ContentValues();
+                state.put(LibraryIndexStateTable.COLUMN_STATENAME, LibraryIndexStateTable.ARTIST_FINGERPRINT_ROW);
+                state.put(LibraryIndexStateTable.COLUMN_STATEVALUE, fingerprint);
+                mIndexDB.insertWithOnConflict(LibraryIndexStateTable.TABLE_NAME, null, state, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            mIndexDB.setTransactionSuccessful();
+        } finally {
+            mIndexDB.endTransaction();
+            artistCursor.close();
+        }
+
+        Log.v(TAG, "Artist index updated: " + written + " rows written, " + indexRows.size() + " removed in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private HashMap<Long, ContentValues> readIndexRows() {
+        HashMap<Long, ContentValues> rows = new HashMap<Long, ContentValues>();
+        Cursor cursor = mIndexDB.query(ArtistIndexTable.TABLE_NAME, projectionIndex, null, null, null, null, null);
+        if (cursor.moveToFirst()) {
+            int idColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_ID);
+            int artistColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_ARTIST);
+            int artistKeyColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_ARTISTKEY);
+            int albumsColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_NUMBEROFALBUMS);
+            int tracksColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_NUMBEROFTRACKS);
+            int coverColumn = cursor.getColumnIndex(ArtistIndexTable.COLUMN_COVERPATH);
+            do {
+                long id = cursor.getLong(idColumn);
+                ContentValues values = new ContentValues();
+                values.put(ArtistIndexTable.COLUMN_ID, id);
+                values.put(ArtistIndexTable.COLUMN_ARTIST, cursor.getString(artistColumn));
+                values.put(ArtistIndexTable.COLUMN_ARTISTKEY, cursor.getString(artistKeyColumn));
+                values.put(ArtistIndexTable.COLUMN_NUMBEROFALBUMS, cursor.getInt(albumsColumn));
+                values.put(ArtistIndexTable.COLUMN_NUMBEROFTRACKS, cursor.getInt(tracksColumn));
+                values.put(ArtistIndexTable.COLUMN_COVERPATH, cursor.getString(coverColumn));
+                rows.put(id, values);
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return rows;
+    }
+
+    private String readState(String name) {
+        String value = null;
+        Cursor cursor = mIndexDB.query(LibraryIndexStateTable.TABLE_NAME, new String[] { LibraryIndexStateTable.COLUMN_STATEVALUE }, LibraryIndexStateTable.COLUMN_STATENAME + "=?", new String[] { name }, null, null, null);
+        if (cursor.moveToFirst()) {
+            value = cursor.getString(0);
+        }
+        cursor.close();
+        return value;
+    }
+}
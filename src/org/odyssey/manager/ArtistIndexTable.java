@@ -0,0 +1,30 @@
+package org.odyssey.manager;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Index of all artists of the MediaStore, one row per artist with the
+ * MediaStore artist id as key. Holds everything the artist grid needs,
+ * including the cover of one album of the artist.
+ */
+public class ArtistIndexTable {
+
+    // Database table
+    public static final String TABLE_NAME = "artistindex";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_ARTIST = "artist";
+    public static final String COLUMN_ARTISTKEY = "artistkey";
+    public static final String COLUMN_NUMBEROFALBUMS = "numberofalbums";
+    public static final String COLUMN_NUMBEROFTRACKS = "numberoftracks";
+    public static final String COLUMN_COVERPATH = "coverpath";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table if not exists " + TABLE_NAME + "(" + COLUMN_ID + " integer primary key, " + COLUMN_ARTIST + " text, " + COLUMN_ARTISTKEY + " text, " + COLUMN_NUMBEROFALBUMS + " int, "
+            + COLUMN_NUMBEROFTRACKS + " int, " + COLUMN_COVERPATH + " text" + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        // create new table
+        database.execSQL(DATABASE_CREATE);
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.odyssey.manager;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+
+/*
+ * Pool of unused mutable bitmaps for BitmapFactory.Options.inBitmap. Before
+ * KitKat a bitmap can only be reused for an image of exactly the same size,
+ * so the bitmaps are bucketed by width, height and config. Album covers are
+ * all scaled to the grid cell size, so in steady state nearly every decode
+ * finds a bitmap here.
+ *
+ * The pool is limited by byte count, bitmaps that do not fit anymore are left
+ * to the garbage collector. Thread safe.
+ */
+public class BitmapPool {
+
+    private HashMap<String, ArrayDeque<Bitmap>> mBuckets = new HashMap<String, ArrayDeque<Bitmap>>();
+
+    private final long mMaxSize;
+    private long mSize = 0;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /*
+     * Returns a bitmap for reuse or null if there is none with this size.
+     * The content of the returned bitmap is undefined.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bucket = mBuckets.get(getKey(width, height, config));
+        Bitmap bitmap = bucket != null ? bucket.pollLast() : null;
+        if (bitmap == null) {
+            mMisses++;
+            return null;
+        }
+        mSize -= getByteCount(bitmap);
+        mHits++;
+        return bitmap;
+    }
+
+    /*
+     * Hands a bitmap to the pool. The caller must not use it afterwards.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+            return;
+        }
+        int byteCount = getByteCount(bitmap);
+        if (mSize + byteCount > mMaxSize) {
+            return;
+        }
+
+        String key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.addLast(bitmap);
+        mSize += byteCount;
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mSize = 0;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    private static String getKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + "_" + config;
+    }
+
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,447 @@
+package org.odyssey.manager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.WeakHashMap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/*
+ * Process wide cache for album covers. Covers are scaled to the size they are
+ * shown with and kept in a memory LRU (limited by byte count) and as
+ * thumbnails in the cache directory, so the full size album art is only
+ * decoded once per size. The thumbnails are shared between the UI and the
+ * service process.
+ *
+ * Covers are keyed by the path of the album art (unique per album) and the
+ * target size.
+ *
+ * Covers that drop out of the memory cache are handed to a BitmapPool and
+ * reused for decoding the next thumbnails. Views that show a cover from the
+ * cache register it with acquireBitmap() and releaseBitmap(), a cover is only
+ * reused once no view shows it anymore. Covers given to other users (see
+ * getBitmap()) are never reused.
+ *
+ * A cover can be evicted by another thread right after it was read from the
+ * memory cache, so views have to get it already acquired (see the acquire
+ * flag of getCachedBitmap() and getBitmap()) instead of acquiring it later.
+ */
+public class CoverCache {
+
+    private static final String TAG = "OdysseyCoverCache";
+
+    private static final String DISK_CACHE_DIR = "covers";
+    private static final long MAX_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    // Check the size of the disk cache after this many new thumbnails
+    private static final int DISK_CACHE_TRIM_INTERVAL = 50;
+    private static final int THUMBNAIL_QUALITY = 90;
+
+    private static CoverCache mInstance = null;
+
+    private LruCache<String, Bitmap> mMemoryCache;
+    private BitmapPool mBitmapPool;
+    private File mDiskCacheDir;
+    private int mWritesSinceTrim = 0;
+
+    /*
+     * Number of views showing a cover, covers evicted while shown and covers
+     * that must not be reused. Weak, so covers of views that were thrown away
+     * without releasing them are simply collected. Guarded by this.
+     */
+    private WeakHashMap<Bitmap, Integer> mDisplayCounts = new WeakHashMap<Bitmap, Integer>();
+    private WeakHashMap<Bitmap, Boolean> mEvictedWhileShown = new WeakHashMap<Bitmap, Boolean>();
+    private WeakHashMap<Bitmap, Boolean> mPinned = new WeakHashMap<Bitmap, Boolean>();
+
+    private CoverCache(Context context) {
+        // use an eighth of the available memory for covers and a quarter of
+        // that for bitmaps waiting for reuse
+        int cacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    recycleBitmap(oldValue);
+                }
+            }
+        };
+        mBitmapPool = new BitmapPool(cacheSize / 4);
+
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        if (!mDiskCacheDir.exists() && !mDiskCacheDir.mkdirs()) {
+            Log.e(TAG, "Could not create cover cache directory");
+        }
+    }
+
+    public static synchronized CoverCache getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new CoverCache(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    /*
+     * Returns the cover if it is in the memory cache, safe to call from the UI
+     * thread.
+     */
+    public Bitmap getCachedBitmap(String imagePath, int width, int height) {
+        return getCachedBitmap(imagePath, width, height, false);
+    }
+
+    /*
+     * Same as getCachedBitmap(), if acquire is true the cover is acquired
+     * before it can leave the memory cache. The caller has to release it.
+     */
+    public Bitmap getCachedBitmap(String imagePath, int width, int height, boolean acquire) {
+        if (imagePath == null || width <= 0 || height <= 0) {
+            return null;
+        }
+        if (!acquire) {
+            return mMemoryCache.get(getMemoryKey(imagePath, width, height));
+        }
+        // an eviction recycles the cover under the same lock, so it either
+        // misses here or sees the cover as shown
+        synchronized (this) {
+            Bitmap bitmap = mMemoryCache.get(getMemoryKey(imagePath, width, height));
+            if (bitmap != null) {
+                acquireBitmap(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /*
+     * Returns the cover scaled to fit into width x height. Checks the memory
+     * cache, then the disk cache and only decodes the album art if both miss.
+     * Blocks, so it must not be called from the UI thread.
+     *
+     * If width or height is 0 the cover is decoded in full size and not
+     * cached. The returned cover is never reused for other covers.
+     */
+    public Bitmap getBitmap(String imagePath, int width, int height) {
+        return getBitmap(imagePath, width, height, true);
+    }
+
+    /*
+     * Same as getBitmap(), if pin is false the cover can be reused after it
+     * left the memory cache and no view acquired it.
+     */
+    public Bitmap getBitmap(String imagePath, int width, int height, boolean pin) {
+        return getBitmap(imagePath, width, height, pin, false);
+    }
+
+    /*
+     * Same as getBitmap(), if acquire is true the cover is acquired before it
+     * can leave the memory cache. The caller has to release it.
+     */
+    public Bitmap getBitmap(String imagePath, int width, int height, boolean pin, boolean acquire) {
+        if (imagePath == null) {
+            return null;
+        }
+        if (width <= 0 || height <= 0) {
+            return BitmapFactory.decodeFile(imagePath);
+        }
+
+        String memoryKey = getMemoryKey(imagePath, width, height);
+        Bitmap bitmap;
+        synchronized (this) {
+            bitmap = mMemoryCache.get(memoryKey);
+            if (bitmap != null) {
+                if (pin) {
+                    pinBitmap(bitmap);
+                }
+                if (acquire) {
+                    acquireBitmap(bitmap);
+                }
+                return bitmap;
+            }
+        }
+
+        File source = new File(imagePath);
+        File thumbnail = new File(mDiskCacheDir, getDiskKey(imagePath, source.lastModified()) + "_" + width + "x" + height);
+
+        if (thumbnail.exists()) {
+            bitmap = decodeThumbnail(thumbnail);
+            if (bitmap != null) {
+                // keep recently used thumbnails on trim
+                thumbnail.setLastModified(System.currentTimeMillis());
+            }
+        }
+
+        if (bitmap == null) {
+            bitmap = decodeScaledBitmap(imagePath, width, height);
+            if (bitmap == null) {
+                return null;
+            }
+            saveThumbnail(bitmap, thumbnail);
+        }
+
+        if (pin) {
+            pinBitmap(bitmap);
+        }
+        if (acquire) {
+            acquireBitmap(bitmap);
+        }
+        mMemoryCache.put(memoryKey, bitmap);
+        return bitmap;
+    }
+
+    /*
+     * Drops all covers from memory, the thumbnails stay on disk.
+     */
+    public void clearMemoryCache() {
+        mMemoryCache.evictAll();
+        mBitmapPool.clear();
+        Log.v(TAG, "Bitmap reuse hits: " + mBitmapPool.getHits() + " misses: " + mBitmapPool.getMisses());
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /*
+     * A view started to show the cover, it is not reused until
+     * releaseBitmap() is called.
+     */
+    public synchronized void acquireBitmap(Bitmap bitmap) {
+        Integer count = mDisplayCounts.get(bitmap);
+        mDisplayCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /*
+     * The view does not show the cover anymore. The view must not use the
+     * bitmap afterwards.
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        synchronized (this) {
+            Integer count = mDisplayCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mDisplayCounts.put(bitmap, count - 1);
+                return;
+            }
+            mDisplayCounts.remove(bitmap);
+            if (mEvictedWhileShown.remove(bitmap) == null) {
+                // still in the memory cache
+                return;
+            }
+        }
+        mBitmapPool.put(bitmap);
+    }
+
+    /*
+     * Marks the cover as given away, it is never put into the pool.
+     */
+    public synchronized void pinBitmap(Bitmap bitmap) {
+        mPinned.put(bitmap, Boolean.TRUE);
+    }
+
+    /*
+     * Called when a cover left the memory cache. It goes to the pool unless
+     * it is pinned or still shown.
+     */
+    private void recycleBitmap(Bitmap bitmap) {
+        synchronized (this) {
+            if (mPinned.containsKey(bitmap)) {
+                return;
+            }
+            if (mDisplayCounts.containsKey(bitmap)) {
+                mEvictedWhileShown.put(bitmap, Boolean.TRUE);
+                return;
+            }
+        }
+        mBitmapPool.put(bitmap);
+    }
+
+    /*
+     * Decodes a thumbnail into a pooled bitmap of the same size if there is
+     * one.
+     */
+    private Bitmap decodeThumbnail(File thumbnail) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(thumbnail.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = mBitmapPool.get(options.outWidth, options.outHeight, options.inPreferredConfig);
+        try {
+            return BitmapFactory.decodeFile(thumbnail.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap did not fit after all
+            Log.w(TAG, "Could not reuse bitmap for " + thumbnail.getName());
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(thumbnail.getPath(), options);
+        }
+    }
+
+    private Bitmap decodeScaledBitmap(String imagePath, int width, int height) {
+        // subsample while decoding, then scale down to the exact size
+        Bitmap bitmap = decodeSampledBitmap(imagePath, width, height);
+        if (bitmap == null) {
+            return null;
+        }
+
+        float scale = Math.min((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+        if (scale < 1.0f) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)), Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decodeSampledBitmap(String pathName, int reqWidth, int reqHeight) {
+
+        // First decode with inJustDecodeBounds=true to check dimensions
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(pathName, options);
+
+        // Calculate inSampleSize
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+
+        // Decode bitmap with inSampleSize set, mutable so it can be reused
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        return BitmapFactory.decodeFile(pathName, options);
+    }
+
+    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        // Raw height and width of image
+        final int height = options.outHeight;
+        final int width = options.outWidth;
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            // Calculate the largest inSampleSize value that is a power of 2 and
+            // keeps both height and width larger than the requested height and
+            // width.
+            while ((halfHeight / inSampleSize) > reqHeight && (halfWidth / inSampleSize) > reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+
+    private void saveThumbnail(Bitmap bitmap, File thumbnail) {
+        // write to a temporary file first, the other process could read it
+        // at the same time
+        File tmpFile = new File(mDiskCacheDir, thumbnail.getName() + "." + android.os.Process.myPid() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(thumbnail)) {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write thumbnail " + thumbnail.getName());
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        boolean trim = false;
+        synchronized (this) {
+            if (++mWritesSinceTrim >= DISK_CACHE_TRIM_INTERVAL) {
+                mWritesSinceTrim = 0;
+                trim = true;
+            }
+        }
+        if (trim) {
+            trimDiskCache();
+        }
+    }
+
+    /*
+     * Deletes the least recently used thumbnails until the disk cache is
+     * smaller than MAX_DISK_CACHE_SIZE.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_DISK_CACHE_SIZE) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length && size > MAX_DISK_CACHE_SIZE; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static String getMemoryKey(String imagePath, int width, int height) {
+        return imagePath + "_" + width + "x" + height;
+    }
+
+    /*
+     * The modification time of the album art is part of the key, so a changed
+     * cover gets a new thumbnail.
+     */
+    private static String getDiskKey(String imagePath, long lastModified) {
+        String key = imagePath + "_" + lastModified;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes());
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
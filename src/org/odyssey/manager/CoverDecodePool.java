@@ -0,0 +1,287 @@
+package org.odyssey.manager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.provider.MediaStore;
+
+/*
+ * Process wide pool for loading covers through the CoverCache. A small fixed
+ * number of threads decodes the requests by priority, newest first within
+ * one priority.
+ *
+ * Requests for the same cover and size that are waiting or decoding are
+ * merged, every consumer gets its own Request handle. A request can be
+ * cancelled at any time, the decode itself is dropped once nobody waits for
+ * it anymore.
+ *
+ * Every delivered cover is acquired in the CoverCache for its listener.
+ * Covers loaded with loadCover() may be reused once they are released, so
+ * the listener has to call releaseBitmap() when it stops showing the cover or
+ * drops it without showing it. Album covers are pinned and never reused.
+ */
+public class CoverDecodePool {
+
+    // Cover of the currently playing track that is shown in the app
+    public static final int PRIORITY_NOW_PLAYING = 0;
+    // Visible grid cells
+    public static final int PRIORITY_VISIBLE = 1;
+    // Notification, lockscreen and widget
+    public static final int PRIORITY_BACKGROUND = 2;
+    // Grid cells that are about to scroll in
+    public static final int PRIORITY_PREFETCH = 3;
+
+    private static final int MAX_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static CoverDecodePool mInstance = null;
+
+    private Context mContext;
+    private ThreadPoolExecutor mExecutor;
+
+    // Waiting and running decodes by key, guarded by this
+    private HashMap<String, DecodeTask> mTasks = new HashMap<String, DecodeTask>();
+
+    // Resolved album art paths by album key, guarded by this
+    private HashMap<String, String> mAlbumArtPaths = new HashMap<String, String>();
+
+    private long mNextSequence = 0;
+
+    /*
+     * Called on a decode thread when the cover is ready, the cover is acquired
+     * for the listener. Not called for cancelled requests or if the album has
+     * no cover.
+     */
+    public interface CoverListener {
+        public void onCoverLoaded(Bitmap cover);
+    }
+
+    /*
+     * Handle of one consumer for a possibly shared decode
+     */
+    public class Request {
+        private DecodeTask mTask;
+        private CoverListener mListener;
+        private volatile boolean mCancelled = false;
+
+        private Request(DecodeTask task, CoverListener listener) {
+            mTask = task;
+            mListener = listener;
+        }
+
+        public void cancel() {
+            synchronized (CoverDecodePool.this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                mTask.mRequests.remove(this);
+                if (mTask.mRequests.isEmpty() && !mTask.mRunning) {
+                    // nobody is interested anymore, drop it from the queue
+                    mExecutor.remove(mTask);
+                    mTask.forget();
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private CoverDecodePool(Context context) {
+        mContext = context;
+
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "OdysseyCoverDecoder #" + ++mCount);
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized CoverDecodePool getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new CoverDecodePool(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    /*
+     * Loads the cover at imagePath scaled to width x height.
+     */
+    public Request loadCover(String imagePath, int width, int height, int priority, CoverListener listener) {
+        return enqueue(imagePath + "_" + width + "x" + height, imagePath, null, width, height, priority, false, listener);
+    }
+
+    /*
+     * Loads the cover of the album with albumKey scaled to width x height. The
+     * album art path is looked up on the decode thread.
+     */
+    public Request loadAlbumCover(String albumKey, int width, int height, int priority, CoverListener listener) {
+        String imagePath;
+        synchronized (this) {
+            imagePath = mAlbumArtPaths.get(albumKey);
+        }
+        if (imagePath != null) {
+            return enqueue(imagePath + "_" + width + "x" + height, imagePath, null, width, height, priority, true, listener);
+        }
+        return enqueue("album:" + albumKey + "_" + width + "x" + height, null, albumKey, width, height, priority, true, listener);
+    }
+
+    private synchronized Request enqueue(String key, String imagePath, String albumKey, int width, int height, int priority, boolean pin, CoverListener listener) {
+        DecodeTask task = mTasks.get(key);
+        if (task == null) {
+            task = new DecodeTask(key, imagePath, albumKey, width, height, priority, mNextSequence++);
+            task.mPin = pin;
+            mTasks.put(key, task);
+            Request request = new Request(task, listener);
+            task.mRequests.add(request);
+            mExecutor.execute(task);
+            return request;
+        }
+
+        Request request = new Request(task, listener);
+        task.mRequests.add(request);
+        task.mPin |= pin;
+        if (!task.mRunning && priority < task.mPriority && mExecutor.remove(task)) {
+            // requeue with the more urgent priority
+            task.mPriority = priority;
+            task.mSequence = mNextSequence++;
+            mExecutor.execute(task);
+        }
+        return request;
+    }
+
+    private String queryAlbumArtPath(String albumKey) {
+        String where = MediaStore.Audio.Albums.ALBUM_KEY + "=?";
+        String whereVal[] = { albumKey };
+
+        String imagePath = null;
+        Cursor cursor = mContext.getContentResolver().query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, new String[] { MediaStore.Audio.Albums.ALBUM_ART }, where, whereVal, "");
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                imagePath = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART));
+            }
+            cursor.close();
+        }
+        return imagePath;
+    }
+
+    private class DecodeTask implements Runnable, Comparable<DecodeTask> {
+        final String mKey;
+        final String mAlbumKey;
+        final int mWidth;
+        final int mHeight;
+        String mImagePath;
+        int mPriority;
+        long mSequence;
+        boolean mRunning = false;
+        // at least one consumer keeps the bitmap, never reuse it
+        boolean mPin = false;
+        final ArrayList<Request> mRequests = new ArrayList<Request>();
+
+        DecodeTask(String key, String imagePath, String albumKey, int width, int height, int priority, long sequence) {
+            mKey = key;
+            mImagePath = imagePath;
+            mAlbumKey = albumKey;
+            mWidth = width;
+            mHeight = height;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(DecodeTask another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            }
+            // newest first, the last requested cells are the ones on screen
+            return mSequence > another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            boolean pinOnDecode;
+            synchronized (CoverDecodePool.this) {
+                if (mRequests.isEmpty()) {
+                    forget();
+                    return;
+                }
+                mRunning = true;
+                pinOnDecode = mPin;
+            }
+
+            Bitmap bitmap = null;
+            try {
+                if (mImagePath == null && mAlbumKey != null) {
+                    mImagePath = queryAlbumArtPath(mAlbumKey);
+                    if (mImagePath != null) {
+                        synchronized (CoverDecodePool.this) {
+                            mAlbumArtPaths.put(mAlbumKey, mImagePath);
+                        }
+                    }
+                }
+                if (mImagePath != null && !isCancelled()) {
+                    // held by the task until it is acquired for the listeners
+                    bitmap = CoverCache.getInstance(mContext).getBitmap(mImagePath, mWidth, mHeight, pinOnDecode, true);
+                }
+            } finally {
+                ArrayList<Request> requests;
+                boolean pin;
+                synchronized (CoverDecodePool.this) {
+                    forget();
+                    requests = new ArrayList<Request>(mRequests);
+                    mRequests.clear();
+                    pin = mPin;
+                }
+                if (bitmap != null) {
+                    CoverCache cache = CoverCache.getInstance(mContext);
+                    if (pin && !pinOnDecode) {
+                        cache.pinBitmap(bitmap);
+                    }
+                    for (Request request : requests) {
+                        if (!request.mCancelled) {
+                            cache.acquireBitmap(bitmap);
+                            request.mListener.onCoverLoaded(bitmap);
+                        }
+                    }
+                    cache.releaseBitmap(bitmap);
+                }
+            }
+        }
+
+        /*
+         * Removes the task from mTasks unless a newer task took its key
+         * already. Must be called with the pool locked.
+         */
+        void forget() {
+            if (mTasks.get(mKey) == this) {
+                mTasks.remove(mKey);
+            }
+        }
+
+        private boolean isCancelled() {
+            synchronized (CoverDecodePool.this) {
+                return mRequests.isEmpty();
+            }
+        }
+    }
+}
@@ -1,50 +1,79 @@
 package org.odyssey.manager;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 
+import org.odyssey.playbackservice.PlaylistQueue;
 import org.odyssey.playbackservice.TrackItem;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 public class DatabaseManager {
 
+    // Journal is merged into the snapshot once it has more rows than this
+    private static final int MIN_JOURNAL_COMPACT_SIZE = 256;
+
     private PlaylistDBHelper mPlaylistDBHelper;
     private SQLiteDatabase mPlaylistDB;
 
-    private String[] projectionTrackItems = { TrackItemTable.COLUMN_TRACKNUMBER, TrackItemTable.COLUMN_TRACKTITLE, TrackItemTable.COLUMN_TRACKALBUM, TrackItemTable.COLUMN_TRACKALBUMKEY, TrackItemTable.COLUMN_TRACKDURATION,
-            TrackItemTable.COLUMN_TRACKARTIST, TrackItemTable.COLUMN_TRACKURL };
+    private String[] projectionTrackItems = { TrackItemTable.COLUMN_ID, TrackItemTable.COLUMN_TRACKNUMBER, TrackItemTable.COLUMN_TRACKTITLE, TrackItemTable.COLUMN_TRACKALBUM, TrackItemTable.COLUMN_TRACKALBUMKEY,
+            TrackItemTable.COLUMN_TRACKDURATION, TrackItemTable.COLUMN_TRACKARTIST, TrackItemTable.COLUMN_TRACKURL };
 
     public DatabaseManager(Context context) {
         mPlaylistDBHelper = new PlaylistDBHelper(context);
         mPlaylistDB = mPlaylistDBHelper.getWritableDatabase();
     }
 
-    public void savePlaylist(ArrayList<TrackItem> playList) {
-        // clear the database
-        mPlaylistDB.delete(TrackItemTable.TABLE_NAME, null, null);
-
+    /*
+     * Writes a complete snapshot of the playlist. Only the track ids are
+     * stored in unshuffled order together with their shuffled position, the
+     * metadata of every distinct track is stored once in the trackitem table.
+     */
+    public void savePlaylist(PlaylistQueue playList) {
         ContentValues values = new ContentValues();
 
         mPlaylistDB.beginTransaction();
 
-        for (TrackItem item : playList) {
+        // clear the database, the new snapshot makes the journal obsolete
+        mPlaylistDB.delete(PlaylistTable.TABLE_NAME, null, null);
+        mPlaylistDB.delete(PlaylistJournalTable.TABLE_NAME, null, null);
+        mPlaylistDB.delete(TrackItemTable.TABLE_NAME, null, null);
 
-            values.clear();
+        HashMap<Long, Boolean> savedTracks = new HashMap<Long, Boolean>();
 
-            // set trackitem parameters
-            values.put(TrackItemTable.COLUMN_TRACKTITLE, item.getTrackTitle());
-            values.put(TrackItemTable.COLUMN_TRACKDURATION, item.getTrackDuration());
-            values.put(TrackItemTable.COLUMN_TRACKNUMBER, item.getTrackNumber());
-            values.put(TrackItemTable.COLUMN_TRACKARTIST, item.getTrackArtist());
-            values.put(TrackItemTable.COLUMN_TRACKALBUM, item.getTrackAlbum());
-            values.put(TrackItemTable.COLUMN_TRACKURL, item.getTrackURL());
-            values.put(TrackItemTable.COLUMN_TRACKALBUMKEY, item.getTrackAlbumKey());
+        // shuffled position of every track in original order
+        int[] shufflePositions = null;
+        if (playList.isShuffled()) {
+            shufflePositions = new int[playList.size()];
+            for (int i = 0; i < playList.size(); i++) {
+                shufflePositions[playList.getOriginalIndex(i)] = i;
+            }
+        }
 
-            mPlaylistDB.insert(TrackItemTable.TABLE_NAME, null, values);
+        for (int i = 0; i < playList.size(); i++) {
+            long id = playList.getOriginalId(i);
+
+            values.clear();
+            values.put(PlaylistTable.COLUMN_TRACKID, id);
+            if (shufflePositions != null) {
+                values.put(PlaylistTable.COLUMN_SHUFFLEPOSITION, shufflePositions[i]);
+            }
+            mPlaylistDB.insert(PlaylistTable.TABLE_NAME, null, values);
+
+            if (!savedTracks.containsKey(id)) {
+                values.clear();
+                int position = shufflePositions != null ? shufflePositions[i] : i;
+                saveTrackItem(values, id, playList.get(position));
+                savedTracks.put(id, true);
+            }
         }
 
         mPlaylistDB.setTransactionSuccessful();
@@ -52,208 +81,401 @@ public class DatabaseManager {
 
     }
 
-    public ArrayList<TrackItem> readPlaylist() {
+    public PlaylistQueue readPlaylist() {
 
         // get all trackitems from database and return them
 
-        ArrayList<TrackItem> playList = new ArrayList<TrackItem>();
+        PlaylistQueue playList = new PlaylistQueue();
 
-        Cursor cursor = mPlaylistDB.query(TrackItemTable.TABLE_NAME, projectionTrackItems, "", null, "", "", TrackItemTable.COLUMN_ID);
+        HashMap<Long, TrackItem> tracks = readTrackItems();
+
+        String[] projection = { PlaylistTable.COLUMN_TRACKID, PlaylistTable.COLUMN_SHUFFLEPOSITION };
+        Cursor cursor = mPlaylistDB.query(PlaylistTable.TABLE_NAME, projection, null, null, null, null, PlaylistTable.COLUMN_ID);
 
         if (cursor.moveToFirst()) {
+            int trackIdColumn = cursor.getColumnIndex(PlaylistTable.COLUMN_TRACKID);
+            int shufflePositionColumn = cursor.getColumnIndex(PlaylistTable.COLUMN_SHUFFLEPOSITION);
+            int[] order = null;
             do {
-                String title = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKTITLE));
-                long duration = cursor.getLong(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKDURATION));
-                int no = cursor.getInt(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKNUMBER));
-                String artist = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKARTIST));
-                String album = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUM));
-                String url = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKURL));
-                String albumKey = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUMKEY));
-
-                TrackItem item = new TrackItem(title, artist, album, url, no, duration, albumKey);
-
-                playList.add(item);
-
+                long id = cursor.getLong(trackIdColumn);
+                playList.add(playList.size(), id, getTrackItem(tracks, id));
+
+                if (!cursor.isNull(shufflePositionColumn)) {
+                    if (order == null) {
+                        order = new int[cursor.getCount()];
+                    }
+                    order[cursor.getInt(shufflePositionColumn)] = cursor.getPosition();
+                }
             } while (cursor.moveToNext());
+
+            playList.setOrder(order);
         }
 
         cursor.close();
 
+        // apply all modifications made since the snapshot was written
+        replayJournal(playList, tracks);
+
         return playList;
     }
 
     public void clearPlaylist() {
 
         // clear the database
+        mPlaylistDB.beginTransaction();
+        mPlaylistDB.delete(PlaylistTable.TABLE_NAME, null, null);
+        mPlaylistDB.delete(PlaylistJournalTable.TABLE_NAME, null, null);
         mPlaylistDB.delete(TrackItemTable.TABLE_NAME, null, null);
+        mPlaylistDB.setTransactionSuccessful();
+        mPlaylistDB.endTransaction();
     }
 
-    public TrackItem getTrackItem(int id) {
+    public int getSize() {
 
-        // get row id and return the trackitem
+        // get number of tracks in the snapshot
 
-        String whereVal[] = { "" + id };
+        return (int) DatabaseUtils.queryNumEntries(mPlaylistDB, PlaylistTable.TABLE_NAME);
+    }
 
-        Cursor cursor = mPlaylistDB.query(TrackItemTable.TABLE_NAME, projectionTrackItems, TrackItemTable.COLUMN_ID + "=?", whereVal, "", "", TrackItemTable.COLUMN_ID);
+    /*
+     * Returns the size the playlist will have after readPlaylist() without
+     * building it, journal inserts and removes are just counted.
+     */
+    public int getPlaylistSize() {
+        long inserts = DatabaseUtils.queryNumEntries(mPlaylistDB, PlaylistJournalTable.TABLE_NAME, PlaylistJournalTable.COLUMN_OPERATION + "=" + PlaylistJournalTable.OPERATION_INSERT);
+        long removes = DatabaseUtils.queryNumEntries(mPlaylistDB, PlaylistJournalTable.TABLE_NAME, PlaylistJournalTable.COLUMN_OPERATION + "=" + PlaylistJournalTable.OPERATION_REMOVE);
 
-        TrackItem item = null;
+        return (int) Math.max(0, getSize() + inserts - removes);
+    }
 
-        if (cursor.moveToFirst()) {
-            String title = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKTITLE));
-            long duration = cursor.getLong(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKDURATION));
-            int no = cursor.getInt(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKNUMBER));
-            String artist = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKARTIST));
-            String album = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUM));
-            String url = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKURL));
-            String albumKey = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUMKEY));
-
-            item = new TrackItem(title, artist, album, url, no, duration, albumKey);
+    /*
+     * Reads tracks directly from the saved snapshot without restoring the whole
+     * playlist. Inserts and removes of the journal are applied to the window
+     * positions, shuffles would reorder the whole playlist and are not, returns
+     * false if the journal contains one.
+     */
+    public boolean readPlaylistWindow(int start, int count, List<TrackItem> tracks) {
+        // read snapshot and journal consistently while the handler thread may
+        // write the journal
+        mPlaylistDB.beginTransaction();
+        try {
+            int size = getSize();
+            ArrayList<JournalOperation> operations = new ArrayList<JournalOperation>();
+
+            String[] projection = { PlaylistJournalTable.COLUMN_OPERATION, PlaylistJournalTable.COLUMN_POSITION, PlaylistJournalTable.COLUMN_TRACKID };
+            Cursor cursor = mPlaylistDB.query(PlaylistJournalTable.TABLE_NAME, projection, null, null, null, null, PlaylistJournalTable.COLUMN_ID);
+
+            if (cursor.moveToFirst()) {
+                int operationColumn = cursor.getColumnIndex(PlaylistJournalTable.COLUMN_OPERATION);
+                int positionColumn = cursor.getColumnIndex(PlaylistJournalTable.COLUMN_POSITION);
+                int trackIdColumn = cursor.getColumnIndex(PlaylistJournalTable.COLUMN_TRACKID);
+
+                do {
+                    int operation = cursor.getInt(operationColumn);
+                    int position = cursor.getInt(positionColumn);
+
+                    // same corrections as replayJournal()
+                    if (operation == PlaylistJournalTable.OPERATION_INSERT) {
+                        if (position < 0 || position > size) {
+                            position = size;
+                        }
+                        operations.add(new JournalOperation(true, position, cursor.getLong(trackIdColumn)));
+                        size++;
+                    } else if (operation == PlaylistJournalTable.OPERATION_REMOVE) {
+                        if (position >= 0 && position < size) {
+                            operations.add(new JournalOperation(false, position, -1));
+                            size--;
+                        }
+                    } else {
+                        cursor.close();
+                        return false;
+                    }
+                } while (cursor.moveToNext());
+            }
+
+            cursor.close();
+
+            if (start < 0) {
+                start = 0;
+            }
+            int end = Math.min(start + count, size);
+            if (start >= end) {
+                return true;
+            }
+
+            // follow every position of the window back through the journal,
+            // it ends in the snapshot or at the insert of the track
+            int[] snapshotPositions = new int[end - start];
+            long[] journalIds = new long[end - start];
+            int firstSnapshotPosition = Integer.MAX_VALUE;
+            int lastSnapshotPosition = -1;
+            HashSet<Long> insertedIds = new HashSet<Long>();
+            for (int i = 0; i < snapshotPositions.length; i++) {
+                int position = start + i;
+                for (int j = operations.size() - 1; j >= 0 && position >= 0; j--) {
+                    JournalOperation operation = operations.get(j);
+                    if (!operation.mInsert) {
+                        if (position >= operation.mPosition) {
+                            position++;
+                        }
+                    } else if (position == operation.mPosition) {
+                        journalIds[i] = operation.mTrackId;
+                        insertedIds.add(operation.mTrackId);
+                        position = -1;
+                    } else if (position > operation.mPosition) {
+                        position--;
+                    }
+                }
+                snapshotPositions[i] = position;
+                if (position >= 0) {
+                    firstSnapshotPosition = Math.min(firstSnapshotPosition, position);
+                    lastSnapshotPosition = Math.max(lastSnapshotPosition, position);
+                }
+            }
+
+            ArrayList<TrackItem> snapshotTracks = new ArrayList<TrackItem>();
+            if (lastSnapshotPosition >= 0) {
+                readSnapshotWindow(firstSnapshotPosition, lastSnapshotPosition - firstSnapshotPosition + 1, snapshotTracks);
+            }
+            HashMap<Long, TrackItem> insertedTracks = insertedIds.isEmpty() ? new HashMap<Long, TrackItem>() : readTrackItems(insertedIds);
+
+            for (int i = 0; i < snapshotPositions.length; i++) {
+                if (snapshotPositions[i] < 0) {
+                    tracks.add(getTrackItem(insertedTracks, journalIds[i]));
+                } else if (snapshotPositions[i] - firstSnapshotPosition < snapshotTracks.size()) {
+                    tracks.add(snapshotTracks.get(snapshotPositions[i] - firstSnapshotPosition));
+                } else {
+                    tracks.add(new TrackItem());
+                }
+            }
+
+            return true;
+        } finally {
+            mPlaylistDB.endTransaction();
         }
-
-        cursor.close();
-
-        return item;
     }
 
-    public int getSize() {
-
-        // get number of rows in the database
+    /*
+     * Reads count tracks of the snapshot beginning at start in playback order
+     */
+    private void readSnapshotWindow(int start, int count, List<TrackItem> tracks) {
+        String query = "SELECT " + PlaylistTable.COLUMN_TRACKID + ",t." + TrackItemTable.COLUMN_ID + "," + TrackItemTable.COLUMN_TRACKNUMBER + "," + TrackItemTable.COLUMN_TRACKTITLE + "," + TrackItemTable.COLUMN_TRACKALBUM + ","
+                + TrackItemTable.COLUMN_TRACKALBUMKEY + "," + TrackItemTable.COLUMN_TRACKDURATION + "," + TrackItemTable.COLUMN_TRACKARTIST + "," + TrackItemTable.COLUMN_TRACKURL + " FROM " + PlaylistTable.TABLE_NAME + " p LEFT JOIN "
+                + TrackItemTable.TABLE_NAME + " t ON p." + PlaylistTable.COLUMN_TRACKID + "=t." + TrackItemTable.COLUMN_ID + " ORDER BY IFNULL(p." + PlaylistTable.COLUMN_SHUFFLEPOSITION + ",p." + PlaylistTable.COLUMN_ID + ") LIMIT " + count + " OFFSET " + start;
 
-        String[] projection = { TrackItemTable.COLUMN_ID };
+        Cursor cursor = mPlaylistDB.rawQuery(query, null);
 
-        Cursor cursor = mPlaylistDB.query(TrackItemTable.TABLE_NAME, projection, "", null, "", "", TrackItemTable.COLUMN_ID);
+        if (cursor.moveToFirst()) {
+            int trackIdColumn = cursor.getColumnIndex(PlaylistTable.COLUMN_TRACKID);
+            int idColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_ID);
+            int titleColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKTITLE);
+            int durationColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKDURATION);
+            int numberColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKNUMBER);
+            int artistColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKARTIST);
+            int albumColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUM);
+            int urlColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKURL);
+            int albumKeyColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUMKEY);
 
-        int size = cursor.getCount();
+            do {
+                if (cursor.isNull(idColumn)) {
+                    // metadata missing
+                    tracks.add(new TrackItem());
+                } else {
+                    tracks.add(new TrackItem(cursor.getString(titleColumn), cursor.getString(artistColumn), cursor.getString(albumColumn), cursor.getString(urlColumn), cursor.getInt(numberColumn), cursor.getLong(durationColumn),
+                            cursor.getString(albumKeyColumn), cursor.getLong(trackIdColumn)));
+                }
+            } while (cursor.moveToNext());
+        }
 
         cursor.close();
-
-        return size;
     }
 
-    public void enqueueTrackItem(TrackItem item) {
-
-        // save trackitem to database
-
-        ContentValues values = new ContentValues();
-
-        mPlaylistDB.beginTransaction();
-
-        // set trackitem parameters
-        values.put(TrackItemTable.COLUMN_TRACKTITLE, item.getTrackTitle());
-        values.put(TrackItemTable.COLUMN_TRACKDURATION, item.getTrackDuration());
-        values.put(TrackItemTable.COLUMN_TRACKNUMBER, item.getTrackNumber());
-        values.put(TrackItemTable.COLUMN_TRACKARTIST, item.getTrackArtist());
-        values.put(TrackItemTable.COLUMN_TRACKALBUM, item.getTrackAlbum());
-        values.put(TrackItemTable.COLUMN_TRACKURL, item.getTrackURL());
-        values.put(TrackItemTable.COLUMN_TRACKALBUMKEY, item.getTrackAlbumKey());
-
-        mPlaylistDB.insert(TrackItemTable.TABLE_NAME, null, values);
-
-        mPlaylistDB.setTransactionSuccessful();
-        mPlaylistDB.endTransaction();
+    /*
+     * Journal methods, these record single playlist modifications so the
+     * playlist can be restored without rewriting the whole snapshot.
+     */
 
+    public void journalInsertTrack(PlaylistQueue playList, int position) {
+        journalInsertTracks(playList, position, 1);
     }
 
-    public void enqueueTrackList(ArrayList<TrackItem> list) {
-
-        // save trackitems to database
-
+    /*
+     * Journals count tracks of the playlist beginning at position as inserted.
+     */
+    public void journalInsertTracks(PlaylistQueue playList, int position, int count) {
         ContentValues values = new ContentValues();
 
         mPlaylistDB.beginTransaction();
 
-        for (TrackItem item : list) {
+        for (int i = position; i < position + count; i++) {
+            long id = playList.getId(i);
 
             values.clear();
+            saveTrackItem(values, id, playList.get(i));
 
-            // set trackitem parameters
-            values.put(TrackItemTable.COLUMN_TRACKTITLE, item.getTrackTitle());
-            values.put(TrackItemTable.COLUMN_TRACKDURATION, item.getTrackDuration());
-            values.put(TrackItemTable.COLUMN_TRACKNUMBER, item.getTrackNumber());
-            values.put(TrackItemTable.COLUMN_TRACKARTIST, item.getTrackArtist());
-            values.put(TrackItemTable.COLUMN_TRACKALBUM, item.getTrackAlbum());
-            values.put(TrackItemTable.COLUMN_TRACKURL, item.getTrackURL());
-            values.put(TrackItemTable.COLUMN_TRACKALBUMKEY, item.getTrackAlbumKey());
-
-            mPlaylistDB.insert(TrackItemTable.TABLE_NAME, null, values);
+            values.clear();
+            values.put(PlaylistJournalTable.COLUMN_OPERATION, PlaylistJournalTable.OPERATION_INSERT);
+            values.put(PlaylistJournalTable.COLUMN_POSITION, i);
+            values.put(PlaylistJournalTable.COLUMN_TRACKID, id);
+            mPlaylistDB.insert(PlaylistJournalTable.TABLE_NAME, null, values);
         }
 
         mPlaylistDB.setTransactionSuccessful();
         mPlaylistDB.endTransaction();
-
     }
 
-    public void dequeueTrackItem(int id) {
+    public void journalRemoveTrack(int position) {
+        ContentValues values = new ContentValues();
+        values.put(PlaylistJournalTable.COLUMN_OPERATION, PlaylistJournalTable.OPERATION_REMOVE);
+        values.put(PlaylistJournalTable.COLUMN_POSITION, position);
+        mPlaylistDB.insert(PlaylistJournalTable.TABLE_NAME, null, values);
+    }
 
-        // FIXME change ids of the rest
+    /*
+     * Shuffle is stored by its seed, replay calls PlaylistQueue.shuffle(new
+     * Random(seed), position) which keeps the track at position (if not -1) in
+     * front.
+     */
+    public void journalShuffle(int position, long seed) {
+        ContentValues values = new ContentValues();
+        values.put(PlaylistJournalTable.COLUMN_OPERATION, PlaylistJournalTable.OPERATION_SHUFFLE);
+        values.put(PlaylistJournalTable.COLUMN_POSITION, position);
+        values.put(PlaylistJournalTable.COLUMN_SEED, seed);
+        mPlaylistDB.insert(PlaylistJournalTable.TABLE_NAME, null, values);
+    }
 
-        // delete current row
+    public void journalUnshuffle() {
+        ContentValues values = new ContentValues();
+        values.put(PlaylistJournalTable.COLUMN_OPERATION, PlaylistJournalTable.OPERATION_UNSHUFFLE);
+        mPlaylistDB.insert(PlaylistJournalTable.TABLE_NAME, null, values);
+    }
 
-        String whereVal[] = { "" + id };
+    public long getJournalSize() {
+        return DatabaseUtils.queryNumEntries(mPlaylistDB, PlaylistJournalTable.TABLE_NAME);
+    }
 
-        mPlaylistDB.delete(TrackItemTable.TABLE_NAME, TrackItemTable.COLUMN_ID + "=?", whereVal);
+    /*
+     * Writes a new snapshot if the journal grew larger than the snapshot
+     * itself, so compaction cost stays proportional to the number of changes.
+     */
+    public void compactPlaylist(PlaylistQueue playList) {
+        long journalSize = getJournalSize();
+        long snapshotSize = getSize();
 
+        if (journalSize > MIN_JOURNAL_COMPACT_SIZE && journalSize > snapshotSize) {
+            savePlaylist(playList);
+        }
     }
 
-    public void shufflePlaylist() {
+    private void saveTrackItem(ContentValues values, long id, TrackItem item) {
+        values.put(TrackItemTable.COLUMN_ID, id);
+        values.put(TrackItemTable.COLUMN_TRACKTITLE, item.getTrackTitle());
+        values.put(TrackItemTable.COLUMN_TRACKDURATION, item.getTrackDuration());
+        values.put(TrackItemTable.COLUMN_TRACKNUMBER, item.getTrackNumber());
+        values.put(TrackItemTable.COLUMN_TRACKARTIST, item.getTrackArtist());
+        values.put(TrackItemTable.COLUMN_TRACKALBUM, item.getTrackAlbum());
+        values.put(TrackItemTable.COLUMN_TRACKURL, item.getTrackURL());
+        values.put(TrackItemTable.COLUMN_TRACKALBUMKEY, item.getTrackAlbumKey());
 
-        // TODO not very efficient
+        mPlaylistDB.insertWithOnConflict(TrackItemTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
 
-        // get all Tracks
-        ArrayList<TrackItem> playList = new ArrayList<TrackItem>();
+    private HashMap<Long, TrackItem> readTrackItems() {
+        return readTrackItems((String) null);
+    }
 
-        Cursor cursor = mPlaylistDB.query(TrackItemTable.TABLE_NAME, projectionTrackItems, "", null, "", "", TrackItemTable.COLUMN_ID);
+    /*
+     * Reads the metadata of the given track ids only
+     */
+    private HashMap<Long, TrackItem> readTrackItems(Collection<Long> ids) {
+        StringBuilder selection = new StringBuilder(TrackItemTable.COLUMN_ID + " IN (");
+        boolean first = true;
+        for (long id : ids) {
+            if (!first) {
+                selection.append(',');
+            }
+            selection.append(id);
+            first = false;
+        }
+        selection.append(')');
+        return readTrackItems(selection.toString());
+    }
 
-        if (cursor.moveToFirst()) {
-            do {
-                String title = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKTITLE));
-                long duration = cursor.getLong(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKDURATION));
-                int no = cursor.getInt(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKNUMBER));
-                String artist = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKARTIST));
-                String album = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUM));
-                String url = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKURL));
-                String albumKey = cursor.getString(cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUMKEY));
+    private HashMap<Long, TrackItem> readTrackItems(String selection) {
+        HashMap<Long, TrackItem> tracks = new HashMap<Long, TrackItem>();
 
-                TrackItem item = new TrackItem(title, artist, album, url, no, duration, albumKey);
+        Cursor cursor = mPlaylistDB.query(TrackItemTable.TABLE_NAME, projectionTrackItems, selection, null, null, null, null);
 
-                playList.add(item);
+        if (cursor.moveToFirst()) {
+            int idColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_ID);
+            int titleColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKTITLE);
+            int durationColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKDURATION);
+            int numberColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKNUMBER);
+            int artistColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKARTIST);
+            int albumColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUM);
+            int urlColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKURL);
+            int albumKeyColumn = cursor.getColumnIndex(TrackItemTable.COLUMN_TRACKALBUMKEY);
 
+            do {
+                long id = cursor.getLong(idColumn);
+                TrackItem item = new TrackItem(cursor.getString(titleColumn), cursor.getString(artistColumn), cursor.getString(albumColumn), cursor.getString(urlColumn), cursor.getInt(numberColumn), cursor.getLong(durationColumn),
+                        cursor.getString(albumKeyColumn), id);
+                tracks.put(id, item);
             } while (cursor.moveToNext());
         }
-        cursor.close();
-
-        // shuffle the list
-        Collections.shuffle(playList);
 
-        // update database
-        ContentValues values = new ContentValues();
+        cursor.close();
 
-        mPlaylistDB.beginTransaction();
+        return tracks;
+    }
 
-        for (int i = 0; i < playList.size(); i++) {
-            values.clear();
+    private TrackItem getTrackItem(HashMap<Long, TrackItem> tracks, long id) {
+        TrackItem item = tracks.get(id);
+        if (item == null) {
+            // metadata missing, keep the position anyway
+            item = new TrackItem();
+        }
+        return item;
+    }
 
-            // set trackitem parameters
-            values.put(TrackItemTable.COLUMN_TRACKTITLE, playList.get(i).getTrackTitle());
-            values.put(TrackItemTable.COLUMN_TRACKDURATION, playList.get(i).getTrackDuration());
-            values.put(TrackItemTable.COLUMN_TRACKNUMBER, playList.get(i).getTrackNumber());
-            values.put(TrackItemTable.COLUMN_TRACKARTIST, playList.get(i).getTrackArtist());
-            values.put(TrackItemTable.COLUMN_TRACKALBUM, playList.get(i).getTrackAlbum());
-            values.put(TrackItemTable.COLUMN_TRACKURL, playList.get(i).getTrackURL());
-            values.put(TrackItemTable.COLUMN_TRACKALBUMKEY, playList.get(i).getTrackAlbumKey());
+    private void replayJournal(PlaylistQueue playList, HashMap<Long, TrackItem> tracks) {
+        String[] projection = { PlaylistJournalTable.COLUMN_OPERATION, PlaylistJournalTable.COLUMN_POSITION, PlaylistJournalTable.COLUMN_SEED, PlaylistJournalTable.COLUMN_TRACKID };
+        Cursor cursor = mPlaylistDB.query(PlaylistJournalTable.TABLE_NAME, projection, null, null, null, null, PlaylistJournalTable.COLUMN_ID);
 
-            String whereVal[] = { "" + i };
+        if (cursor.moveToFirst()) {
+            int operationColumn = cursor.getColumnIndex(PlaylistJournalTable.COLUMN_OPERATION);
+            int positionColumn = cursor.getColumnIndex(PlaylistJournalTable.COLUMN_POSITION);
+            int seedColumn = cursor.getColumnIndex(PlaylistJournalTable.COLUMN_SEED);
+            int trackIdColumn = cursor.getColumnIndex(PlaylistJournalTable.COLUMN_TRACKID);
 
-            mPlaylistDB.update(TrackItemTable.TABLE_NAME, values, TrackItemTable.COLUMN_ID + "=?", whereVal);
+            do {
+                int operation = cursor.getInt(operationColumn);
+                int position = cursor.getInt(positionColumn);
+
+                switch (operation) {
+                case PlaylistJournalTable.OPERATION_INSERT:
+                    long id = cursor.getLong(trackIdColumn);
+                    if (position < 0 || position > playList.size()) {
+                        position = playList.size();
+                    }
+                    playList.add(position, id, getTrackItem(tracks, id));
+                    break;
+                case PlaylistJournalTable.OPERATION_REMOVE:
+                    if (position >= 0 && position < playList.size()) {
+                        playList.remove(position);
+                    }
+                    break;
+                case PlaylistJournalTable.OPERATION_SHUFFLE:
+                    playList.shuffle(new Random(cursor.getLong(seedColumn)), position);
+                    break;
+                case PlaylistJournalTable.OPERATION_UNSHUFFLE:
+                    playList.unshuffle();
+                    break;
+                }
+            } while (cursor.moveToNext());
         }
 
-        mPlaylistDB.setTransactionSuccessful();
-        mPlaylistDB.endTransaction();
-
-    }
-
-    public void playAllTracks() {
-        // TODO
+        cursor.close();
     }
 
     public void saveCurrentPlayState(long position, long trackNR, int random, int repeat) {
@@ -323,4 +545,20 @@ public class DatabaseManager {
         }
         return 0;
     }
+
+    /*
+     * Insert or remove of the journal with the position corrected like on
+     * replay
+     */
+    private static class JournalOperation {
+        final boolean mInsert;
+        final int mPosition;
+        final long mTrackId;
+
+        JournalOperation(boolean insert, int position, long trackId) {
+            mInsert = insert;
+            mPosition = position;
+            mTrackId = trackId;
+        }
+    }
 }
@@ -0,0 +1,32 @@
+package org.odyssey.manager;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/*
+ * Database of the library indices. Everything in it can be rebuilt from the
+ * MediaStore, so an upgrade simply drops the old tables.
+ */
+public class LibraryIndexDBHelper extends SQLiteOpenHelper {
+
+    public static final String DATABASE_NAME = "LibraryIndexDB";
+    public static final int DATABASE_VERSION = 1;
+
+    public LibraryIndexDBHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        ArtistIndexTable.onCreate(db);
+        LibraryIndexStateTable.onCreate(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + ArtistIndexTable.TABLE_NAME + ";");
+        db.execSQL("DROP TABLE IF EXISTS " + LibraryIndexStateTable.TABLE_NAME + ";");
+        onCreate(db);
+    }
+}
@@ -0,0 +1,25 @@
+package org.odyssey.manager;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Key value pairs describing the state of the library index
+ */
+public class LibraryIndexStateTable {
+
+    // State table
+    public static final String TABLE_NAME = "indexstate";
+    public static final String COLUMN_STATENAME = "key";
+    public static final String COLUMN_STATEVALUE = "value";
+
+    // MediaStore fingerprint the artist index was built from
+    public static final String ARTIST_FINGERPRINT_ROW = "artistfingerprint";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table if not exists " + TABLE_NAME + "(" + COLUMN_STATENAME + " text primary key, " + COLUMN_STATEVALUE + " text);";
+
+    public static void onCreate(SQLiteDatabase database) {
+        // create new table
+        database.execSQL(DATABASE_CREATE);
+    }
+}
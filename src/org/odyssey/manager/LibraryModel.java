@@ -0,0 +1,538 @@
+package org.odyssey.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.odyssey.MusicLibraryHelper;
+import org.odyssey.databasemodel.AlbumModel;
+import org.odyssey.databasemodel.ArtistModel;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/*
+ * Process wide in-memory model of the music library. Tracks, albums and
+ * artists are read from the MediaStore once, the loaders of the fragments are
+ * served from memory afterwards.
+ *
+ * A ContentObserver on the audio table triggers an update on a background
+ * thread. Only ids and modification dates are read for it, rows that were
+ * added or changed are fetched again and the rest is taken over from the old
+ * model. Registered LibraryListeners are told on the UI thread once the new
+ * model is in place.
+ *
+ * The model is saved as a LibrarySnapshot after every load and update, so a
+ * cold start serves the snapshot right away. It is checked against the
+ * MediaStore in the background afterwards.
+ *
+ * The returned lists and tables are never modified, an update replaces them.
+ */
+public class LibraryModel {
+
+    private static final String TAG = "OdysseyLibraryModel";
+
+    // Wait for the MediaStore to settle, a scan sends many notifications
+    private static final long UPDATE_DELAY = 1000;
+
+    private static final int MSG_UPDATE = 1;
+    private static final int MSG_WRITE_SNAPSHOT = 2;
+
+    private static final String[] projectionLibraryTracks = { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.TITLE, MediaStore.Audio.Media.ARTIST, MediaStore.Audio.Media.ALBUM, MediaStore.Audio.Media.ALBUM_KEY,
+            MediaStore.Audio.Media.DATA, MediaStore.Audio.Media.TRACK, MediaStore.Audio.Media.DURATION, MediaStore.Audio.Media.ALBUM_ID, MediaStore.Audio.Media.ARTIST_ID, MediaStore.Audio.Media.DATE_MODIFIED };
+
+    private static LibraryModel mInstance = null;
+
+    /*
+     * Called on the UI thread after the library changed
+     */
+    public interface LibraryListener {
+        public void onLibraryChanged();
+    }
+
+    private Context mContext;
+    private Handler mUpdateHandler;
+    private Handler mMainHandler;
+
+    // Guarded by itself
+    private ArrayList<LibraryListener> mListeners = new ArrayList<LibraryListener>();
+
+    // Held while the model is loaded or updated
+    private final Object mLoadLock = new Object();
+
+    // Current model, replaced as a whole
+    private volatile LibraryTracks mTracks = null;
+    private volatile SectionedList<AlbumModel> mAlbums = null;
+    private volatile SectionedList<ArtistModel> mArtists = null;
+
+    // MediaStore fingerprint the model was read at, guarded by mLoadLock
+    private String mFingerprint = null;
+
+    /*
+     * Sort order of SQLite's COLLATE NOCASE (only ASCII letters are folded),
+     * so the model sorts like the queries it replaces.
+     */
+    public static final Comparator<String> NOCASE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            if (lhs == null || rhs == null) {
+                return lhs == null ? (rhs == null ? 0 : -1) : 1;
+            }
+            int length = Math.min(lhs.length(), rhs.length());
+            for (int i = 0; i < length; i++) {
+                char l = lhs.charAt(i);
+                char r = rhs.charAt(i);
+                if (l != r) {
+                    if (l >= 'A' && l <= 'Z') {
+                        l += 'a' - 'A';
+                    }
+                    if (r >= 'A' && r <= 'Z') {
+                        r += 'a' - 'A';
+                    }
+                    if (l != r) {
+                        return l - r;
+                    }
+                }
+            }
+            return lhs.length() - rhs.length();
+        }
+    };
+
+    static final SectionIndex.NameGetter<AlbumModel> ALBUM_NAMES = new SectionIndex.NameGetter<AlbumModel>() {
+        @Override
+        public String getName(AlbumModel item) {
+            return item.getAlbumName();
+        }
+    };
+
+    static final SectionIndex.NameGetter<ArtistModel> ARTIST_NAMES = new SectionIndex.NameGetter<ArtistModel>() {
+        @Override
+        public String getName(ArtistModel item) {
+            return item.getArtistName();
+        }
+    };
+
+    private LibraryModel(Context context) {
+        mContext = context;
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        HandlerThread updateThread = new HandlerThread("OdysseyLibraryModel", Process.THREAD_PRIORITY_BACKGROUND);
+        updateThread.start();
+        mUpdateHandler = new Handler(updateThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_UPDATE) {
+                    update();
+                } else if (msg.what == MSG_WRITE_SNAPSHOT) {
+                    writeSnapshot();
+                }
+            }
+        };
+
+        mContext.getContentResolver().registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, new ContentObserver(mUpdateHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mUpdateHandler.removeMessages(MSG_UPDATE);
+                mUpdateHandler.sendEmptyMessageDelayed(MSG_UPDATE, UPDATE_DELAY);
+            }
+        });
+    }
+
+    public static synchronized LibraryModel getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new LibraryModel(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    public void addListener(LibraryListener listener) {
+        synchronized (mListeners) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(LibraryListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /*
+     * Returns all tracks sorted by title. Loads the model if necessary, so it
+     * must not be called from the UI thread.
+     */
+    public LibraryTracks getTracks() {
+        ensureLoaded();
+        return mTracks;
+    }
+
+    /*
+     * Returns all albums sorted by name, blocks like getTracks()
+     */
+    public SectionedList<AlbumModel> getAlbums() {
+        ensureLoaded();
+        return mAlbums;
+    }
+
+    /*
+     * Returns the albums with at least one track of the artist sorted by
+     * name, blocks like getTracks()
+     */
+    public SectionedList<AlbumModel> getAlbums(long artistId) {
+        ensureLoaded();
+        LibraryTracks tracks = mTracks;
+
+        HashSet<Long> artistAlbums = new HashSet<Long>();
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.mArtistIds[i] == artistId) {
+                artistAlbums.add(tracks.mAlbumIds[i]);
+            }
+        }
+
+        ArrayList<AlbumModel> result = new ArrayList<AlbumModel>();
+        for (AlbumModel album : mAlbums) {
+            if (artistAlbums.contains(album.getID())) {
+                result.add(album);
+            }
+        }
+        return new SectionedList<AlbumModel>(result, ALBUM_NAMES);
+    }
+
+    /*
+     * Returns all artists sorted by name, blocks like getTracks()
+     */
+    public SectionedList<ArtistModel> getArtists() {
+        ensureLoaded();
+        return mArtists;
+    }
+
+    private void ensureLoaded() {
+        if (mTracks != null) {
+            return;
+        }
+        synchronized (mLoadLock) {
+            if (mTracks == null) {
+                long startTime = System.currentTimeMillis();
+                LibrarySnapshot snapshot = LibrarySnapshot.read(mContext.getCacheDir());
+                if (snapshot != null) {
+                    mFingerprint = snapshot.getFingerprint();
+                    mAlbums = snapshot.getAlbums();
+                    mArtists = snapshot.getArtists();
+                    mTracks = snapshot.getTracks();
+                    Log.v(TAG, "Library snapshot loaded with " + mTracks.size() + " tracks in " + (System.currentTimeMillis() - startTime) + " ms");
+
+                    // the library may have changed while we were not running
+                    mUpdateHandler.sendEmptyMessage(MSG_UPDATE);
+                    return;
+                }
+
+                // read the fingerprint first, changes during the query are
+                // caught by the next update
+                String fingerprint = MusicLibraryHelper.getLibraryFingerprint(mContext.getContentResolver());
+                LibraryTracks tracks = readAllTracks();
+                setModel(fingerprint, tracks != null ? tracks : new LibraryTracks(0));
+                Log.v(TAG, "Library loaded with " + mTracks.size() + " tracks in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+        }
+    }
+
+    /*
+     * Brings the model in line with the MediaStore, runs on the update thread
+     */
+    private void update() {
+        synchronized (mLoadLock) {
+            if (mTracks == null) {
+                // nobody used the model yet, it is loaded on first use
+                return;
+            }
+
+            String fingerprint = MusicLibraryHelper.getLibraryFingerprint(mContext.getContentResolver());
+            if (fingerprint != null && fingerprint.equals(mFingerprint)) {
+                return;
+            }
+
+            long startTime = System.currentTimeMillis();
+            LibraryTracks tracks = updateTracks(mTracks);
+            if (tracks == null) {
+                // only the fingerprint is new, keep it for the next start
+                mFingerprint = fingerprint;
+                mUpdateHandler.sendEmptyMessage(MSG_WRITE_SNAPSHOT);
+                return;
+            }
+            setModel(fingerprint, tracks);
+            Log.v(TAG, "Library updated to " + tracks.size() + " tracks in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+
+        final LibraryListener[] listeners;
+        synchronized (mListeners) {
+            listeners = mListeners.toArray(new LibraryListener[mListeners.size()]);
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (LibraryListener listener : listeners) {
+                    listener.onLibraryChanged();
+                }
+            }
+        });
+    }
+
+    /*
+     * Albums and artists are small compared to the tracks, they are simply
+     * read again for every new track table. Must be called with mLoadLock
+     * held.
+     */
+    private void setModel(String fingerprint, LibraryTracks tracks) {
+        ArrayList<AlbumModel> albums = new ArrayList<AlbumModel>();
+
+        Cursor albumCursor = mContext.getContentResolver().query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionAlbums, null, null, MediaStore.Audio.Albums.ALBUM + " COLLATE NOCASE");
+        if (albumCursor != null) {
+            if (albumCursor.moveToFirst()) {
+                int albumKeyColumn = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_KEY);
+                int albumTitleColumn = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM);
+                int imagePathColumn = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART);
+                int artistTitleColumn = albumCursor.getColumnIndex(MediaStore.Audio.Albums.ARTIST);
+                int idColumn = albumCursor.getColumnIndex(MediaStore.Audio.Albums._ID);
+                do {
+                    albums.add(new AlbumModel(albumCursor.getString(albumTitleColumn), albumCursor.getString(imagePathColumn), albumCursor.getString(artistTitleColumn), albumCursor.getString(albumKeyColumn), albumCursor
+                            .getLong(idColumn)));
+                } while (albumCursor.moveToNext());
+            }
+            albumCursor.close();
+        }
+
+        List<ArtistModel> artists = ArtistIndex.getInstance(mContext).getArtists();
+
+        mAlbums = new SectionedList<AlbumModel>(albums, ALBUM_NAMES);
+        mArtists = new SectionedList<ArtistModel>(artists, ARTIST_NAMES);
+        mTracks = tracks;
+        mFingerprint = fingerprint;
+
+        mUpdateHandler.removeMessages(MSG_WRITE_SNAPSHOT);
+        mUpdateHandler.sendEmptyMessage(MSG_WRITE_SNAPSHOT);
+    }
+
+    /*
+     * Saves the current model, runs on the update thread
+     */
+    private void writeSnapshot() {
+        String fingerprint;
+        LibraryTracks tracks;
+        SectionedList<AlbumModel> albums;
+        SectionedList<ArtistModel> artists;
+        synchronized (mLoadLock) {
+            fingerprint = mFingerprint;
+            tracks = mTracks;
+            albums = mAlbums;
+            artists = mArtists;
+        }
+        if (tracks == null) {
+            return;
+        }
+        if (fingerprint == null) {
+            // could not be validated on the next start
+            LibrarySnapshot.delete(mContext.getCacheDir());
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        LibrarySnapshot.write(mContext.getCacheDir(), fingerprint, tracks, albums, artists);
+        Log.v(TAG, "Library snapshot written in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private LibraryTracks readAllTracks() {
+        ArrayList<TrackRow> rows = new ArrayList<TrackRow>();
+        Cursor cursor = mContext.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projectionLibraryTracks, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        readTrackRows(cursor, rows);
+        cursor.close();
+        return createTracks(rows);
+    }
+
+    /*
+     * Compares ids and modification dates with the MediaStore and fetches
+     * only new and modified tracks. Returns null if nothing changed.
+     */
+    private LibraryTracks updateTracks(LibraryTracks oldTracks) {
+        ContentResolver resolver = mContext.getContentResolver();
+        Cursor cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, new String[] { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATE_MODIFIED }, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+
+        boolean[] keep = new boolean[oldTracks.size()];
+        int kept = 0;
+        ArrayList<Long> fetchIds = new ArrayList<Long>();
+        if (cursor.moveToFirst()) {
+            do {
+                long id = cursor.getLong(0);
+                int position = oldTracks.getPosition(id);
+                if (position >= 0 && oldTracks.mDateModified[position] == cursor.getLong(1)) {
+                    keep[position] = true;
+                    kept++;
+                } else {
+                    fetchIds.add(id);
+                }
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        if (fetchIds.isEmpty() && kept == oldTracks.size()) {
+            return null;
+        }
+
+        ArrayList<TrackRow> rows = new ArrayList<TrackRow>(kept + fetchIds.size());
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                rows.add(new TrackRow(oldTracks, i));
+            }
+        }
+
+        // sqlite limits the number of arguments per query
+        for (int start = 0; start < fetchIds.size(); start += MusicLibraryHelper.MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MusicLibraryHelper.MAX_SELECTION_ARGS, fetchIds.size());
+
+            StringBuilder selection = new StringBuilder(MediaStore.Audio.Media._ID + " IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                selectionArgs[i - start] = String.valueOf(fetchIds.get(i));
+            }
+            selection.append(")");
+
+            cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projectionLibraryTracks, selection.toString(), selectionArgs, null);
+            if (cursor != null) {
+                readTrackRows(cursor, rows);
+                cursor.close();
+            }
+        }
+
+        Log.v(TAG, "Library update: " + kept + " tracks kept, " + fetchIds.size() + " read, " + (oldTracks.size() - kept) + " removed");
+        return createTracks(rows);
+    }
+
+    private static void readTrackRows(Cursor cursor, List<TrackRow> rows) {
+        if (!cursor.moveToFirst()) {
+            return;
+        }
+        int idColumn = cursor.getColumnIndex(MediaStore.Audio.Media._ID);
+        int titleColumn = cursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
+        int artistColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+        int albumColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+        int albumKeyColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_KEY);
+        int urlColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATA);
+        int trackColumn = cursor.getColumnIndex(MediaStore.Audio.Media.TRACK);
+        int durationColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DURATION);
+        int albumIdColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
+        int artistIdColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST_ID);
+        int dateModifiedColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED);
+        do {
+            TrackRow row = new TrackRow();
+            row.mId = cursor.getLong(idColumn);
+            row.mTitle = cursor.getString(titleColumn);
+            row.mArtist = cursor.getString(artistColumn);
+            row.mAlbum = cursor.getString(albumColumn);
+            row.mAlbumKey = cursor.getString(albumKeyColumn);
+            row.mUrl = cursor.getString(urlColumn);
+            row.mTrackNumber = cursor.getInt(trackColumn);
+            row.mDuration = cursor.getLong(durationColumn);
+            row.mAlbumId = cursor.getLong(albumIdColumn);
+            row.mArtistId = cursor.getLong(artistIdColumn);
+            row.mDateModified = cursor.getLong(dateModifiedColumn);
+            rows.add(row);
+        } while (cursor.moveToNext());
+    }
+
+    /*
+     * Sorts the rows by title and packs them into a table. Equal strings are
+     * shared.
+     */
+    private static LibraryTracks createTracks(List<TrackRow> rows) {
+        TrackRow[] sorted = rows.toArray(new TrackRow[rows.size()]);
+        Arrays.sort(sorted, new Comparator<TrackRow>() {
+            @Override
+            public int compare(TrackRow lhs, TrackRow rhs) {
+                return NOCASE_ORDER.compare(lhs.mTitle, rhs.mTitle);
+            }
+        });
+
+        HashMap<String, String> strings = new HashMap<String, String>();
+        LibraryTracks tracks = new LibraryTracks(sorted.length);
+        for (int i = 0; i < sorted.length; i++) {
+            TrackRow row = sorted[i];
+            tracks.mIds[i] = row.mId;
+            tracks.mTitles[i] = row.mTitle;
+            tracks.mArtists[i] = intern(strings, row.mArtist);
+            tracks.mAlbums[i] = intern(strings, row.mAlbum);
+            tracks.mAlbumKeys[i] = intern(strings, row.mAlbumKey);
+            tracks.mUrls[i] = row.mUrl;
+            tracks.mTrackNumbers[i] = row.mTrackNumber;
+            tracks.mDurations[i] = row.mDuration;
+            tracks.mAlbumIds[i] = row.mAlbumId;
+            tracks.mArtistIds[i] = row.mArtistId;
+            tracks.mDateModified[i] = row.mDateModified;
+        }
+        tracks.mSectionIndex = SectionIndex.create(tracks.mTitles);
+        return tracks;
+    }
+
+    private static String intern(HashMap<String, String> strings, String value) {
+        if (value == null) {
+            return null;
+        }
+        String interned = strings.get(value);
+        if (interned == null) {
+            strings.put(value, value);
+            interned = value;
+        }
+        return interned;
+    }
+
+    /*
+     * One track while the table is built
+     */
+    private static class TrackRow {
+        long mId;
+        String mTitle;
+        String mArtist;
+        String mAlbum;
+        String mAlbumKey;
+        String mUrl;
+        int mTrackNumber;
+        long mDuration;
+        long mAlbumId;
+        long mArtistId;
+        long mDateModified;
+
+        TrackRow() {
+        }
+
+        TrackRow(LibraryTracks tracks, int position) {
+            mId = tracks.mIds[position];
+            mTitle = tracks.mTitles[position];
+            mArtist = tracks.mArtists[position];
+            mAlbum = tracks.mAlbums[position];
+            mAlbumKey = tracks.mAlbumKeys[position];
+            mUrl = tracks.mUrls[position];
+            mTrackNumber = tracks.mTrackNumbers[position];
+            mDuration = tracks.mDurations[position];
+            mAlbumId = tracks.mAlbumIds[position];
+            mArtistId = tracks.mArtistIds[position];
+            mDateModified = tracks.mDateModified[position];
+        }
+    }
+}
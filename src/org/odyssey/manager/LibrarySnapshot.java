@@ -0,0 +1,340 @@
+package org.odyssey.manager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.odyssey.databasemodel.AlbumModel;
+import org.odyssey.databasemodel.ArtistModel;
+
+import android.util.Log;
+
+/*
+ * Binary snapshot of the LibraryModel in the cache directory, so the model is
+ * available at startup without a single MediaStore query. The snapshot is
+ * memory mapped for reading.
+ *
+ * Layout (big endian): magic, version, MediaStore fingerprint, a pool of all
+ * distinct strings, then the track, album and artist tables column by column,
+ * each followed by its fast scroll sections. Strings in the tables are indices
+ * into the pool, -1 for null. The sections follow the locale independent
+ * NOCASE order, so the snapshot stays valid across locale changes.
+ */
+public class LibrarySnapshot {
+
+    private static final String TAG = "OdysseyLibrarySnapshot";
+
+    private static final String FILE_NAME = "library.snapshot";
+
+    private static final int MAGIC = 0x4f444c53;
+    private static final int VERSION = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String mFingerprint;
+    private final LibraryTracks mTracks;
+    private final SectionedList<AlbumModel> mAlbums;
+    private final SectionedList<ArtistModel> mArtists;
+
+    private LibrarySnapshot(String fingerprint, LibraryTracks tracks, SectionedList<AlbumModel> albums, SectionedList<ArtistModel> artists) {
+        mFingerprint = fingerprint;
+        mTracks = tracks;
+        mAlbums = albums;
+        mArtists = artists;
+    }
+
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    public LibraryTracks getTracks() {
+        return mTracks;
+    }
+
+    public SectionedList<AlbumModel> getAlbums() {
+        return mAlbums;
+    }
+
+    public SectionedList<ArtistModel> getArtists() {
+        return mArtists;
+    }
+
+    private static File getFile(File cacheDir) {
+        return new File(cacheDir, FILE_NAME);
+    }
+
+    /*
+     * Reads the snapshot, returns null if there is none or it is unreadable
+     */
+    public static LibrarySnapshot read(File cacheDir) {
+        File file = getFile(cacheDir);
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Log.v(TAG, "Ignoring snapshot of another version");
+                return null;
+            }
+
+            byte[] scratch = new byte[256];
+            String fingerprint = readString(buffer, scratch);
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer, scratch);
+            }
+
+            LibraryTracks tracks = new LibraryTracks(buffer.getInt());
+            readLongs(buffer, tracks.mIds);
+            readLongs(buffer, tracks.mAlbumIds);
+            readLongs(buffer, tracks.mArtistIds);
+            readLongs(buffer, tracks.mDateModified);
+            readStrings(buffer, strings, tracks.mTitles);
+            readStrings(buffer, strings, tracks.mArtists);
+            readStrings(buffer, strings, tracks.mAlbums);
+            readStrings(buffer, strings, tracks.mAlbumKeys);
+            readStrings(buffer, strings, tracks.mUrls);
+            readInts(buffer, tracks.mTrackNumbers);
+            readLongs(buffer, tracks.mDurations);
+            tracks.mSectionIndex = readSectionIndex(buffer, strings, tracks.size());
+
+            int albumCount = buffer.getInt();
+            ArrayList<AlbumModel> albums = new ArrayList<AlbumModel>(albumCount);
+            for (int i = 0; i < albumCount; i++) {
+                albums.add(new AlbumModel(getString(strings, buffer.getInt()), getString(strings, buffer.getInt()), getString(strings, buffer.getInt()), getString(strings, buffer.getInt()), buffer.getLong()));
+            }
+            SectionIndex albumSections = readSectionIndex(buffer, strings, albumCount);
+
+            int artistCount = buffer.getInt();
+            ArrayList<ArtistModel> artists = new ArrayList<ArtistModel>(artistCount);
+            for (int i = 0; i < artistCount; i++) {
+                artists.add(new ArtistModel(getString(strings, buffer.getInt()), getString(strings, buffer.getInt()), getString(strings, buffer.getInt()), buffer.getLong(), buffer.getInt(), buffer.getInt()));
+            }
+            SectionIndex artistSections = readSectionIndex(buffer, strings, artistCount);
+
+            return new LibrarySnapshot(fingerprint, tracks, new SectionedList<AlbumModel>(albums, albumSections), new SectionedList<ArtistModel>(artists, artistSections));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read library snapshot");
+        } catch (BufferUnderflowException e) {
+            Log.e(TAG, "Library snapshot is truncated");
+        } catch (IndexOutOfBoundsException e) {
+            Log.e(TAG, "Library snapshot is corrupt");
+        } catch (NegativeArraySizeException e) {
+            Log.e(TAG, "Library snapshot is corrupt");
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Writes the snapshot, replaces the old one only if it was written
+     * completely. Blocks, call it from a background thread.
+     */
+    public static void write(File cacheDir, String fingerprint, LibraryTracks tracks, SectionedList<AlbumModel> albums, SectionedList<ArtistModel> artists) {
+        File file = getFile(cacheDir);
+        File tmpFile = new File(cacheDir, FILE_NAME + ".tmp");
+
+        // collect all strings once
+        ArrayList<String> strings = new ArrayList<String>();
+        HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+        int[] titles = addStrings(strings, stringIds, tracks.mTitles);
+        int[] trackArtists = addStrings(strings, stringIds, tracks.mArtists);
+        int[] trackAlbums = addStrings(strings, stringIds, tracks.mAlbums);
+        int[] albumKeys = addStrings(strings, stringIds, tracks.mAlbumKeys);
+        int[] urls = addStrings(strings, stringIds, tracks.mUrls);
+        int[] trackSections = addStrings(strings, stringIds, tracks.mSectionIndex.getSections());
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, fingerprint);
+
+            // album and artist strings are added while writing their tables,
+            // so those are written to memory first
+            ByteArrayOutputStream tables = new ByteArrayOutputStream();
+            DataOutputStream tableOut = new DataOutputStream(tables);
+            tableOut.writeInt(albums.size());
+            for (AlbumModel album : albums) {
+                tableOut.writeInt(addString(strings, stringIds, album.getAlbumName()));
+                tableOut.writeInt(addString(strings, stringIds, album.getAlbumArtURL()));
+                tableOut.writeInt(addString(strings, stringIds, album.getArtistName()));
+                tableOut.writeInt(addString(strings, stringIds, album.getAlbumKey()));
+                tableOut.writeLong(album.getID());
+            }
+            writeSectionIndex(tableOut, strings, stringIds, albums.getSectionIndex());
+            tableOut.writeInt(artists.size());
+            for (ArtistModel artist : artists) {
+                tableOut.writeInt(addString(strings, stringIds, artist.getArtistName()));
+                tableOut.writeInt(addString(strings, stringIds, artist.getArtURL()));
+                tableOut.writeInt(addString(strings, stringIds, artist.getArtistKey()));
+                tableOut.writeLong(artist.getID());
+                tableOut.writeInt(artist.getAlbumCount());
+                tableOut.writeInt(artist.getTrackCount());
+            }
+            writeSectionIndex(tableOut, strings, stringIds, artists.getSectionIndex());
+            tableOut.flush();
+
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                writeString(out, string);
+            }
+
+            out.writeInt(tracks.size());
+            writeLongs(out, tracks.mIds);
+            writeLongs(out, tracks.mAlbumIds);
+            writeLongs(out, tracks.mArtistIds);
+            writeLongs(out, tracks.mDateModified);
+            writeInts(out, titles);
+            writeInts(out, trackArtists);
+            writeInts(out, trackAlbums);
+            writeInts(out, albumKeys);
+            writeInts(out, urls);
+            writeInts(out, tracks.mTrackNumbers);
+            writeLongs(out, tracks.mDurations);
+            out.writeInt(trackSections.length);
+            writeInts(out, trackSections);
+            writeInts(out, tracks.mSectionIndex.getSectionPositions());
+
+            tables.writeTo(out);
+
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.e(TAG, "Could not replace library snapshot");
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write library snapshot");
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /*
+     * Removes the snapshot, the next start reads the MediaStore again
+     */
+    public static void delete(File cacheDir) {
+        getFile(cacheDir).delete();
+    }
+
+    private static int addString(ArrayList<String> strings, HashMap<String, Integer> stringIds, String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    private static int[] addStrings(ArrayList<String> strings, HashMap<String, Integer> stringIds, String[] values) {
+        int[] ids = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = addString(strings, stringIds, values[i]);
+        }
+        return ids;
+    }
+
+    private static void writeSectionIndex(DataOutputStream out, ArrayList<String> strings, HashMap<String, Integer> stringIds, SectionIndex sectionIndex) throws IOException {
+        int[] sections = addStrings(strings, stringIds, sectionIndex.getSections());
+        out.writeInt(sections.length);
+        writeInts(out, sections);
+        writeInts(out, sectionIndex.getSectionPositions());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF8);
+    }
+
+    private static String getString(String[] strings, int id) {
+        return id < 0 ? null : strings[id];
+    }
+
+    private static SectionIndex readSectionIndex(ByteBuffer buffer, String[] strings, int count) {
+        String[] sections = new String[buffer.getInt()];
+        readStrings(buffer, strings, sections);
+        int[] sectionPositions = new int[sections.length];
+        readInts(buffer, sectionPositions);
+        return new SectionIndex(sections, sectionPositions, count);
+    }
+
+    private static void readStrings(ByteBuffer buffer, String[] strings, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getString(strings, buffer.getInt());
+        }
+    }
+
+    private static void readInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+
+    private static void readLongs(ByteBuffer buffer, long[] values) {
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+}
@@ -0,0 +1,122 @@
+package org.odyssey.manager;
+
+import java.util.HashMap;
+
+import org.odyssey.playbackservice.TrackItem;
+
+/*
+ * Immutable, compact table of all tracks of the library sorted by title. Every
+ * column is a plain array, so a library of tens of thousands of tracks needs
+ * only a few objects besides the strings. Artist, album and album key strings
+ * are shared between the tracks of one album.
+ */
+public class LibraryTracks {
+
+    private final int mSize;
+
+    final long[] mIds;
+    final long[] mAlbumIds;
+    final long[] mArtistIds;
+    final long[] mDateModified;
+    final String[] mTitles;
+    final String[] mArtists;
+    final String[] mAlbums;
+    final String[] mAlbumKeys;
+    final String[] mUrls;
+    final int[] mTrackNumbers;
+    final long[] mDurations;
+
+    // fast scroll sections of the titles
+    SectionIndex mSectionIndex = SectionIndex.EMPTY;
+
+    // track id -> position, created on first use
+    private HashMap<Long, Integer> mPositions = null;
+
+    LibraryTracks(int size) {
+        mSize = size;
+        mIds = new long[size];
+        mAlbumIds = new long[size];
+        mArtistIds = new long[size];
+        mDateModified = new long[size];
+        mTitles = new String[size];
+        mArtists = new String[size];
+        mAlbums = new String[size];
+        mAlbumKeys = new String[size];
+        mUrls = new String[size];
+        mTrackNumbers = new int[size];
+        mDurations = new long[size];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public SectionIndex getSectionIndex() {
+        return mSectionIndex;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public long getAlbumId(int position) {
+        return mAlbumIds[position];
+    }
+
+    public long getArtistId(int position) {
+        return mArtistIds[position];
+    }
+
+    public long getDateModified(int position) {
+        return mDateModified[position];
+    }
+
+    public String getTitle(int position) {
+        return mTitles[position];
+    }
+
+    public String getArtist(int position) {
+        return mArtists[position];
+    }
+
+    public String getAlbum(int position) {
+        return mAlbums[position];
+    }
+
+    public String getAlbumKey(int position) {
+        return mAlbumKeys[position];
+    }
+
+    public String getUrl(int position) {
+        return mUrls[position];
+    }
+
+    public int getTrackNumber(int position) {
+        return mTrackNumbers[position];
+    }
+
+    public long getDuration(int position) {
+        return mDurations[position];
+    }
+
+    /*
+     * Creates a new TrackItem for the track at position
+     */
+    public TrackItem getTrackItem(int position) {
+        return new TrackItem(mTitles[position], mArtists[position], mAlbums[position], mUrls[position], mTrackNumbers[position], mDurations[position], mAlbumKeys[position], mIds[position]);
+    }
+
+    /*
+     * Returns the position of the track with the given id or -1
+     */
+    public synchronized int getPosition(long id) {
+        if (mPositions == null) {
+            mPositions = new HashMap<Long, Integer>(mSize * 2);
+            for (int i = 0; i < mSize; i++) {
+                mPositions.put(mIds[i], i);
+            }
+        }
+        Integer position = mPositions.get(id);
+        return position != null ? position : -1;
+    }
+}
@@ -7,7 +7,11 @@ import android.database.sqlite.SQLiteOpenHelper;
 public class PlaylistDBHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "PlaylistDB";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 4;
+
+    // Synthetic ids for tracks of the version 2 journal, keeps them apart from
+    // the ids of the old snapshot rows
+    private static final long JOURNAL_MIGRATION_ID_OFFSET = 1L << 32;
 
     public PlaylistDBHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -16,10 +20,47 @@ public class PlaylistDBHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         TrackItemTable.onCreate(db);
+        PlaylistTable.onCreate(db);
         SettingsTable.onCreate(db);
+        PlaylistJournalTable.onCreate(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 3) {
+            /*
+             * Version 3 stores the playlist as track ids with separate
+             * metadata. Old rows have no MediaStore id, so they get synthetic
+             * negative ids.
+             */
+            String oldColumns = TrackItemTable.COLUMN_TRACKNUMBER + "," + TrackItemTable.COLUMN_TRACKTITLE + "," + TrackItemTable.COLUMN_TRACKALBUM + "," + TrackItemTable.COLUMN_TRACKALBUMKEY + "," + TrackItemTable.COLUMN_TRACKDURATION
+                    + "," + TrackItemTable.COLUMN_TRACKARTIST + "," + TrackItemTable.COLUMN_TRACKURL;
+
+            TrackItemTable.onCreate(db);
+            PlaylistTable.onCreate(db);
+
+            db.execSQL("INSERT INTO " + TrackItemTable.TABLE_NAME + " (" + TrackItemTable.COLUMN_ID + "," + oldColumns + ") SELECT -_id," + oldColumns + " FROM trackitem;");
+            db.execSQL("INSERT INTO " + PlaylistTable.TABLE_NAME + " (" + PlaylistTable.COLUMN_TRACKID + ") SELECT -_id FROM trackitem ORDER BY _id;");
+            db.execSQL("DROP TABLE IF EXISTS trackitem;");
+
+            if (oldVersion == 2) {
+                // journal of version 2 contained the complete metadata
+                db.execSQL("ALTER TABLE " + PlaylistJournalTable.TABLE_NAME + " RENAME TO playlistjournal_old;");
+                PlaylistJournalTable.onCreate(db);
+
+                String syntheticId = "-(_id + " + JOURNAL_MIGRATION_ID_OFFSET + ")";
+                db.execSQL("INSERT INTO " + TrackItemTable.TABLE_NAME + " (" + TrackItemTable.COLUMN_ID + "," + oldColumns + ") SELECT " + syntheticId + "," + oldColumns + " FROM playlistjournal_old WHERE "
+                        + PlaylistJournalTable.COLUMN_OPERATION + "=" + PlaylistJournalTable.OPERATION_INSERT + ";");
+                db.execSQL("INSERT INTO " + PlaylistJournalTable.TABLE_NAME + " SELECT _id," + PlaylistJournalTable.COLUMN_OPERATION + "," + PlaylistJournalTable.COLUMN_POSITION + "," + PlaylistJournalTable.COLUMN_SEED + ", CASE WHEN "
+                        + PlaylistJournalTable.COLUMN_OPERATION + "=" + PlaylistJournalTable.OPERATION_INSERT + " THEN " + syntheticId + " END FROM playlistjournal_old;");
+                db.execSQL("DROP TABLE playlistjournal_old;");
+            } else {
+                PlaylistJournalTable.onCreate(db);
+            }
+        } else if (oldVersion == 3) {
+            // version 4 keeps the unshuffled order, older snapshots are
+            // simply not shuffled
+            db.execSQL("ALTER TABLE " + PlaylistTable.TABLE_NAME + " ADD COLUMN " + PlaylistTable.COLUMN_SHUFFLEPOSITION + " int;");
+        }
     }
 }
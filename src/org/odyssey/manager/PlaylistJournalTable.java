@@ -0,0 +1,35 @@
+package org.odyssey.manager;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Journal of playlist modifications since the last snapshot in the trackitem
+ * table. Replaying all rows in _id order on top of the snapshot restores the
+ * current playlist.
+ */
+public class PlaylistJournalTable {
+
+    // Database table
+    public static final String TABLE_NAME = "playlistjournal";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_OPERATION = "operation";
+    public static final String COLUMN_POSITION = "position";
+    public static final String COLUMN_SEED = "seed";
+    public static final String COLUMN_TRACKID = "trackid";
+
+    // Operations
+    public static final int OPERATION_INSERT = 0;
+    public static final int OPERATION_REMOVE = 1;
+    public static final int OPERATION_SHUFFLE = 2;
+    public static final int OPERATION_UNSHUFFLE = 3;
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table if not exists " + TABLE_NAME + "(" + COLUMN_ID + " integer primary key autoincrement, " + COLUMN_OPERATION + " int, " + COLUMN_POSITION + " int, " + COLUMN_SEED + " int, "
+            + COLUMN_TRACKID + " int" + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        // create new table
+        database.execSQL(DATABASE_CREATE);
+    }
+
+}
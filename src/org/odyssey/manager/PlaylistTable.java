@@ -0,0 +1,26 @@
+package org.odyssey.manager;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Snapshot of the playlist, one row per entry in unshuffled order. Only the
+ * track id is stored, metadata is in the TrackItemTable. If the playlist is
+ * shuffled the shuffled position of every entry is stored as well.
+ */
+public class PlaylistTable {
+
+    // Database table
+    public static final String TABLE_NAME = "playlist";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_TRACKID = "trackid";
+    public static final String COLUMN_SHUFFLEPOSITION = "shuffleposition";
+
+    // Database creation SQL statement
+    private static final String DATABASE_CREATE = "create table if not exists " + TABLE_NAME + "(" + COLUMN_ID + " integer primary key autoincrement, " + COLUMN_TRACKID + " int, " + COLUMN_SHUFFLEPOSITION + " int" + ");";
+
+    public static void onCreate(SQLiteDatabase database) {
+        // create new table
+        database.execSQL(DATABASE_CREATE);
+    }
+
+}
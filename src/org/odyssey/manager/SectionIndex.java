@@ -0,0 +1,136 @@
+package org.odyssey.manager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/*
+ * Fast scroll sections of a sorted list. Built once in the background when the
+ * list is created, afterwards every lookup of a SectionIndexer is a plain
+ * array access.
+ *
+ * The lists are sorted with SQLite's COLLATE NOCASE (see
+ * LibraryModel.NOCASE_ORDER), which only folds ASCII letters. The buckets
+ * follow that order: ASCII letters are bucketed case insensitive, other
+ * letters by themselves and everything else goes to "#". Where the order still
+ * repeats a label (an upper and lower case accented letter, "#" before and
+ * after the letters) the later names stay in the section before them, so the
+ * labels are unique and in list order.
+ */
+public class SectionIndex {
+
+    public static final SectionIndex EMPTY = new SectionIndex(new String[0], new int[0], 0);
+
+    private static final String OTHER_SECTION = "#";
+
+    private final String[] mSections;
+    private final int[] mSectionPositions;
+    private final int[] mPositionSections;
+
+    /*
+     * sectionPositions holds the first position of every section, count is
+     * the size of the list
+     */
+    SectionIndex(String[] sections, int[] sectionPositions, int count) {
+        mSections = sections;
+        mSectionPositions = sectionPositions;
+        mPositionSections = new int[count];
+
+        for (int section = 0; section < sections.length; section++) {
+            int end = section + 1 < sections.length ? sectionPositions[section + 1] : count;
+            for (int position = sectionPositions[section]; position < end; position++) {
+                mPositionSections[position] = section;
+            }
+        }
+    }
+
+    /*
+     * Buckets the names of a sorted list, blocks so call it in the background
+     */
+    public static SectionIndex create(String[] names) {
+        if (names.length == 0) {
+            return EMPTY;
+        }
+
+        ArrayList<String> sections = new ArrayList<String>();
+        HashSet<String> usedSections = new HashSet<String>();
+        int[] sectionPositions = new int[names.length];
+
+        String lastSection = null;
+        for (int i = 0; i < names.length; i++) {
+            String section = getSection(names[i]);
+            if (!section.equals(lastSection) && usedSections.add(section)) {
+                sectionPositions[sections.size()] = i;
+                sections.add(section);
+                lastSection = section;
+            }
+        }
+
+        int[] positions = new int[sections.size()];
+        System.arraycopy(sectionPositions, 0, positions, 0, positions.length);
+        return new SectionIndex(sections.toArray(new String[sections.size()]), positions, names.length);
+    }
+
+    public static <T> SectionIndex create(List<T> items, NameGetter<T> getter) {
+        String[] names = new String[items.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = getter.getName(items.get(i));
+        }
+        return create(names);
+    }
+
+    /*
+     * Picks the name an item is sorted by
+     */
+    public interface NameGetter<T> {
+        public String getName(T item);
+    }
+
+    private static String getSection(String name) {
+        if (name == null || name.length() == 0) {
+            return OTHER_SECTION;
+        }
+
+        char first = name.charAt(0);
+        if (first >= 'a' && first <= 'z') {
+            // folded like NOCASE does, independent of the locale
+            return String.valueOf((char) (first - ('a' - 'A')));
+        } else if (first >= 'A' && first <= 'Z') {
+            return String.valueOf(first);
+        } else if (first > 0x7f && Character.isLetter(first)) {
+            // not folded by NOCASE, sorted by its code after the ASCII names
+            return String.valueOf(Character.toUpperCase(first));
+        }
+        return OTHER_SECTION;
+    }
+
+    public int getSectionCount() {
+        return mSections.length;
+    }
+
+    public int size() {
+        return mPositionSections.length;
+    }
+
+    public String[] getSections() {
+        return mSections;
+    }
+
+    public int getPositionForSection(int section) {
+        if (section < 0 || mSectionPositions.length == 0) {
+            return 0;
+        }
+        return mSectionPositions[Math.min(section, mSectionPositions.length - 1)];
+    }
+
+    public int getSectionForPosition(int position) {
+        if (position < 0 || mPositionSections.length == 0) {
+            return 0;
+        }
+        return mPositionSections[Math.min(position, mPositionSections.length - 1)];
+    }
+
+    int[] getSectionPositions() {
+        return mSectionPositions;
+    }
+}
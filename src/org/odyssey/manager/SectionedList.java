@@ -0,0 +1,38 @@
+package org.odyssey.manager;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/*
+ * Read only list together with the fast scroll sections of its items, so the
+ * sections are built in the loader and not on the UI thread.
+ */
+public class SectionedList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final List<T> mItems;
+    private final SectionIndex mSectionIndex;
+
+    public SectionedList(List<T> items, SectionIndex sectionIndex) {
+        mItems = items;
+        mSectionIndex = sectionIndex;
+    }
+
+    public SectionedList(List<T> items, SectionIndex.NameGetter<T> getter) {
+        this(items, SectionIndex.create(items, getter));
+    }
+
+    @Override
+    public T get(int location) {
+        return mItems.get(location);
+    }
+
+    @Override
+    public int size() {
+        return mItems.size();
+    }
+
+    public SectionIndex getSectionIndex() {
+        return mSectionIndex;
+    }
+}
@@ -2,10 +2,15 @@ package org.odyssey.manager;
 
 import android.database.sqlite.SQLiteDatabase;
 
+/*
+ * Metadata of all tracks referenced by the saved playlist, one row per
+ * distinct track. COLUMN_ID is the MediaStore audio id (negative for tracks
+ * without one).
+ */
 public class TrackItemTable {
 
     // Database table
-    public static final String TABLE_NAME = "trackitem";
+    public static final String TABLE_NAME = "trackmetadata";
     public static final String COLUMN_ID = "_id";
     public static final String COLUMN_TRACKNUMBER = "tracknumber";
     public static final String COLUMN_TRACKTITLE = "title";
@@ -16,7 +21,7 @@ public class TrackItemTable {
     public static final String COLUMN_TRACKURL = "url";
 
     // Database creation SQL statement
-    private static final String DATABASE_CREATE = "create table if not exists " + TABLE_NAME + "(" + COLUMN_ID + " integer primary key autoincrement, " + COLUMN_TRACKNUMBER + " int, " + COLUMN_TRACKTITLE + " text," + COLUMN_TRACKALBUM + " text,"
+    private static final String DATABASE_CREATE = "create table if not exists " + TABLE_NAME + "(" + COLUMN_ID + " integer primary key, " + COLUMN_TRACKNUMBER + " int, " + COLUMN_TRACKTITLE + " text," + COLUMN_TRACKALBUM + " text,"
             + COLUMN_TRACKALBUMKEY + " text," + COLUMN_TRACKDURATION + " int," + COLUMN_TRACKARTIST + " text," + COLUMN_TRACKURL + " text" + ");";
 
     public static void onCreate(SQLiteDatabase database) {
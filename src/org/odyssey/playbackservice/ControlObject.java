@@ -11,7 +11,7 @@ import java.util.ArrayList;
  */
 public class ControlObject {
     public static enum PLAYBACK_ACTION {
-        ODYSSEY_PLAY, ODYSSEY_PAUSE, ODYSSEY_RESUME, ODYSSEY_TOGGLEPAUSE, ODYSSEY_STOP, ODYSSEY_NEXT, ODYSSEY_PREVIOUS, ODYSSEY_SEEKTO, ODYSSEY_JUMPTO, ODYSSEY_REPEAT, ODYSSEY_RANDOM, ODYSSEY_PLAYNEXT, ODYSSEY_ENQUEUETRACK, ODYSSEY_ENQUEUETRACKS, ODYSSEY_DEQUEUETRACK, ODYSSEY_DEQUEUEINDEX, ODYSSEY_DEQUEUETRACKS, ODYSSEY_SETNEXTRACK, ODYSSEY_CLEARPLAYLIST, ODYSSEY_SHUFFLEPLAYLIST, ODYSSEY_PLAYALLTRACKS, ODYSSEY_PLAYALLTRACKSSHUFFLED, ODYSSEY_SAVEPLAYLIST
+        ODYSSEY_PLAY, ODYSSEY_PAUSE, ODYSSEY_RESUME, ODYSSEY_TOGGLEPAUSE, ODYSSEY_STOP, ODYSSEY_NEXT, ODYSSEY_PREVIOUS, ODYSSEY_SEEKTO, ODYSSEY_JUMPTO, ODYSSEY_REPEAT, ODYSSEY_RANDOM, ODYSSEY_PLAYNEXT, ODYSSEY_PLAYNEXTID, ODYSSEY_ENQUEUETRACK, ODYSSEY_ENQUEUETRACKS, ODYSSEY_ENQUEUETRACKIDS, ODYSSEY_ENQUEUESELECTION, ODYSSEY_DEQUEUETRACK, ODYSSEY_DEQUEUEINDEX, ODYSSEY_DEQUEUETRACKS, ODYSSEY_SETNEXTRACK, ODYSSEY_CLEARPLAYLIST, ODYSSEY_SHUFFLEPLAYLIST, ODYSSEY_UNSHUFFLEPLAYLIST, ODYSSEY_PLAYALLTRACKS, ODYSSEY_PLAYALLTRACKSSHUFFLED, ODYSSEY_SAVEPLAYLIST, ODYSSEY_STOPSERVICE
     }
 
     private PLAYBACK_ACTION mAction;
@@ -20,6 +20,10 @@ public class ControlObject {
     private String mStringparam;
     private TrackItem mTrack;
     private ArrayList<TrackItem> mTrackList = null;
+    private long[] mIdList = null;
+    private TrackSelector mSelector = null;
+    // uptime when the command was queued, for latency statistics
+    private long mQueueTime;
 
     public ControlObject(PLAYBACK_ACTION action) {
         mAction = action;
@@ -45,6 +49,16 @@ public class ControlObject {
         mAction = action;
     }
 
+    public ControlObject(PLAYBACK_ACTION action, long[] ids) {
+        mIdList = ids;
+        mAction = action;
+    }
+
+    public ControlObject(PLAYBACK_ACTION action, TrackSelector selector) {
+        mSelector = selector;
+        mAction = action;
+    }
+
     public ControlObject(PLAYBACK_ACTION action, TrackItem track) {
         mAction = action;
         mTrack = track;
@@ -62,10 +76,30 @@ public class ControlObject {
         return mTrackList;
     }
 
+    public long[] getIdList() {
+        return mIdList;
+    }
+
+    public TrackSelector getSelector() {
+        return mSelector;
+    }
+
     public int getIntParam() {
         return mIntparam;
     }
 
+    public void setIntParam(int param) {
+        mIntparam = param;
+    }
+
+    public long getQueueTime() {
+        return mQueueTime;
+    }
+
+    public void setQueueTime(long time) {
+        mQueueTime = time;
+    }
+
     public boolean getBoolParam() {
         return mBoolparam;
     }
@@ -0,0 +1,111 @@
+package org.odyssey.playbackservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+/**
+ * Playback position of the current track as published by PlaybackService.
+ * The service only sends a new clock if the position jumps (track change,
+ * seek) or the playback state changes. Clients compute the position from it
+ * locally instead of asking the service on every tick.
+ * 
+ * The anchor time is taken from SystemClock.elapsedRealtime() which is the
+ * same in every process.
+ */
+public class PlaybackClock implements Parcelable {
+    public static final int STATE_STOPPED = 0;
+    public static final int STATE_PAUSED = 1;
+    public static final int STATE_PLAYING = 2;
+
+    private int mState;
+    // position in ms at mAnchorTime
+    private int mPosition;
+    private long mAnchorTime;
+    // playback speed, 1.0 is normal speed
+    private float mRate;
+    // duration of the track in ms, 0 if unknown
+    private int mDuration;
+
+    public PlaybackClock(int state, int position, long anchorTime, float rate, int duration) {
+        mState = state;
+        mPosition = position;
+        mAnchorTime = anchorTime;
+        mRate = rate;
+        mDuration = duration;
+    }
+
+    public static PlaybackClock stopped() {
+        return new PlaybackClock(STATE_STOPPED, 0, SystemClock.elapsedRealtime(), 1.0f, 0);
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public boolean isPlaying() {
+        return mState == STATE_PLAYING;
+    }
+
+    public int getDuration() {
+        return mDuration;
+    }
+
+    /*
+     * Position in ms at elapsedRealtime now. Only advances while playing and
+     * never runs past the end of the track.
+     */
+    public int getPosition(long now) {
+        long position = mPosition;
+        if (mState == STATE_PLAYING && now > mAnchorTime) {
+            position += (long) ((now - mAnchorTime) * mRate);
+        }
+        if (mDuration > 0 && position > mDuration) {
+            position = mDuration;
+        }
+        return (int) position;
+    }
+
+    public int getPosition() {
+        return getPosition(SystemClock.elapsedRealtime());
+    }
+
+    @Override
+    public String toString() {
+        return "State: " + mState + " Position: " + mPosition + " Anchor: " + mAnchorTime + " Rate: " + mRate + " Duration: " + mDuration;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mState);
+        dest.writeInt(mPosition);
+        dest.writeLong(mAnchorTime);
+        dest.writeFloat(mRate);
+        dest.writeInt(mDuration);
+    }
+
+    public static Parcelable.Creator<PlaybackClock> CREATOR = new Creator<PlaybackClock>() {
+
+        @Override
+        public PlaybackClock[] newArray(int size) {
+            return new PlaybackClock[size];
+        }
+
+        @Override
+        public PlaybackClock createFromParcel(Parcel source) {
+            int state = source.readInt();
+            int position = source.readInt();
+            long anchorTime = source.readLong();
+            float rate = source.readFloat();
+            int duration = source.readInt();
+
+            return new PlaybackClock(state, position, anchorTime, rate, duration);
+        }
+    };
+
+}
@@ -0,0 +1,248 @@
+package org.odyssey.playbackservice;
+
+import java.util.ArrayList;
+
+import android.os.Handler;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Delivers the events of the PlaybackService to the registered
+ * IOdysseyPlaybackListeners. Events are collected and sent together
+ * COALESCE_DELAY ms after the first one, so a burst of changes (e.g. the
+ * library loader appending its batches) ends up as a few calls. Adjacent
+ * insertions and removals are merged, if too many playlist changes pile up
+ * they are replaced by a single onPlaylistChanged().
+ *
+ * Events can be recorded from any thread, they are delivered on the thread of
+ * the given handler.
+ */
+public class PlaybackEventDispatcher {
+    private static final String TAG = "OdysseyPlaybackEventDispatcher";
+
+    private static final int COALESCE_DELAY = 50;
+    private static final int MAX_QUEUE_EVENTS = 16;
+
+    private final RemoteCallbackList<IOdysseyPlaybackListener> mListeners = new RemoteCallbackList<IOdysseyPlaybackListener>();
+    private final Handler mHandler;
+
+    // Pending events, guarded by this
+    private ArrayList<QueueEvent> mQueueEvents = new ArrayList<QueueEvent>();
+    private boolean mTrackPending = false;
+    private int mIndex = -1;
+    private TrackItem mTrack = null;
+    private boolean mStatePending = false;
+    private PlaybackClock mClock = null;
+    private int mRepeat = 0;
+    private int mRandom = 0;
+    private boolean mFlushPending = false;
+
+    // Last delivered track, only used by flush()
+    private int mSentIndex = -1;
+    private String mSentURL = null;
+
+    private final Runnable mFlushRunner = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public PlaybackEventDispatcher(Handler handler) {
+        mHandler = handler;
+    }
+
+    /*
+     * Delivers the pending events to the already registered listeners before
+     * adding the new one, so it only gets events recorded after this call.
+     * Must be called on the handler thread.
+     */
+    public void register(IOdysseyPlaybackListener listener) {
+        mHandler.removeCallbacks(mFlushRunner);
+        flush();
+        mListeners.register(listener);
+    }
+
+    public void unregister(IOdysseyPlaybackListener listener) {
+        mListeners.unregister(listener);
+    }
+
+    public void kill() {
+        mHandler.removeCallbacks(mFlushRunner);
+        mListeners.kill();
+    }
+
+    public synchronized void trackChanged(int index, TrackItem track) {
+        mTrackPending = true;
+        mIndex = index;
+        mTrack = track;
+        scheduleFlush();
+    }
+
+    public synchronized void playStateChanged(PlaybackClock clock, int repeat, int random) {
+        mStatePending = true;
+        mClock = clock;
+        mRepeat = repeat;
+        mRandom = random;
+        scheduleFlush();
+    }
+
+    public synchronized void tracksInserted(int start, int count, int size, int previousVersion, int version) {
+        addQueueEvent(new QueueEvent(QueueEvent.TYPE_INSERTED, start, count, previousVersion, version), size);
+    }
+
+    public synchronized void tracksRemoved(int start, int count, int size, int previousVersion, int version) {
+        addQueueEvent(new QueueEvent(QueueEvent.TYPE_REMOVED, start, count, previousVersion, version), size);
+    }
+
+    public synchronized void playlistChanged(int size, int version) {
+        // older changes are covered by this one
+        mQueueEvents.clear();
+        mQueueEvents.add(new QueueEvent(QueueEvent.TYPE_CHANGED, 0, size, version, version));
+        scheduleFlush();
+    }
+
+    private void addQueueEvent(QueueEvent event, int size) {
+        QueueEvent last = mQueueEvents.isEmpty() ? null : mQueueEvents.get(mQueueEvents.size() - 1);
+        if (last != null && last.mType == QueueEvent.TYPE_CHANGED) {
+            // the clients refetch everything anyway
+            last.mCount = size;
+            last.mVersion = event.mVersion;
+        } else if (last == null || !last.merge(event)) {
+            mQueueEvents.add(event);
+            if (mQueueEvents.size() > MAX_QUEUE_EVENTS) {
+                mQueueEvents.clear();
+                mQueueEvents.add(new QueueEvent(QueueEvent.TYPE_CHANGED, 0, size, event.mVersion, event.mVersion));
+            }
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushPending) {
+            mFlushPending = true;
+            mHandler.postDelayed(mFlushRunner, COALESCE_DELAY);
+        }
+    }
+
+    private void flush() {
+        ArrayList<QueueEvent> queueEvents;
+        boolean trackPending;
+        int index;
+        TrackItem track;
+        boolean statePending;
+        PlaybackClock clock;
+        int repeat;
+        int random;
+        synchronized (this) {
+            mFlushPending = false;
+            queueEvents = mQueueEvents;
+            mQueueEvents = new ArrayList<QueueEvent>();
+            trackPending = mTrackPending;
+            index = mIndex;
+            track = mTrack;
+            statePending = mStatePending;
+            clock = mClock;
+            repeat = mRepeat;
+            random = mRandom;
+            mTrackPending = false;
+            mStatePending = false;
+        }
+
+        // tell a new track from one that only moved in the playlist
+        boolean trackChanged = false;
+        boolean indexMoved = false;
+        if (trackPending) {
+            String url = track != null ? track.getTrackURL() : null;
+            if (url == null ? mSentURL != null : !url.equals(mSentURL)) {
+                trackChanged = true;
+            } else if (index != mSentIndex) {
+                indexMoved = true;
+            }
+            mSentIndex = index;
+            mSentURL = url;
+        }
+
+        int count = mListeners.beginBroadcast();
+        for (int i = 0; i < count; i++) {
+            IOdysseyPlaybackListener listener = mListeners.getBroadcastItem(i);
+            try {
+                for (QueueEvent event : queueEvents) {
+                    event.deliver(listener);
+                }
+                if (trackChanged) {
+                    listener.onTrackChanged(index, track);
+                } else if (indexMoved) {
+                    listener.onIndexMoved(index);
+                }
+                if (statePending) {
+                    listener.onPlayStateChanged(clock, repeat, random);
+                }
+            } catch (RemoteException e) {
+                // dead listeners are dropped by the RemoteCallbackList
+                Log.v(TAG, "Listener died");
+            }
+        }
+        mListeners.finishBroadcast();
+    }
+
+    private static class QueueEvent {
+        static final int TYPE_INSERTED = 0;
+        static final int TYPE_REMOVED = 1;
+        static final int TYPE_CHANGED = 2;
+
+        final int mType;
+        int mStart;
+        // playlist size for TYPE_CHANGED
+        int mCount;
+        final int mPreviousVersion;
+        int mVersion;
+
+        QueueEvent(int type, int start, int count, int previousVersion, int version) {
+            mType = type;
+            mStart = start;
+            mCount = count;
+            mPreviousVersion = previousVersion;
+            mVersion = version;
+        }
+
+        /*
+         * Merges the directly following event into this one if both together
+         * are still one contiguous range.
+         */
+        boolean merge(QueueEvent next) {
+            if (next.mType != mType || next.mPreviousVersion != mVersion) {
+                return false;
+            }
+            if (mType == TYPE_INSERTED) {
+                // inserted somewhere in or right after the inserted block
+                if (next.mStart < mStart || next.mStart > mStart + mCount) {
+                    return false;
+                }
+            } else if (mType == TYPE_REMOVED) {
+                if (next.mStart + next.mCount == mStart) {
+                    // removed right before the removed block
+                    mStart = next.mStart;
+                } else if (next.mStart != mStart) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+            mCount += next.mCount;
+            mVersion = next.mVersion;
+            return true;
+        }
+
+        void deliver(IOdysseyPlaybackListener listener) throws RemoteException {
+            if (mType == TYPE_INSERTED) {
+                listener.onTracksInserted(mStart, mCount, mPreviousVersion, mVersion);
+            } else if (mType == TYPE_REMOVED) {
+                listener.onTracksRemoved(mStart, mCount, mPreviousVersion, mVersion);
+            } else {
+                listener.onPlaylistChanged(mCount, mVersion);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.odyssey.playbackservice;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Base class for listeners of the PlaybackService. The binder calls are
+ * forwarded to the main thread, subclasses override the methods they are
+ * interested in. Events that are still queued when release() is called are
+ * dropped.
+ */
+public abstract class PlaybackListener extends IOdysseyPlaybackListener.Stub {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mReleased = false;
+
+    /*
+     * Drops all queued events, call it after unregistering the listener.
+     */
+    public void release() {
+        mReleased = true;
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    protected void trackChanged(int index, TrackItem track) {
+    }
+
+    protected void indexMoved(int index) {
+    }
+
+    protected void playStateChanged(PlaybackClock clock, int repeat, int random) {
+    }
+
+    protected void tracksInserted(int start, int count, int previousVersion, int version) {
+    }
+
+    protected void tracksRemoved(int start, int count, int previousVersion, int version) {
+    }
+
+    protected void playlistChanged(int size, int version) {
+    }
+
+    private void post(Runnable runnable) {
+        if (!mReleased) {
+            mHandler.post(runnable);
+        }
+    }
+
+    @Override
+    public final void onTrackChanged(final int index, final TrackItem track) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    trackChanged(index, track);
+                }
+            }
+        });
+    }
+
+    @Override
+    public final void onIndexMoved(final int index) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    indexMoved(index);
+                }
+            }
+        });
+    }
+
+    @Override
+    public final void onPlayStateChanged(final PlaybackClock clock, final int repeat, final int random) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    playStateChanged(clock, repeat, random);
+                }
+            }
+        });
+    }
+
+    @Override
+    public final void onTracksInserted(final int start, final int count, final int previousVersion, final int version) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    tracksInserted(start, count, previousVersion, version);
+                }
+            }
+        });
+    }
+
+    @Override
+    public final void onTracksRemoved(final int start, final int count, final int previousVersion, final int version) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    tracksRemoved(start, count, previousVersion, version);
+                }
+            }
+        });
+    }
+
+    @Override
+    public final void onPlaylistChanged(final int size, final int version) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    playlistChanged(size, version);
+                }
+            }
+        });
+    }
+}
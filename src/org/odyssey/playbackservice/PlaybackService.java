@@ -6,12 +6,14 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
 
 import org.odyssey.MainActivity;
 import org.odyssey.MusicLibraryHelper;
 import org.odyssey.MusicLibraryHelper.CoverBitmapGenerator;
 import org.odyssey.NowPlayingInformation;
 import org.odyssey.R;
+import org.odyssey.manager.CoverDecodePool;
 import org.odyssey.manager.DatabaseManager;
 import org.odyssey.playbackservice.GaplessPlayer.PlaybackException;
 
@@ -22,24 +24,24 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.media.AudioManager;
 import android.media.MediaMetadataRetriever;
 import android.media.RemoteControlClient;
-import android.net.Uri;
+import android.os.Bundle;
 import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Message;
 import android.os.Parcelable;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
@@ -77,6 +79,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
     public static final String INTENT_TRACKITEMNAME = "OdysseyTrackItem";
     public static final String INTENT_NOWPLAYINGNAME = "OdysseyNowPlaying";
+    public static final String INTENT_PLAYBACKCLOCK = "OdysseyPlaybackClock";
 
     // PendingIntent ids
     private static final int NOTIFICATION_INTENT_PREVIOUS = 0;
@@ -89,9 +92,27 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
     private final static int SERVICE_CANCEL_TIME = 60 * 5 * 1000;
 
+    // The widget and external apps get at most one broadcast per interval
+    private final static int BROADCAST_INTERVAL = 1000;
+
+    // Number of tracks the library loader appends to the playlist at once
+    private final static int LIBRARY_LOADER_BATCH_SIZE = 500;
+
+    // Time without playlist changes after which a long journal is compacted
+    private final static int JOURNAL_COMPACT_DELAY = 30 * 1000;
+
     private HandlerThread mHandlerThread;
     private PlaybackServiceHandler mHandler;
 
+    // Events for the registered IOdysseyPlaybackListeners
+    private PlaybackEventDispatcher mEvents;
+
+    // Throttling of MESSAGE_NEWTRACKINFORMATION, guarded by this
+    private long mLastBroadcastTime = 0;
+    private boolean mBroadcastPending = false;
+    private TrackItem mBroadcastTrack = null;
+    private PLAYSTATE mBroadcastState = PLAYSTATE.STOPPED;
+
     private boolean mLostAudioFocus = false;
 
     // Notification objects
@@ -101,18 +122,51 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
     // Mediaplayback stuff
     private GaplessPlayer mPlayer;
-    private ArrayList<TrackItem> mCurrentList;
+    private PlaylistQueue mCurrentList;
     private int mCurrentPlayingIndex;
     private int mNextPlayingIndex;
     private int mLastPlayingIndex;
     private boolean mIsDucked = false;
     private boolean mIsPaused = false;
     private int mLastPosition = 0;
+    // Anchored on every status update, clients extrapolate the position from it
+    private volatile PlaybackClock mPlaybackClock = PlaybackClock.stopped();
     private Random mRandomGenerator;
+    // Order of random playback
+    private ShuffleBag mShuffleBag;
 
     private int mRandom = 0;
     private int mRepeat = 0;
 
+    // Incremented on every modification of mCurrentList
+    private volatile int mPlaylistVersion = 0;
+
+    /*
+     * mCurrentList is only modified on the handler thread. Modifications
+     * together with their version change and reads from other threads hold
+     * this lock.
+     */
+    private final Object mPlaylistLock = new Object();
+
+    /*
+     * The saved playlist is restored in the background. Until it is loaded
+     * only the size is known and single tracks are read directly from the
+     * database.
+     */
+    private volatile boolean mPlaylistLoaded = false;
+    private CountDownLatch mPlaylistLoadedLatch = new CountDownLatch(1);
+    private int mRestoredPlaylistSize = 0;
+
+    /*
+     * Generation of the running LibraryLoader. Incremented on the handler
+     * thread whenever the playlist is cleared or changed by a command (see
+     * stopLibraryLoader()), batches of older loaders are dropped.
+     */
+    private volatile int mLibraryLoaderGeneration = 0;
+
+    // Running save of the playlist to the MediaStore, null if there is none
+    private volatile PlaylistWriter mPlaylistWriter = null;
+
     // Remote control
     private RemoteControlClient mRemoteControlClient = null;
 
@@ -148,6 +202,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         mHandlerThread = new HandlerThread("OdysseyHandlerThread", Process.THREAD_PRIORITY_DEFAULT);
         mHandlerThread.start();
         mHandler = new PlaybackServiceHandler(mHandlerThread.getLooper(), this);
+        mEvents = new PlaybackEventDispatcher(mHandler);
 
         // Create MediaPlayer
         mPlayer = new GaplessPlayer(this);
@@ -161,23 +216,31 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         // set up playlistmanager
         mPlaylistManager = new DatabaseManager(getApplicationContext());
 
-        // read playlist from database
-        mCurrentList = mPlaylistManager.readPlaylist();
+        // set up random generator
+        mRandomGenerator = new Random();
+        mShuffleBag = new ShuffleBag(mRandomGenerator);
+
+        // only get the size now, the playlist itself is read by the handler
+        // thread before it processes any command
+        mCurrentList = new PlaylistQueue();
+        mRestoredPlaylistSize = mPlaylistManager.getPlaylistSize();
 
-        // mCurrentList = new ArrayList<TrackItem>();
         mCurrentPlayingIndex = (int) mPlaylistManager.getLastTrackNumber();
 
         // Retrieve repeat/random state from settings db
         mRandom = mPlaylistManager.getLastRandomState();
         mRepeat = mPlaylistManager.getLastRepeatState();
 
-        if (mCurrentPlayingIndex < 0 || mCurrentPlayingIndex > mCurrentList.size()) {
+        if (mCurrentPlayingIndex < 0 || mCurrentPlayingIndex >= mRestoredPlaylistSize) {
             mCurrentPlayingIndex = -1;
         }
 
         mLastPlayingIndex = -1;
         mNextPlayingIndex = -1;
 
+        // the loader uses the restored index, so start it after it was checked
+        mHandler.postAtFrontOfQueue(new PlaylistLoader());
+
         mNotificationBuilder = new NotificationCompat.Builder(this).setSmallIcon(R.drawable.ic_stat_odys).setContentTitle("Odyssey").setContentText("");
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
 
@@ -213,11 +276,10 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         mTempWakelock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
 
-        // set up random generator
-        mRandomGenerator = new Random();
-
-        mNotificationCoverGenerator = new CoverBitmapGenerator(this, new NotificationCoverListener());
-        mLockscreenCoverGenerator = new CoverBitmapGenerator(this, new LockscreenCoverListener());
+        int notificationCoverSize = getResources().getDimensionPixelSize(R.dimen.notification_cover_size);
+        int lockscreenCoverSize = getResources().getDimensionPixelSize(R.dimen.lockscreen_cover_size);
+        mNotificationCoverGenerator = new CoverBitmapGenerator(this, new NotificationCoverListener(), notificationCoverSize, notificationCoverSize, CoverDecodePool.PRIORITY_BACKGROUND);
+        mLockscreenCoverGenerator = new CoverBitmapGenerator(this, new LockscreenCoverListener(), lockscreenCoverSize, lockscreenCoverSize, CoverDecodePool.PRIORITY_BACKGROUND);
     }
 
     @Override
@@ -228,19 +290,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             String action = intent.getExtras().getString("action");
             if (action != null) {
                 Log.v(TAG, "Action requested: " + action);
-                if (action.equals(ACTION_TOGGLEPAUSE)) {
-                    togglePause();
-                } else if (action.equals(ACTION_NEXT)) {
-                    setNextTrack();
-                } else if (action.equals(ACTION_PREVIOUS)) {
-                    setPreviousTrack();
-                } else if (action.equals(ACTION_STOP)) {
-                    stop();
-                } else if (action.equals(ACTION_PLAY)) {
-                    resume();
-                } else if (action.equals(ACTION_QUIT)) {
-                    stopService();
-                }
+                queueAction(action);
             }
         }
         Log.v(TAG, "onStartCommand");
@@ -253,10 +303,19 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
         cancelQuitAlert();
 
+        mNotificationCoverGenerator.cancel();
+        mLockscreenCoverGenerator.cancel();
+
+        if (mPlaylistWriter != null) {
+            mPlaylistWriter.cancel();
+            mPlaylistWriter = null;
+        }
+
         if (mNoisyReceiver != null) {
             unregisterReceiver(mNoisyReceiver);
             mNoisyReceiver = null;
         }
+        mEvents.kill();
         stopSelf();
 
     }
@@ -404,74 +463,49 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
     // add all tracks to playlist and play
     public void playAllTracks() {
+        playAllTracks(false);
+    }
+
+    // add all tracks to playlist, shuffle and play
+    public void playAllTracksShuffled() {
+        playAllTracks(true);
+    }
+
+    /*
+     * Replaces the playlist with the whole library. The tracks are read by a
+     * LibraryLoader thread which starts playback with the first track and
+     * appends the rest in batches, so the handler stays free for other
+     * commands while a large library is loaded.
+     */
+    private void playAllTracks(boolean shuffled) {
 
-        // clear playlist
+        // clear playlist, this also cancels a running loader
         clearPlaylist();
 
         // stop service
         stop();
 
-        // get all tracks
-        Cursor cursor = getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionTracks, "", null, MediaStore.Audio.Media.TITLE + " COLLATE NOCASE");
-
-        // add all tracks to playlist
-        if (cursor.moveToFirst()) {
-
-            String title = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-            long duration = cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION));
-            int no = cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.TRACK));
-            String artist = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-            String album = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-            String url = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA));
-            String albumKey = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_KEY));
-
-            TrackItem item = new TrackItem(title, artist, album, url, no, duration, albumKey);
-
-            mCurrentList.add(item);
-
-            // start playing
-            jumpToIndex(0, true);
-
-            while (cursor.moveToNext()) {
-
-                title = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE));
-                duration = cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION));
-                no = cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.TRACK));
-                artist = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST));
-                album = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM));
-                url = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA));
-                albumKey = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_KEY));
-
-                item = new TrackItem(title, artist, album, url, no, duration, albumKey);
-
-                mCurrentList.add(item);
-
-            }
-        }
-
-        cursor.close();
-    }
-
-    // add all tracks to playlist, shuffle and play
-    public void playAllTracksShuffled() {
-        playAllTracks();
-        shufflePlaylist();
+        Thread loaderThread = new Thread(new LibraryLoader(mLibraryLoaderGeneration, shuffled));
+        loaderThread.start();
     }
 
     // shuffle the current playlist
     public void shufflePlaylist() {
+        stopLibraryLoader();
 
         // save currentindex
         int index = mCurrentPlayingIndex;
 
         if (mCurrentList.size() > 0 && index >= 0 && (index < mCurrentList.size())) {
-            // get the current trackitem and remove it from playlist
-            TrackItem currentItem = mCurrentList.get(index);
-            mCurrentList.remove(index);
-
-            // shuffle playlist and set currentitem as first element
-            Collections.shuffle(mCurrentList);
-            mCurrentList.add(0, currentItem);
+            // shuffle playlist and set currentitem as first element, only the
+            // shuffle order changes, the original order is kept for unshuffle
+            long seed = mRandomGenerator.nextLong();
+            synchronized (mPlaylistLock) {
+                mCurrentList.shuffle(new Random(seed), index);
+                mShuffleBag.reset(mCurrentList.size(), 0);
+                playlistChanged();
+            }
+            mPlaylistManager.journalShuffle(index, seed);
 
             // reset index
             mCurrentPlayingIndex = 0;
@@ -487,13 +521,47 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             }
         } else if (mCurrentList.size() > 0 && index < 0) {
             // service stopped just shuffle playlist
-            Collections.shuffle(mCurrentList);
+            long seed = mRandomGenerator.nextLong();
+            synchronized (mPlaylistLock) {
+                mCurrentList.shuffle(new Random(seed));
+                mShuffleBag.reset(mCurrentList.size(), -1);
+                playlistChanged();
+            }
+            mPlaylistManager.journalShuffle(-1, seed);
 
             // sent broadcast
             updateStatus();
         }
     }
 
+    // restore the order the playlist had before it was shuffled
+    public void unshufflePlaylist() {
+        stopLibraryLoader();
+        if (!mCurrentList.isShuffled()) {
+            return;
+        }
+
+        // keep the current track, it only gets its unshuffled index
+        if (mCurrentPlayingIndex >= 0 && mCurrentPlayingIndex < mCurrentList.size()) {
+            mCurrentPlayingIndex = mCurrentList.getOriginalIndex(mCurrentPlayingIndex);
+        }
+
+        synchronized (mPlaylistLock) {
+            mCurrentList.unshuffle();
+            mShuffleBag.reset(mCurrentList.size(), mCurrentPlayingIndex);
+            playlistChanged();
+        }
+        mPlaylistManager.journalUnshuffle();
+
+        updateStatus();
+
+        if (mCurrentPlayingIndex >= 0) {
+            // set next track for gapless
+            mNextPlayingIndex = mCurrentPlayingIndex + 1;
+            setNextTrackForMP();
+        }
+    }
+
     /**
      * Sets nextplayback track to following on in playlist
      */
@@ -506,22 +574,72 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
     }
 
     public void enqueueAsNextTrack(TrackItem track) {
+        stopLibraryLoader();
 
         // Check if currently playing, than enqueue after current song
         if (mCurrentPlayingIndex >= 0) {
             // Enqueue in list structure
-            mCurrentList.add(mCurrentPlayingIndex + 1, track);
+            synchronized (mPlaylistLock) {
+                mCurrentList.add(mCurrentPlayingIndex + 1, track);
+                mShuffleBag.insert(mCurrentPlayingIndex + 1, 1);
+                playlistTracksInserted(mCurrentPlayingIndex + 1, 1);
+            }
+            mPlaylistManager.journalInsertTrack(mCurrentList, mCurrentPlayingIndex + 1);
             mNextPlayingIndex = mCurrentPlayingIndex + 1;
             // Set next track to new one
             setNextTrackForMP();
         } else {
             // If not playing just add it to the beginning of the playlist
-            mCurrentList.add(0, track);
+            synchronized (mPlaylistLock) {
+                mCurrentList.add(0, track);
+                mShuffleBag.insert(0, 1);
+                playlistTracksInserted(0, 1);
+            }
+            mPlaylistManager.journalInsertTrack(mCurrentList, 0);
             // Start playback which is probably intended
             jumpToIndex(0, true);
         }
     }
 
+    /**
+     * Skips count tracks forward. Bursts of next commands get merged into one
+     * call of this so only the final track is prepared.
+     */
+    public void skipTracks(int count) {
+        // single steps behave like a normal next
+        if (count <= 1 || mCurrentPlayingIndex < 0) {
+            setNextTrack();
+            return;
+        }
+
+        int index;
+        if (mRandom == RANDOMSTATE.RANDOM_ON.ordinal()) {
+            // draw once per skipped track, the skipped ones count as played
+            boolean repeat = mRepeat == REPEATSTATE.REPEAT_ALL.ordinal();
+            index = mShuffleBag.getNext(repeat);
+            for (int i = 1; i < count && index >= 0; i++) {
+                mShuffleBag.setCurrent(index);
+                index = mShuffleBag.getNext(repeat);
+            }
+        } else {
+            int size = mCurrentList.size();
+            index = mCurrentPlayingIndex + count;
+            if (index >= size) {
+                if (mRepeat == REPEATSTATE.REPEAT_ALL.ordinal() && size > 0) {
+                    index = index % size;
+                } else {
+                    // end of playlist reached
+                    index = -1;
+                }
+            }
+        }
+
+        // Keep device at least for 5 seconds turned on
+        mTempWakelock.acquire(5000);
+        mLastPlayingIndex = mCurrentPlayingIndex;
+        jumpToIndex(index, true);
+    }
+
     /**
      * Sets nextplayback track to preceding on in playlist
      */
@@ -535,12 +653,13 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
         if (mRandom == RANDOMSTATE.RANDOM_ON.ordinal()) {
 
-            if (mLastPlayingIndex == -1) {
-                // if no lastindex reuse currentindex
+            int previousIndex = mShuffleBag.getPrevious();
+            if (previousIndex == -1) {
+                // if no previous track reuse currentindex
                 jumpToIndex(mCurrentPlayingIndex, true);
-            } else if (mLastPlayingIndex >= 0 && mLastPlayingIndex < mCurrentList.size()) {
+            } else {
                 Log.v(TAG, "Found old track index");
-                jumpToIndex(mLastPlayingIndex, true);
+                jumpToIndex(previousIndex, true);
             }
 
         } else {
@@ -560,24 +679,218 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         return mHandler;
     }
 
+    /*
+     * Translates the intent actions of notification, widget and remote
+     * control into commands for the handler so they are serialized with the
+     * ones from bound clients.
+     */
+    private void queueAction(String action) {
+        ControlObject obj = null;
+        if (action.equals(ACTION_TOGGLEPAUSE)) {
+            obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_TOGGLEPAUSE);
+        } else if (action.equals(ACTION_NEXT)) {
+            obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_NEXT);
+        } else if (action.equals(ACTION_PREVIOUS)) {
+            obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PREVIOUS);
+        } else if (action.equals(ACTION_STOP)) {
+            obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_STOP);
+        } else if (action.equals(ACTION_PLAY)) {
+            obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_RESUME);
+        } else if (action.equals(ACTION_PAUSE)) {
+            obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PAUSE);
+        } else if (action.equals(ACTION_QUIT)) {
+            obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_STOPSERVICE);
+        }
+
+        if (obj != null) {
+            mHandler.queueCommand(obj);
+        }
+    }
+
+    /*
+     * Returns a copy of the playlist, safe to call from any thread
+     */
     public List<TrackItem> getCurrentList() {
-        return mCurrentList;
+        waitForPlaylist();
+        synchronized (mPlaylistLock) {
+            return new ArrayList<TrackItem>(mCurrentList);
+        }
     }
 
     public int getPlaylistSize() {
-        return mCurrentList.size();
+        if (!mPlaylistLoaded) {
+            return mRestoredPlaylistSize;
+        }
+        synchronized (mPlaylistLock) {
+            return mCurrentList.size();
+        }
     }
 
     public TrackItem getPlaylistTrack(int index) {
-        if ((index >= 0) && (index < mCurrentList.size())) {
-            return mCurrentList.get(index);
+        if (!mPlaylistLoaded) {
+            // an empty track if the database cannot tell without the restored
+            // playlist, it is announced with the playlist change once loaded
+            ArrayList<TrackItem> tracks = new ArrayList<TrackItem>(1);
+            mPlaylistManager.readPlaylistWindow(index, 1, tracks);
+            return tracks.isEmpty() ? new TrackItem() : tracks.get(0);
+        }
+        synchronized (mPlaylistLock) {
+            if ((index >= 0) && (index < mCurrentList.size())) {
+                return mCurrentList.get(index);
+            }
         }
         return new TrackItem();
     }
 
+    public int getPlaylistVersion() {
+        return mPlaylistVersion;
+    }
+
+    /*
+     * Copies up to count tracks beginning at start into tracks so clients can
+     * fetch a whole window of the playlist with one binder transaction.
+     * Returns the playlist version the window belongs to.
+     *
+     * Until the playlist is restored the window is read from the database. If
+     * it cannot be read from there the window stays empty, the restore changes
+     * the version so clients fetch it again.
+     */
+    public int getPlaylistWindow(int start, int count, List<TrackItem> tracks) {
+        if (start < 0) {
+            start = 0;
+        }
+        if (!mPlaylistLoaded) {
+            int version = mPlaylistVersion;
+            mPlaylistManager.readPlaylistWindow(start, count, tracks);
+            return version;
+        }
+        // called on binder threads, the window and its version must match
+        synchronized (mPlaylistLock) {
+            int end = Math.min(start + count, mCurrentList.size());
+            for (int i = start; i < end; i++) {
+                tracks.add(mCurrentList.get(i));
+            }
+            return mPlaylistVersion;
+        }
+    }
+
+    /*
+     * Blocks until the saved playlist is restored. Needed by everything that
+     * is not called from the handler thread and touches mCurrentList.
+     */
+    private void waitForPlaylist() {
+        boolean interrupted = false;
+        while (!mPlaylistLoaded) {
+            try {
+                mPlaylistLoadedLatch.await();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for the restored playlist");
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            // keep the interrupt for the caller
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Marks the playlist as modified so clients holding a cached window of it
+     * know they have to refetch.
+     */
+    private void playlistChanged() {
+        mPlaylistVersion++;
+        mEvents.playlistChanged(mCurrentList.size(), mPlaylistVersion);
+        scheduleCompaction();
+    }
+
+    /*
+     * Like playlistChanged() for count tracks inserted at start, clients can
+     * keep the parts of their window that did not change.
+     */
+    private void playlistTracksInserted(int start, int count) {
+        int previousVersion = mPlaylistVersion++;
+        mEvents.tracksInserted(start, count, mCurrentList.size(), previousVersion, mPlaylistVersion);
+        scheduleCompaction();
+    }
+
+    private void playlistTracksRemoved(int start, int count) {
+        int previousVersion = mPlaylistVersion++;
+        mEvents.tracksRemoved(start, count, mCurrentList.size(), previousVersion, mPlaylistVersion);
+        scheduleCompaction();
+    }
+
+    /*
+     * Compacts the journal on the handler thread once the playlist was left
+     * alone for JOURNAL_COMPACT_DELAY ms, so a long running service does not
+     * grow it without bound. compactPlaylist() only writes a snapshot if the
+     * journal is long enough.
+     */
+    private void scheduleCompaction() {
+        mHandler.removeCallbacks(mCompactRunner);
+        mHandler.postDelayed(mCompactRunner, JOURNAL_COMPACT_DELAY);
+    }
+
+    private final Runnable mCompactRunner = new Runnable() {
+        @Override
+        public void run() {
+            if (mPlaylistLoaded) {
+                mPlaylistManager.compactPlaylist(mCurrentList);
+            }
+        }
+    };
+
+    /*
+     * Registers a listener and sends it the current state. Runs on the
+     * handler thread and under the playlist lock, so no event older than the
+     * sent state reaches the listener afterwards.
+     */
+    public void registerListener(final IOdysseyPlaybackListener listener) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int size;
+                int version;
+                synchronized (mPlaylistLock) {
+                    mEvents.register(listener);
+                    size = mCurrentList.size();
+                    version = mPlaylistVersion;
+                }
+                try {
+                    listener.onPlaylistChanged(size, version);
+                    listener.onTrackChanged(mCurrentPlayingIndex, getCurrentTrack());
+                    listener.onPlayStateChanged(mPlaybackClock, mRepeat, mRandom);
+                } catch (RemoteException e) {
+                    Log.v(TAG, "Listener died during registration");
+                }
+            }
+        });
+    }
+
+    public void unregisterListener(IOdysseyPlaybackListener listener) {
+        mEvents.unregister(listener);
+    }
+
+    /*
+     * Drops the remaining batches of a running LibraryLoader. Called by every
+     * command that changes the playlist, so the batches do not interleave
+     * with it. The tracks loaded so far stay in the playlist.
+     */
+    private void stopLibraryLoader() {
+        mLibraryLoaderGeneration++;
+    }
+
     public void clearPlaylist() {
+        // Drop tracks of a running library loader
+        stopLibraryLoader();
+
         // Clear the list
-        mCurrentList.clear();
+        synchronized (mPlaylistLock) {
+            mCurrentList.clear();
+            mShuffleBag.reset(0, -1);
+            playlistChanged();
+        }
+        mPlaylistManager.clearPlaylist();
         // Stop the playback
         stop();
     }
@@ -642,6 +955,8 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
     public void seekTo(int position) {
         if (mPlayer.isRunning()) {
             mPlayer.seekTo(position);
+            // re-anchor the clock of the clients
+            updateStatus(false, false, true);
         }
     }
 
@@ -661,50 +976,170 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         }
     }
 
+    public PlaybackClock getPlaybackClock() {
+        return mPlaybackClock;
+    }
+
+    /*
+     * Takes a new anchor for the PlaybackClock from the current player state.
+     * Only called on state changes, between them the clock of the clients runs
+     * on its own.
+     */
+    private void updatePlaybackClock() {
+        int state;
+        if (mPlayer.isRunning()) {
+            state = PlaybackClock.STATE_PLAYING;
+        } else if (mPlayer.isPaused()) {
+            state = PlaybackClock.STATE_PAUSED;
+        } else {
+            mPlaybackClock = PlaybackClock.stopped();
+            return;
+        }
+
+        int duration = 0;
+        if (mCurrentPlayingIndex >= 0 && mCurrentPlayingIndex < mCurrentList.size()) {
+            duration = (int) mCurrentList.get(mCurrentPlayingIndex).getTrackDuration();
+        }
+        if (duration <= 0) {
+            duration = getTrackDuration();
+        }
+        mPlaybackClock = new PlaybackClock(state, getTrackPosition(), SystemClock.elapsedRealtime(), 1.0f, duration);
+    }
+
     public void enqueueTracks(ArrayList<TrackItem> tracklist) {
+        stopLibraryLoader();
+        appendTracks(tracklist);
+    }
+
+    /*
+     * Appends the tracks without stopping a running LibraryLoader, used for
+     * its batches.
+     */
+    private void appendTracks(ArrayList<TrackItem> tracklist) {
         // Check if current song is old last one, if so set next song to MP for
         // gapless playback
-        mCurrentList.addAll(tracklist);
+        int oldSize = mCurrentList.size();
+        synchronized (mPlaylistLock) {
+            mCurrentList.addAll(tracklist);
+            mShuffleBag.insert(oldSize, tracklist.size());
+            playlistTracksInserted(oldSize, tracklist.size());
+        }
+        mPlaylistManager.journalInsertTracks(mCurrentList, oldSize, tracklist.size());
+
+        if (!tracklist.isEmpty()) {
+            tracksAppended(oldSize);
+        }
+    }
+
+    /*
+     * Enqueues tracks by their MediaStore ids, the metadata is resolved here
+     * so clients only have to send the ids.
+     */
+    public void enqueueTrackIds(long[] ids) {
+        enqueueTracks(MusicLibraryHelper.getTrackItemsFromIds(ids, getContentResolver()));
+    }
+
+    public void enqueueTrackIdAsNext(long id) {
+        ArrayList<TrackItem> tracks = MusicLibraryHelper.getTrackItemsFromIds(new long[] { id }, getContentResolver());
+        if (!tracks.isEmpty()) {
+            enqueueAsNextTrack(tracks.get(0));
+        }
+    }
+
+    /*
+     * Enqueues the tracks described by the selector. They are read from the
+     * MediaStore in this process so no track list has to be sent by the client.
+     */
+    public void enqueueSelection(TrackSelector selector) {
+        enqueueTracks(MusicLibraryHelper.getTracks(selector, getContentResolver()));
     }
 
     public void enqueueTrack(TrackItem track) {
+        stopLibraryLoader();
 
         // Check if current song is old last one, if so set next song to MP for
         // gapless playback
         int oldSize = mCurrentList.size();
-        mCurrentList.add(track);
-        /*
-         * If currently playing and playing is the last one in old playlist set
-         * enqueued one to next one for gapless mediaplayback
-         */
-        if (mCurrentPlayingIndex == (oldSize - 1) && (mCurrentPlayingIndex >= 0)) {
-            // Next song for MP has to be set for gapless mediaplayback
+        synchronized (mPlaylistLock) {
+            mCurrentList.add(track);
+            mShuffleBag.insert(oldSize, 1);
+            playlistTracksInserted(oldSize, 1);
+        }
+        mPlaylistManager.journalInsertTrack(mCurrentList, oldSize);
+        tracksAppended(oldSize);
+    }
+
+    /*
+     * Sets the next track for gapless playback after tracks were appended to a
+     * playlist of oldSize tracks, if no next track was left before.
+     */
+    private void tracksAppended(int oldSize) {
+        if (mRandom == RANDOMSTATE.RANDOM_ON.ordinal()) {
+            // new tracks are in the shuffle bag, only needed if it was empty
+            if (mNextPlayingIndex < 0 && mCurrentPlayingIndex >= 0) {
+                randomizeNextTrack();
+                setNextTrackForMP();
+            }
+        } else if (mCurrentPlayingIndex == (oldSize - 1) && (mCurrentPlayingIndex >= 0)) {
+            /*
+             * If currently playing and playing is the last one in old playlist
+             * set enqueued one to next one for gapless mediaplayback
+             */
             mNextPlayingIndex = mCurrentPlayingIndex + 1;
             setNextTrackForMP();
         }
     }
 
     public void dequeueTrack(int index) {
+        stopLibraryLoader();
+
         // Check if track is currently playing, if so stop it
         if (mCurrentPlayingIndex == index) {
             // Stop playback of currentsong
             stop();
             // Delete song at index
-            mCurrentList.remove(index);
-            // Jump to next song which should be at index now
-            // Jump is safe about playlist length so no need for extra safety
-            jumpToIndex(index, true);
-        } else if ((mCurrentPlayingIndex + 1) == index) {
+            synchronized (mPlaylistLock) {
+                mCurrentList.remove(index);
+                mShuffleBag.remove(index);
+                playlistTracksRemoved(index, 1);
+            }
+            mPlaylistManager.journalRemoveTrack(index);
+            if (mRandom == RANDOMSTATE.RANDOM_ON.ordinal()) {
+                // continue with the next random song
+                randomizeNextTrack();
+                jumpToIndex(mNextPlayingIndex, true);
+            } else {
+                // Jump to next song which should be at index now
+                // Jump is safe about playlist length so no need for extra
+                // safety
+                jumpToIndex(index, true);
+            }
+        } else if (mRandom == RANDOMSTATE.RANDOM_OFF.ordinal() && (mCurrentPlayingIndex + 1) == index) {
             // Deletion of next song which requires extra handling
             // because of gapless playback, set next song to next on
-            mCurrentList.remove(index);
+            synchronized (mPlaylistLock) {
+                mCurrentList.remove(index);
+                mShuffleBag.remove(index);
+                playlistTracksRemoved(index, 1);
+            }
+            mPlaylistManager.journalRemoveTrack(index);
             setNextTrackForMP();
         } else if (index >= 0 && index < mCurrentList.size()) {
-            mCurrentList.remove(index);
+            synchronized (mPlaylistLock) {
+                mCurrentList.remove(index);
+                mShuffleBag.remove(index);
+                playlistTracksRemoved(index, 1);
+            }
+            mPlaylistManager.journalRemoveTrack(index);
             // mCurrentIndex is now moved one position up so set variable
             if (index < mCurrentPlayingIndex) {
                 mCurrentPlayingIndex--;
             }
+            if (mRandom == RANDOMSTATE.RANDOM_ON.ordinal()) {
+                // the shuffle bag moved or replaced the next random song
+                randomizeNextTrack();
+                setNextTrackForMP();
+            }
         }
         // Send new NowPlaying because playlist changed
         // sendUpdateBroadcast();
@@ -718,6 +1153,9 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
     public void stopService() {
         Log.v(TAG, "Stopping service");
 
+        // never save a half restored playlist
+        waitForPlaylist();
+
         // Cancel possible cancel timers ( yeah, very funny )
         cancelQuitAlert();
 
@@ -728,8 +1166,10 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             mPlayer.stop();
         }
         Log.v(TAG, "Stopping service and saving playlist with size: " + mCurrentList.size() + " and currentplaying: " + mCurrentPlayingIndex + " at position: " + mLastPosition);
-        // save currentlist to database
-        mPlaylistManager.savePlaylist(mCurrentList);
+        // playlist changes are journaled as they happen, only merge them
+        // into a new snapshot if the journal got too long
+        mHandler.removeCallbacks(mCompactRunner);
+        mPlaylistManager.compactPlaylist(mCurrentList);
 
         // Save position in settings table
         mPlaylistManager.saveCurrentPlayState(mLastPosition, mCurrentPlayingIndex, mRandom, mRepeat);
@@ -816,8 +1256,14 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
      * Returns current track if any is playing/paused at the moment.
      */
     public TrackItem getCurrentTrack() {
-        if (mCurrentPlayingIndex >= 0 && mCurrentList.size() > mCurrentPlayingIndex) {
-            return mCurrentList.get(mCurrentPlayingIndex);
+        int index = mCurrentPlayingIndex;
+        if (!mPlaylistLoaded && index >= 0 && index < mRestoredPlaylistSize) {
+            return getPlaylistTrack(index);
+        }
+        synchronized (mPlaylistLock) {
+            if (index >= 0 && mCurrentList.size() > index) {
+                return mCurrentList.get(index);
+            }
         }
         return null;
     }
@@ -826,7 +1272,16 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
      * Save the current playlist in mediastore
      */
     public void savePlaylist(String name) {
-        Thread savePlaylistThread = new Thread(new SavePlaylistRunner(name, getApplicationContext()));
+        waitForPlaylist();
+
+        // a newer save replaces a running one
+        if (mPlaylistWriter != null) {
+            mPlaylistWriter.cancel();
+        }
+
+        // the writer copies the playlist here on the handler thread
+        mPlaylistWriter = new PlaylistWriter(getContentResolver(), name, mCurrentList);
+        Thread savePlaylistThread = new Thread(new SavePlaylistRunner(mPlaylistWriter));
 
         savePlaylistThread.start();
     }
@@ -841,6 +1296,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
     private synchronized void updateStatus(boolean updateNotification, boolean updateLockScreen, boolean broadcastNewInfo) {
         Log.v(TAG, "updatestatus:" + mCurrentPlayingIndex);
+        updatePlaybackClock();
         // Check if playlist contains any tracks otherwise playback should not
         // be possible
         if (mCurrentList.size() > 0 && mCurrentPlayingIndex >= 0) {
@@ -854,7 +1310,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
                 if (updateNotification)
                     setNotification(trackItem, PLAYSTATE.PLAYING);
                 if (broadcastNewInfo)
-                    broadcastPlaybackInformation(trackItem, PLAYSTATE.PLAYING);
+                    scheduleBroadcast(trackItem, PLAYSTATE.PLAYING);
             } else if (mPlayer.isPaused() && (mCurrentPlayingIndex >= 0)) {
                 TrackItem trackItem = mCurrentList.get(mCurrentPlayingIndex);
                 if (updateLockScreen)
@@ -862,7 +1318,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
                 if (updateNotification)
                     setNotification(trackItem, PLAYSTATE.PAUSE);
                 if (broadcastNewInfo)
-                    broadcastPlaybackInformation(trackItem, PLAYSTATE.PAUSE);
+                    scheduleBroadcast(trackItem, PLAYSTATE.PAUSE);
             } else {
                 // Remove notification if shown
                 if (updateNotification)
@@ -870,7 +1326,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
                 if (updateLockScreen)
                     setLockscreenPicture(null, PLAYSTATE.STOPPED);
                 if (broadcastNewInfo)
-                    broadcastPlaybackInformation(null, PLAYSTATE.STOPPED);
+                    scheduleBroadcast(null, PLAYSTATE.STOPPED);
             }
         } else {
             // No playback, check if notification is set and remove it then
@@ -880,11 +1336,49 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
                 setLockscreenPicture(null, PLAYSTATE.STOPPED);
             // Notify all listeners with broadcast about playing situation
             if (broadcastNewInfo)
-                broadcastPlaybackInformation(null, PLAYSTATE.STOPPED);
+                scheduleBroadcast(null, PLAYSTATE.STOPPED);
         }
 
+        if (broadcastNewInfo) {
+            mEvents.trackChanged(mCurrentPlayingIndex, getCurrentTrack());
+            mEvents.playStateChanged(mPlaybackClock, mRepeat, mRandom);
+        }
+    }
+
+    /*
+     * Sends MESSAGE_NEWTRACKINFORMATION for the widget and external apps.
+     * The app itself uses the IOdysseyPlaybackListener events, so the
+     * broadcast is sent at most once per BROADCAST_INTERVAL with the latest
+     * state. Must be called with the service locked.
+     */
+    private void scheduleBroadcast(TrackItem track, PLAYSTATE state) {
+        mBroadcastTrack = track;
+        mBroadcastState = state;
+        if (mBroadcastPending) {
+            return;
+        }
+        long delay = mLastBroadcastTime + BROADCAST_INTERVAL - SystemClock.uptimeMillis();
+        if (delay <= 0) {
+            sendPendingBroadcast();
+        } else {
+            mBroadcastPending = true;
+            mHandler.postDelayed(mBroadcastRunner, delay);
+        }
+    }
+
+    private synchronized void sendPendingBroadcast() {
+        mBroadcastPending = false;
+        mLastBroadcastTime = SystemClock.uptimeMillis();
+        broadcastPlaybackInformation(mBroadcastTrack, mBroadcastState);
     }
 
+    private final Runnable mBroadcastRunner = new Runnable() {
+        @Override
+        public void run() {
+            sendPendingBroadcast();
+        }
+    };
+
     /* Removes the Foreground notification */
     private void clearNotification() {
         if (mNotification != null) {
@@ -1022,7 +1516,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             // TODO check if extra list is neccessary
             // Add currentTrack to parcel
             ArrayList<Parcelable> extraTrackItemList = new ArrayList<Parcelable>();
-            extraTrackItemList.add(mCurrentList.get(mCurrentPlayingIndex));
+            extraTrackItemList.add(track);
 
             // Create NowPlayingInfo for parcel
             int playing = (state == PLAYSTATE.PLAYING ? 1 : 0);
@@ -1031,7 +1525,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             int repeat = mRepeat;
             int random = mRandom;
             int playlistlength = mCurrentList.size();
-            NowPlayingInformation info = new NowPlayingInformation(playing, playingURL, playingIndex, repeat, random, playlistlength);
+            NowPlayingInformation info = new NowPlayingInformation(playing, playingURL, playingIndex, repeat, random, playlistlength, mPlaylistVersion);
 
             // Add nowplayingInfo to parcel
             ArrayList<Parcelable> extraNPList = new ArrayList<Parcelable>();
@@ -1040,6 +1534,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             // Add this stuff to the parcel
             broadcastIntent.putParcelableArrayListExtra(INTENT_TRACKITEMNAME, extraTrackItemList);
             broadcastIntent.putParcelableArrayListExtra(INTENT_NOWPLAYINGNAME, extraNPList);
+            broadcastIntent.putExtra(INTENT_PLAYBACKCLOCK, mPlaybackClock);
 
             // We're good to go, send it away
             sendBroadcast(broadcastIntent);
@@ -1052,7 +1547,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             ArrayList<Parcelable> extraTrackItemList = new ArrayList<Parcelable>();
             extraTrackItemList.add(new TrackItem());
 
-            NowPlayingInformation info = new NowPlayingInformation(0, "", -1, mRepeat, mRandom, mCurrentList.size());
+            NowPlayingInformation info = new NowPlayingInformation(0, "", -1, mRepeat, mRandom, mCurrentList.size(), mPlaylistVersion);
             // Add nowplayingInfo to parcel
             ArrayList<Parcelable> extraNPList = new ArrayList<Parcelable>();
             extraNPList.add(info);
@@ -1060,6 +1555,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             // Add this stuff to the parcel
             broadcastIntent.putParcelableArrayListExtra(INTENT_TRACKITEMNAME, extraTrackItemList);
             broadcastIntent.putParcelableArrayListExtra(INTENT_NOWPLAYINGNAME, extraNPList);
+            broadcastIntent.putExtra(INTENT_PLAYBACKCLOCK, mPlaybackClock);
 
             // We're good to go, send it away
             sendBroadcast(broadcastIntent);
@@ -1103,72 +1599,77 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         public void play(TrackItem track) throws RemoteException {
             // Create play control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAY, track);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void pause() throws RemoteException {
             // Create pause control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PAUSE);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void stop() throws RemoteException {
             // Create stop control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_STOP);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void setNextTrack(String uri) throws RemoteException {
             // Create nexttrack control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_SETNEXTRACK, uri);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void enqueueTracks(List<TrackItem> tracks) throws RemoteException {
             // Create enqueuetracks control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACKS, (ArrayList<TrackItem>) tracks);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
+        }
+
+        @Override
+        public void enqueueTrackIds(long[] ids) throws RemoteException {
+            // Create enqueuetrackids control object
+            ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACKIDS, ids);
+            mService.get().getHandler().queueCommand(obj);
+        }
+
+        @Override
+        public void enqueueTrackIdAsNext(long id) throws RemoteException {
+            // Create playnextid control object
+            ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYNEXTID, new long[] { id });
+            mService.get().getHandler().queueCommand(obj);
+        }
+
+        @Override
+        public void enqueueSelection(TrackSelector selector) throws RemoteException {
+            // Create enqueueselection control object
+            ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUESELECTION, selector);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void enqueueTrack(TrackItem track) throws RemoteException {
             // Create enqueuetrack control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACK, track);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void dequeueTrack(TrackItem track) throws RemoteException {
             // Create dequeuetrack control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUETRACK, track);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void dequeueTracks(List<TrackItem> tracks) throws RemoteException {
             // Create dequeuetracks control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUETRACKS, (ArrayList<TrackItem>) tracks);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
@@ -1183,18 +1684,14 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         public void setRandom(int random) throws RemoteException {
             // Create random control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_RANDOM, random);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void setRepeat(int repeat) throws RemoteException {
             // Create repeat control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_REPEAT, repeat);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
@@ -1236,57 +1733,43 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         @Override
         public void seekTo(int position) throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_SEEKTO, position);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void jumpTo(int position) throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_JUMPTO, position);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void clearPlaylist() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_CLEARPLAYLIST);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void resume() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_RESUME);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void next() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_NEXT);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void previous() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PREVIOUS);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void togglePause() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_TOGGLEPAUSE);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
@@ -1299,6 +1782,21 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             return mService.get().getTrackDuration();
         }
 
+        @Override
+        public PlaybackClock getPlaybackClock() throws RemoteException {
+            return mService.get().getPlaybackClock();
+        }
+
+        @Override
+        public void registerListener(IOdysseyPlaybackListener listener) throws RemoteException {
+            mService.get().registerListener(listener);
+        }
+
+        @Override
+        public void unregisterListener(IOdysseyPlaybackListener listener) throws RemoteException {
+            mService.get().unregisterListener(listener);
+        }
+
         @Override
         public int getRandom() throws RemoteException {
             return mService.get().getRandom();
@@ -1317,9 +1815,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         @Override
         public void dequeueTrackIndex(int index) throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUEINDEX, index);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
@@ -1327,42 +1823,55 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             return mService.get().getPlaylistTrack(index);
         }
 
+        @Override
+        public Bundle getCommandStatistics() throws RemoteException {
+            return mService.get().getHandler().getStatistics();
+        }
+
         @Override
         public int getPlaylistSize() throws RemoteException {
             return mService.get().getPlaylistSize();
         }
 
+        @Override
+        public int getPlaylistVersion() throws RemoteException {
+            return mService.get().getPlaylistVersion();
+        }
+
+        @Override
+        public int getPlaylistWindow(int start, int count, List<TrackItem> tracks) throws RemoteException {
+            return mService.get().getPlaylistWindow(start, count, tracks);
+        }
+
         @Override
         public void enqueueTrackAsNext(TrackItem track) throws RemoteException {
             // Create nexttrack control object
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYNEXT, track);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void shufflePlaylist() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_SHUFFLEPLAYLIST);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
+        }
+
+        @Override
+        public void unshufflePlaylist() throws RemoteException {
+            ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_UNSHUFFLEPLAYLIST);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void playAllTracksShuffled() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYALLTRACKSSHUFFLED);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
         public void playAllTracks() throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYALLTRACKS);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
 
         @Override
@@ -1378,28 +1887,16 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         @Override
         public void savePlaylist(String name) throws RemoteException {
             ControlObject obj = new ControlObject(ControlObject.PLAYBACK_ACTION.ODYSSEY_SAVEPLAYLIST, name);
-            Message msg = mService.get().getHandler().obtainMessage();
-            msg.obj = obj;
-            mService.get().getHandler().sendMessage(msg);
+            mService.get().getHandler().queueCommand(obj);
         }
     }
 
     /*
-     * Sets the index of the track to play next to a random generated one.
+     * Sets the next index to a random track that was not played yet in this
+     * round, -1 if all were played and repeat is off.
      */
     private void randomizeNextTrack() {
-        // Set next index to random one
-        if (mCurrentList.size() > 0) {
-            mNextPlayingIndex = mRandomGenerator.nextInt(mCurrentList.size());
-
-            // if next index equal to current index create a new random
-            // index but just trying 20 times
-            int counter = 0;
-            while (mNextPlayingIndex == mCurrentPlayingIndex && counter > 20) {
-                mCurrentPlayingIndex = mRandomGenerator.nextInt(mCurrentList.size());
-                counter++;
-            }
-        }
+        mNextPlayingIndex = mShuffleBag.getNext(mRepeat == REPEATSTATE.REPEAT_ALL.ordinal());
     }
 
     /*
@@ -1440,8 +1937,20 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
      */
     private class PlaybackStartListener implements GaplessPlayer.OnTrackStartedListener {
         @Override
-        public void onTrackStarted(String URI) {
+        public void onTrackStarted(final String URI) {
+            // called on the thread of the mediaplayer, the playlist state
+            // including the shuffle bag belongs to the handler thread
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    trackStarted(URI);
+                }
+            });
+        }
+
+        private void trackStarted(String URI) {
             mCurrentPlayingIndex = mNextPlayingIndex;
+            mShuffleBag.setCurrent(mCurrentPlayingIndex);
             Log.v(TAG, "track started: " + URI + " PL index: " + mCurrentPlayingIndex);
 
             if (mCurrentPlayingIndex >= 0 && mCurrentPlayingIndex < mCurrentList.size()) {
@@ -1502,6 +2011,17 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
 
         @Override
         public void onTrackFinished() {
+            // on the handler thread like the start of the track, so both are
+            // handled in order
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    trackFinished();
+                }
+            });
+        }
+
+        private void trackFinished() {
             Log.v(TAG, "Playback of index: " + mCurrentPlayingIndex + " finished ");
             // Remember the last track index for moving backwards in the queue.
             mLastPlayingIndex = mCurrentPlayingIndex;
@@ -1589,26 +2109,35 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
             Log.v(TAG, "Broadcast received: " + intent.getAction());
             if (intent.getAction().equals(android.media.AudioManager.ACTION_AUDIO_BECOMING_NOISY)) {
                 Log.v(TAG, "NOISY AUDIO! CANCEL MUSIC");
-                pause();
-            } else if (intent.getAction().equals(ACTION_PLAY)) {
-                resume();
-            } else if (intent.getAction().equals(ACTION_PAUSE)) {
-                pause();
-            } else if (intent.getAction().equals(ACTION_NEXT)) {
-                setNextTrack();
-            } else if (intent.getAction().equals(ACTION_PREVIOUS)) {
-                setPreviousTrack();
-            } else if (intent.getAction().equals(ACTION_STOP)) {
-                stop();
-            } else if (intent.getAction().equals(ACTION_TOGGLEPAUSE)) {
-                togglePause();
-            } else if (intent.getAction().equals(ACTION_QUIT)) {
-                stopService();
+                queueAction(ACTION_PAUSE);
+            } else {
+                queueAction(intent.getAction());
             }
         }
 
     };
 
+    /*
+     * Restores the saved playlist. Posted to the front of the handler queue so
+     * every command that changes the playlist sees the complete one.
+     */
+    private class PlaylistLoader implements Runnable {
+
+        @Override
+        public void run() {
+            Log.v(TAG, "Restoring playlist with size: " + mRestoredPlaylistSize);
+            PlaylistQueue playlist = mPlaylistManager.readPlaylist();
+            synchronized (mPlaylistLock) {
+                mCurrentList = playlist;
+                mShuffleBag.reset(mCurrentList.size(), mCurrentPlayingIndex);
+                playlistChanged();
+            }
+            mPlaylistLoaded = true;
+            mPlaylistLoadedLatch.countDown();
+            Log.v(TAG, "Playlist restored");
+        }
+    }
+
     /*
      * Stops the service after a specific amount of time
      */
@@ -1617,7 +2146,7 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
         @Override
         public void run() {
             Log.v(TAG, "Cancel odyssey playbackservice");
-            stopService();
+            queueAction(ACTION_QUIT);
         }
     }
 
@@ -1670,7 +2199,10 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
                 editor.putString(MediaMetadataRetriever.METADATA_KEY_ARTIST, track.getTrackArtist());
                 editor.putString(MediaMetadataRetriever.METADATA_KEY_ALBUMARTIST, track.getTrackArtist());
                 editor.putString(MediaMetadataRetriever.METADATA_KEY_TITLE, track.getTrackTitle());
-                editor.putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK, bm.getBitmap());
+                // RemoteControlClient recycles the artwork it replaces, so it
+                // gets a copy instead of the cached cover
+                Bitmap artwork = bm.getBitmap();
+                editor.putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK, artwork.copy(artwork.getConfig() != null ? artwork.getConfig() : Bitmap.Config.ARGB_8888, false));
 
                 // Apply values here
                 editor.apply();
@@ -1680,62 +2212,176 @@ public class PlaybackService extends Service implements AudioManager.OnAudioFocu
     }
 
     /*
-     * Save playlist async
+     * Reads all tracks of the library in a background thread and hands them
+     * to the handler thread in batches. The first batch only contains the
+     * first track so playback starts right away. For shuffled playback a
+     * random track is read first and the remaining ones are shuffled here
+     * instead of on the handler thread.
      */
-    private class SavePlaylistRunner implements Runnable {
+    private class LibraryLoader implements Runnable {
+
+        private int mGeneration;
+        private boolean mShuffled;
 
-        private String mPlaylistName;
-        private Context mContext;
+        private MusicLibraryHelper.TrackCursorReader mReader;
 
-        public SavePlaylistRunner(String name, Context context) {
-            mPlaylistName = name;
-            mContext = context;
+        public LibraryLoader(int generation, boolean shuffled) {
+            mGeneration = generation;
+            mShuffled = shuffled;
         }
 
         @Override
         public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-            // remove playlist if exists
-            mContext.getContentResolver().delete(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, MediaStore.Audio.Playlists.NAME + "=?", new String[] { mPlaylistName });
+            Cursor cursor = getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, MusicLibraryHelper.projectionTracks, "", null,
+                    MusicLibraryHelper.getAllTracksSortOrder(TrackSelector.ORDER_TITLE));
+            if (cursor == null) {
+                return;
+            }
 
-            // create new playlist and save row
-            ContentValues mInserts = new ContentValues();
-            mInserts.put(MediaStore.Audio.Playlists.NAME, mPlaylistName);
-            mInserts.put(MediaStore.Audio.Playlists.DATE_ADDED, System.currentTimeMillis());
-            mInserts.put(MediaStore.Audio.Playlists.DATE_MODIFIED, System.currentTimeMillis());
+            mReader = MusicLibraryHelper.TrackCursorReader.forTracks(cursor);
 
-            Uri currentRow = mContext.getContentResolver().insert(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, mInserts);
+            if (mShuffled) {
+                loadShuffled(cursor);
+            } else {
+                load(cursor);
+            }
 
-            // insert current tracks
+            cursor.close();
+        }
 
-            // TODO optimize
-            String[] projection = { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATA };
-            String where = MediaStore.Audio.Media.DATA + "=?";
+        private void load(Cursor cursor) {
+            ArrayList<TrackItem> batch = new ArrayList<TrackItem>();
+            boolean first = true;
 
-            TrackItem item = null;
+            while (cursor.moveToNext()) {
+                batch.add(mReader.getTrackItem());
 
-            for (int i = 0; i < mCurrentList.size(); i++) {
+                if (first || batch.size() == LIBRARY_LOADER_BATCH_SIZE) {
+                    if (!postBatch(batch, first)) {
+                        return;
+                    }
+                    batch = new ArrayList<TrackItem>(LIBRARY_LOADER_BATCH_SIZE);
+                    first = false;
+                }
+            }
 
-                item = mCurrentList.get(i);
+            if (!batch.isEmpty()) {
+                postBatch(batch, false);
+            }
+        }
 
-                if (item != null) {
-                    String[] whereVal = { item.getTrackURL() };
+        private void loadShuffled(Cursor cursor) {
+            int count = cursor.getCount();
+            if (count == 0) {
+                return;
+            }
 
-                    // get ID of current track
-                    Cursor c = mContext.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projection, where, whereVal, null);
+            // start playback with a random track
+            int firstPosition = mRandomGenerator.nextInt(count);
+            cursor.moveToPosition(firstPosition);
+            ArrayList<TrackItem> batch = new ArrayList<TrackItem>(1);
+            batch.add(mReader.getTrackItem());
+            if (!postBatch(batch, true)) {
+                return;
+            }
 
-                    if (c.moveToFirst()) {
-                        // insert track into playlist
-                        String id = c.getString(c.getColumnIndex(MediaStore.Audio.Media._ID));
+            // read and shuffle the remaining tracks
+            ArrayList<TrackItem> tracks = new ArrayList<TrackItem>(count - 1);
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                if (cursor.getPosition() != firstPosition) {
+                    tracks.add(mReader.getTrackItem());
+                }
+                if (cursor.getPosition() % LIBRARY_LOADER_BATCH_SIZE == 0 && mGeneration != mLibraryLoaderGeneration) {
+                    return;
+                }
+            }
+            Collections.shuffle(tracks, mRandomGenerator);
+
+            for (int start = 0; start < tracks.size(); start += LIBRARY_LOADER_BATCH_SIZE) {
+                int end = Math.min(start + LIBRARY_LOADER_BATCH_SIZE, tracks.size());
+                if (!postBatch(new ArrayList<TrackItem>(tracks.subList(start, end)), false)) {
+                    return;
+                }
+            }
+        }
+
+        /*
+         * Returns false if the loader should stop because it was cancelled or
+         * the handler thread is gone.
+         */
+        private boolean postBatch(ArrayList<TrackItem> batch, boolean startPlayback) {
+            if (mGeneration != mLibraryLoaderGeneration) {
+                return false;
+            }
+            return mHandler.post(new LibraryBatchAppender(mGeneration, batch, startPlayback));
+        }
+    }
 
-                        mInserts.clear();
-                        mInserts.put(MediaStore.Audio.Playlists.Members.AUDIO_ID, id);
-                        mInserts.put(MediaStore.Audio.Playlists.Members.PLAY_ORDER, i);
+    /*
+     * Appends one batch of the LibraryLoader to the playlist, runs on the
+     * handler thread.
+     */
+    private class LibraryBatchAppender implements Runnable {
 
-                        mContext.getContentResolver().insert(currentRow, mInserts);
+        private int mGeneration;
+        private ArrayList<TrackItem> mTracks;
+        private boolean mStartPlayback;
+
+        public LibraryBatchAppender(int generation, ArrayList<TrackItem> tracks, boolean startPlayback) {
+            mGeneration = generation;
+            mTracks = tracks;
+            mStartPlayback = startPlayback;
+        }
+
+        @Override
+        public void run() {
+            // playlist was cleared or replaced in the meantime
+            if (mGeneration != mLibraryLoaderGeneration) {
+                return;
+            }
+
+            appendTracks(mTracks);
+
+            if (mStartPlayback) {
+                jumpToIndex(0, true);
+            }
+        }
+    }
+
+    /*
+     * Save playlist async
+     */
+    private class SavePlaylistRunner implements Runnable {
+
+        private PlaylistWriter mWriter;
+
+        public SavePlaylistRunner(PlaylistWriter writer) {
+            mWriter = writer;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            mWriter.write(new PlaylistWriter.ProgressListener() {
+                @Override
+                public void onProgress(int written, int total) {
+                    Log.v(TAG, "Saving playlist: " + written + " of " + total + " tracks written");
+                }
+            });
+
+            // forget the writer unless a newer save replaced it already
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPlaylistWriter == mWriter) {
+                        mPlaylistWriter = null;
                     }
                 }
-            }
+            });
         }
     }
 }
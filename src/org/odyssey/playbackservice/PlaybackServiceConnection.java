@@ -1,72 +1,191 @@
 package org.odyssey.playbackservice;
 
-import android.content.ComponentName;
+import java.util.ArrayList;
+
 import android.content.Context;
-import android.content.Intent;
-import android.content.ServiceConnection;
-import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
 
-public class PlaybackServiceConnection implements ServiceConnection {
+/**
+ * Connection of one client (fragment, view, ...) to the PlaybackService. All
+ * connections of the process share one binding, see SharedServiceConnection.
+ * openConnection() and closeConnection() must be called from the UI thread.
+ *
+ * getPBS() throws a RemoteException as long as there is no connection. The
+ * command helpers of this class (enqueueing, clearPlaylist(), jumpTo(),
+ * registerListener()) are queued until the service is connected and sent in
+ * order then, or dropped if the connection is closed before.
+ */
+public class PlaybackServiceConnection {
 
     private static final String TAG = "OdysseyServiceConnection";
-    private IOdysseyPlaybackService mPlaybackService;
 
     private Context mContext;
     private ConnectionNotifier mNotifier;
+    private volatile boolean mOpen = false;
+
+    // Commands waiting for the connection, guarded by this
+    private ArrayList<ServiceCommand> mPendingCommands = new ArrayList<ServiceCommand>();
 
     public PlaybackServiceConnection(Context context) {
         mContext = context;
-        mPlaybackService = null;
     }
 
-    @Override
-    public void onServiceConnected(ComponentName name, IBinder service) {
-        Log.v(TAG, "Service connection created");
-        mPlaybackService = IOdysseyPlaybackService.Stub.asInterface(service);
-        if (mPlaybackService != null) {
-            Log.v(TAG, "Got interface");
-        } else {
-            Log.v(TAG, "No interface -_-");
+    public void openConnection() {
+        if (mOpen) {
+            return;
         }
-        if (mNotifier != null) {
-            mNotifier.onConnect();
+        mOpen = true;
+        SharedServiceConnection.getInstance(mContext).acquire(this);
+    }
+
+    public void closeConnection() {
+        if (!mOpen) {
+            return;
         }
+        mOpen = false;
+        synchronized (this) {
+            mPendingCommands.clear();
+        }
+        SharedServiceConnection.getInstance(mContext).release(this);
     }
 
-    @Override
-    public void onServiceDisconnected(ComponentName name) {
-        Log.v(TAG, "Service disconnected");
-        mPlaybackService = null;
-        if (mNotifier != null) {
-            mNotifier.onDisconnect();
+    public IOdysseyPlaybackService getPBS() throws RemoteException {
+        IOdysseyPlaybackService service = SharedServiceConnection.getInstance(mContext).getService();
+        if (service != null) {
+            return service;
+        } else {
+            throw new RemoteException();
         }
-        openConnection();
     }
 
-    public void openConnection() {
-        Intent serviceStartIntent = new Intent(mContext, PlaybackService.class);
-        mContext.bindService(serviceStartIntent, this, Context.BIND_AUTO_CREATE);
+    /**
+     * Enqueues the track by its MediaStore id, only tracks that are not in the
+     * MediaStore are sent with their metadata.
+     */
+    public void enqueueTrack(final TrackItem track) throws RemoteException {
+        sendCommand(new ServiceCommand() {
+            @Override
+            public void send(IOdysseyPlaybackService service) throws RemoteException {
+                if (track.getTrackId() >= 0) {
+                    service.enqueueTrackIds(new long[] { track.getTrackId() });
+                } else {
+                    service.enqueueTrack(track);
+                }
+            }
+        });
     }
 
-    public void closeConnection() {
-        mContext.unbindService(this);
+    /**
+     * Like enqueueTrack(), the track is played after the current one
+     */
+    public void enqueueTrackAsNext(final TrackItem track) throws RemoteException {
+        sendCommand(new ServiceCommand() {
+            @Override
+            public void send(IOdysseyPlaybackService service) throws RemoteException {
+                if (track.getTrackId() >= 0) {
+                    service.enqueueTrackIdAsNext(track.getTrackId());
+                } else {
+                    service.enqueueTrackAsNext(track);
+                }
+            }
+        });
     }
 
-    public synchronized IOdysseyPlaybackService getPBS() throws RemoteException {
-        if (mPlaybackService != null) {
-            return mPlaybackService;
-        } else {
-            throw new RemoteException();
-        }
+    /**
+     * Enqueues all tracks of the selection, the service reads them itself
+     */
+    public void enqueueSelection(final TrackSelector selector) throws RemoteException {
+        sendCommand(new ServiceCommand() {
+            @Override
+            public void send(IOdysseyPlaybackService service) throws RemoteException {
+                service.enqueueSelection(selector);
+            }
+        });
+    }
+
+    public void clearPlaylist() throws RemoteException {
+        sendCommand(new ServiceCommand() {
+            @Override
+            public void send(IOdysseyPlaybackService service) throws RemoteException {
+                service.clearPlaylist();
+            }
+        });
+    }
+
+    public void jumpTo(final int position) throws RemoteException {
+        sendCommand(new ServiceCommand() {
+            @Override
+            public void send(IOdysseyPlaybackService service) throws RemoteException {
+                service.jumpTo(position);
+            }
+        });
+    }
 
+    public void registerListener(final IOdysseyPlaybackListener listener) throws RemoteException {
+        sendCommand(new ServiceCommand() {
+            @Override
+            public void send(IOdysseyPlaybackService service) throws RemoteException {
+                service.registerListener(listener);
+            }
+        });
     }
 
     public void setNotifier(ConnectionNotifier notifier) {
         mNotifier = notifier;
     }
 
+    /*
+     * Sends the command right away if the service is connected, queues it
+     * while the connection is open but not connected yet.
+     */
+    private void sendCommand(ServiceCommand command) throws RemoteException {
+        IOdysseyPlaybackService service = SharedServiceConnection.getInstance(mContext).getService();
+        if (service == null) {
+            synchronized (this) {
+                if (!mOpen) {
+                    throw new RemoteException();
+                }
+                service = SharedServiceConnection.getInstance(mContext).getService();
+                if (service == null) {
+                    Log.v(TAG, "Queueing command until the service is connected");
+                    mPendingCommands.add(command);
+                    return;
+                }
+            }
+        }
+        command.send(service);
+    }
+
+    void onServiceConnected(IOdysseyPlaybackService service) {
+        ArrayList<ServiceCommand> pendingCommands;
+        synchronized (this) {
+            pendingCommands = mPendingCommands;
+            mPendingCommands = new ArrayList<ServiceCommand>();
+        }
+        for (ServiceCommand command : pendingCommands) {
+            try {
+                command.send(service);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Could not send queued command: " + e);
+            }
+        }
+
+        if (mNotifier != null) {
+            mNotifier.onConnect();
+        }
+    }
+
+    void onServiceDisconnected() {
+        if (mNotifier != null) {
+            mNotifier.onDisconnect();
+        }
+    }
+
+    private interface ServiceCommand {
+        void send(IOdysseyPlaybackService service) throws RemoteException;
+    }
+
     public interface ConnectionNotifier {
         public void onConnect();
 
@@ -1,92 +1,244 @@
 package org.odyssey.playbackservice;
 
 import java.lang.ref.WeakReference;
-import java.util.concurrent.Semaphore;
+import java.util.ArrayDeque;
 
-import android.content.MutableContextWrapper;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
+/**
+ * Executes the control commands of the PlaybackService one after another on
+ * the handler thread. Commands are never dropped, they wait in mCommands
+ * until the previous one finished. Redundant commands waiting in the queue
+ * are merged (see coalesce()).
+ */
 public class PlaybackServiceHandler extends Handler {
     private static final String TAG = "OdysseyPlaybackServiceHandler";
 
+    // Keys of the command statistics bundle
+    public static final String STATS_QUEUE_DEPTH = "queue_depth";
+    public static final String STATS_MAX_QUEUE_DEPTH = "max_queue_depth";
+    public static final String STATS_EXECUTED = "executed";
+    public static final String STATS_COALESCED = "coalesced";
+    public static final String STATS_AVERAGE_WAIT = "average_wait_ms";
+    public static final String STATS_MAX_WAIT = "max_wait_ms";
+    public static final String STATS_AVERAGE_EXECUTION = "average_execution_ms";
+    public static final String STATS_MAX_EXECUTION = "max_execution_ms";
+
+    private static final int MSG_PROCESS_COMMANDS = 1;
+
+    // Commands executed per message, the rest waits behind the runnables that
+    // were posted to the handler thread in the meantime
+    private static final int MAX_COMMANDS_PER_MESSAGE = 8;
+
     private final WeakReference<PlaybackService> mService;
 
-    private Semaphore mLock;
+    // Pending commands, guarded by itself
+    private final ArrayDeque<ControlObject> mCommands = new ArrayDeque<ControlObject>();
+
+    // Statistics, guarded by mCommands
+    private int mMaxQueueDepth = 0;
+    private long mExecutedCommands = 0;
+    private long mCoalescedCommands = 0;
+    private long mTotalWaitTime = 0;
+    private long mMaxWaitTime = 0;
+    private long mTotalExecutionTime = 0;
+    private long mMaxExecutionTime = 0;
 
     public PlaybackServiceHandler(Looper looper, PlaybackService service) {
         super(looper);
         Log.v(TAG, "Handler created");
         mService = new WeakReference<PlaybackService>(service);
         Log.v(TAG, "MyPid: " + android.os.Process.myPid() + " MyTid: " + android.os.Process.myTid());
-        mLock = new Semaphore(1);
+    }
+
+    /**
+     * Adds the command to the queue. Can be called from any thread.
+     */
+    public void queueCommand(ControlObject command) {
+        command.setQueueTime(SystemClock.uptimeMillis());
+
+        synchronized (mCommands) {
+            if (!coalesce(command)) {
+                mCommands.addLast(command);
+            }
+            if (mCommands.size() > mMaxQueueDepth) {
+                mMaxQueueDepth = mCommands.size();
+            }
+        }
+
+        // one message is enough, it processes the queue and sends itself
+        // again if commands are left
+        if (!hasMessages(MSG_PROCESS_COMMANDS)) {
+            sendEmptyMessage(MSG_PROCESS_COMMANDS);
+        }
+    }
+
+    /*
+     * Tries to merge the command into the last waiting one. Only the last one
+     * is checked so the order of different commands is kept.
+     */
+    private boolean coalesce(ControlObject command) {
+        ControlObject last = mCommands.peekLast();
+        if (last == null || last.getAction() != command.getAction()) {
+            return false;
+        }
+
+        switch (command.getAction()) {
+        case ODYSSEY_SEEKTO:
+        case ODYSSEY_JUMPTO:
+            // only the last position matters
+            last.setIntParam(command.getIntParam());
+            break;
+        case ODYSSEY_NEXT:
+            // skip several tracks at once
+            last.setIntParam(Math.max(1, last.getIntParam()) + Math.max(1, command.getIntParam()));
+            break;
+        default:
+            return false;
+        }
+
+        mCoalescedCommands++;
+        return true;
+    }
+
+    public int getQueueDepth() {
+        synchronized (mCommands) {
+            return mCommands.size();
+        }
+    }
+
+    public Bundle getStatistics() {
+        Bundle stats = new Bundle();
+        synchronized (mCommands) {
+            stats.putInt(STATS_QUEUE_DEPTH, mCommands.size());
+            stats.putInt(STATS_MAX_QUEUE_DEPTH, mMaxQueueDepth);
+            stats.putLong(STATS_EXECUTED, mExecutedCommands);
+            stats.putLong(STATS_COALESCED, mCoalescedCommands);
+            stats.putLong(STATS_AVERAGE_WAIT, mExecutedCommands > 0 ? mTotalWaitTime / mExecutedCommands : 0);
+            stats.putLong(STATS_MAX_WAIT, mMaxWaitTime);
+            stats.putLong(STATS_AVERAGE_EXECUTION, mExecutedCommands > 0 ? mTotalExecutionTime / mExecutedCommands : 0);
+            stats.putLong(STATS_MAX_EXECUTION, mMaxExecutionTime);
+        }
+        return stats;
     }
 
     @Override
     public void handleMessage(Message msg) {
-        Log.v(TAG, "handleMessage:" + msg);
-        Log.v(TAG, "MyPid: " + android.os.Process.myPid() + " MyTid: " + android.os.Process.myTid());
         super.handleMessage(msg);
 
-        ControlObject msgObj = (ControlObject) msg.obj;
-
-        // Check if object is received
-        if (msgObj != null && mLock.tryAcquire()) {
-            Log.v(TAG, "Start control command");
-            // Parse message
-            if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAY) {
-                mService.get().playURI(msgObj.getTrack());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_STOP) {
-                mService.get().stop();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PAUSE) {
-
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_TOGGLEPAUSE) {
-                mService.get().togglePause();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_RESUME) {
-                mService.get().resume();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_NEXT) {
-                mService.get().setNextTrack();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PREVIOUS) {
-                mService.get().setPreviousTrack();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_RANDOM) {
-                mService.get().setRandom(msgObj.getIntParam());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_REPEAT) {
-                mService.get().setRepeat(msgObj.getIntParam());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SEEKTO) {
-                mService.get().seekTo(msgObj.getIntParam());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_JUMPTO) {
-                mService.get().jumpToIndex(msgObj.getIntParam(), true);
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUETRACK) {
-
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUEINDEX) {
-                mService.get().dequeueTrack(msgObj.getIntParam());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUETRACKS) {
-
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACK) {
-                mService.get().enqueueTrack(msgObj.getTrack());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYNEXT) {
-                mService.get().enqueueAsNextTrack(msgObj.getTrack());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACKS) {
-                mService.get().enqueueTracks(msgObj.getTrackList());
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SETNEXTRACK) {
-
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_CLEARPLAYLIST) {
-                mService.get().clearPlaylist();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SHUFFLEPLAYLIST) {
-                mService.get().shufflePlaylist();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYALLTRACKS) {
-                mService.get().playAllTracks();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYALLTRACKSSHUFFLED) {
-                mService.get().playAllTracksShuffled();
-            } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SAVEPLAYLIST) {
-                mService.get().savePlaylist(msgObj.getStringParam());
+        if (msg.what != MSG_PROCESS_COMMANDS) {
+            return;
+        }
+
+        for (int i = 0; i < MAX_COMMANDS_PER_MESSAGE; i++) {
+            ControlObject msgObj;
+            synchronized (mCommands) {
+                msgObj = mCommands.pollFirst();
+            }
+            if (msgObj == null) {
+                return;
+            }
+
+            long startTime = SystemClock.uptimeMillis();
+            executeCommand(msgObj);
+            long endTime = SystemClock.uptimeMillis();
+
+            long waitTime = startTime - msgObj.getQueueTime();
+            long executionTime = endTime - startTime;
+            Log.v(TAG, "Command " + msgObj.getAction() + " waited " + waitTime + " ms, took " + executionTime + " ms");
+
+            synchronized (mCommands) {
+                mExecutedCommands++;
+                mTotalWaitTime += waitTime;
+                mTotalExecutionTime += executionTime;
+                if (waitTime > mMaxWaitTime) {
+                    mMaxWaitTime = waitTime;
+                }
+                if (executionTime > mMaxExecutionTime) {
+                    mMaxExecutionTime = executionTime;
+                }
             }
-            mLock.release();
-            Log.v(TAG, "End control command");
         }
 
+        // continue after the runnables queued behind this message
+        synchronized (mCommands) {
+            if (!mCommands.isEmpty() && !hasMessages(MSG_PROCESS_COMMANDS)) {
+                sendEmptyMessage(MSG_PROCESS_COMMANDS);
+            }
+        }
+    }
+
+    private void executeCommand(ControlObject msgObj) {
+        PlaybackService service = mService.get();
+        if (service == null) {
+            return;
+        }
+
+        Log.v(TAG, "Start control command");
+        // Parse message
+        if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAY) {
+            service.playURI(msgObj.getTrack());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_STOP) {
+            service.stop();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PAUSE) {
+            service.pause();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_TOGGLEPAUSE) {
+            service.togglePause();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_RESUME) {
+            service.resume();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_NEXT) {
+            service.skipTracks(Math.max(1, msgObj.getIntParam()));
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PREVIOUS) {
+            service.setPreviousTrack();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_RANDOM) {
+            service.setRandom(msgObj.getIntParam());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_REPEAT) {
+            service.setRepeat(msgObj.getIntParam());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SEEKTO) {
+            service.seekTo(msgObj.getIntParam());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_JUMPTO) {
+            service.jumpToIndex(msgObj.getIntParam(), true);
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUETRACK) {
+
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUEINDEX) {
+            service.dequeueTrack(msgObj.getIntParam());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_DEQUEUETRACKS) {
+
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACK) {
+            service.enqueueTrack(msgObj.getTrack());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYNEXT) {
+            service.enqueueAsNextTrack(msgObj.getTrack());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYNEXTID) {
+            service.enqueueTrackIdAsNext(msgObj.getIdList()[0]);
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACKS) {
+            service.enqueueTracks(msgObj.getTrackList());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUETRACKIDS) {
+            service.enqueueTrackIds(msgObj.getIdList());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_ENQUEUESELECTION) {
+            service.enqueueSelection(msgObj.getSelector());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SETNEXTRACK) {
+
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_CLEARPLAYLIST) {
+            service.clearPlaylist();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SHUFFLEPLAYLIST) {
+            service.shufflePlaylist();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_UNSHUFFLEPLAYLIST) {
+            service.unshufflePlaylist();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYALLTRACKS) {
+            service.playAllTracks();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_PLAYALLTRACKSSHUFFLED) {
+            service.playAllTracksShuffled();
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_SAVEPLAYLIST) {
+            service.savePlaylist(msgObj.getStringParam());
+        } else if (msgObj.getAction() == ControlObject.PLAYBACK_ACTION.ODYSSEY_STOPSERVICE) {
+            service.stopService();
+        }
+        Log.v(TAG, "End control command");
     }
 
 }
@@ -0,0 +1,286 @@
+package org.odyssey.playbackservice;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/**
+ * Compact playlist representation. The queue itself is only an array of
+ * track ids (MediaStore audio ids), the metadata of every distinct track is
+ * kept once in a cache keyed by that id. Artist, album and albumkey strings
+ * are interned so tracks of one album share them.
+ *
+ * Tracks without a MediaStore id get a synthetic negative id.
+ *
+ * Shuffling does not move the ids. It creates a permutation (mOrder) that maps
+ * list positions to positions in the original order, so unshuffle() only has
+ * to drop it again.
+ */
+public class PlaylistQueue extends AbstractList<TrackItem> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+    // list position -> index in mIds, null if not shuffled
+    private int[] mOrder = null;
+
+    private HashMap<Long, CacheEntry> mMetadata = new HashMap<Long, CacheEntry>();
+    private HashMap<String, String> mStrings = new HashMap<String, String>();
+
+    private long mNextSyntheticId = -1;
+
+    private static class CacheEntry {
+        TrackItem mItem;
+        int mReferences;
+
+        CacheEntry(TrackItem item) {
+            mItem = item;
+            mReferences = 0;
+        }
+    }
+
+    @Override
+    public TrackItem get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + " Size: " + mSize);
+        }
+        return mMetadata.get(mIds[getOriginalIndex(index)]).mItem;
+    }
+
+    /**
+     * Returns the track id at the given position
+     */
+    public long getId(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + " Size: " + mSize);
+        }
+        return mIds[getOriginalIndex(index)];
+    }
+
+    /**
+     * Returns the position the track at index has in the unshuffled order
+     */
+    public int getOriginalIndex(int index) {
+        return mOrder == null ? index : mOrder[index];
+    }
+
+    public boolean isShuffled() {
+        return mOrder != null;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void add(int index, TrackItem item) {
+        long id = item.getTrackId();
+        if (id < 0) {
+            id = mNextSyntheticId--;
+        }
+        add(index, id, item);
+    }
+
+    /**
+     * Inserts the item with a known id, used for restoring the queue with the
+     * ids it was saved with.
+     */
+    public void add(int index, long id, TrackItem item) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + " Size: " + mSize);
+        }
+        if (id <= mNextSyntheticId) {
+            mNextSyntheticId = id - 1;
+        }
+
+        ensureCapacity(mSize + 1);
+        if (mOrder == null) {
+            System.arraycopy(mIds, index, mIds, index + 1, mSize - index);
+            mIds[index] = id;
+        } else {
+            // append to the original order, only the permutation gets the
+            // track at index
+            mIds[mSize] = id;
+            System.arraycopy(mOrder, index, mOrder, index + 1, mSize - index);
+            mOrder[index] = mSize;
+        }
+        mSize++;
+        modCount++;
+
+        acquire(id, item);
+    }
+
+    @Override
+    public TrackItem set(int index, TrackItem item) {
+        TrackItem oldItem = get(index);
+        int originalIndex = getOriginalIndex(index);
+        long oldId = mIds[originalIndex];
+
+        long id = item.getTrackId();
+        if (id < 0) {
+            id = mNextSyntheticId--;
+        }
+        mIds[originalIndex] = id;
+
+        // acquire first, the old and the new id could be the same
+        acquire(id, item);
+        release(oldId);
+        return oldItem;
+    }
+
+    @Override
+    public TrackItem remove(int index) {
+        TrackItem item = get(index);
+        int originalIndex = getOriginalIndex(index);
+        long id = mIds[originalIndex];
+
+        System.arraycopy(mIds, originalIndex + 1, mIds, originalIndex, mSize - originalIndex - 1);
+        if (mOrder != null) {
+            System.arraycopy(mOrder, index + 1, mOrder, index, mSize - index - 1);
+            for (int i = 0; i < mSize - 1; i++) {
+                if (mOrder[i] > originalIndex) {
+                    mOrder[i]--;
+                }
+            }
+        }
+        mSize--;
+        modCount++;
+
+        release(id);
+        return item;
+    }
+
+    @Override
+    public void clear() {
+        mSize = 0;
+        mIds = new long[INITIAL_CAPACITY];
+        mOrder = null;
+        mMetadata.clear();
+        mStrings.clear();
+        modCount++;
+    }
+
+    /**
+     * Shuffles the list. Uses the same swap sequence as
+     * Collections.shuffle(List, Random) so both give identical results for one
+     * seed.
+     */
+    public void shuffle(Random random) {
+        shuffle(random, -1);
+    }
+
+    /**
+     * Shuffles the list and moves the track at position first (if not -1) to
+     * the front. Same result as removing it, shuffling the rest and inserting
+     * it at 0 again, but only the permutation is changed.
+     */
+    public void shuffle(Random random, int first) {
+        int[] order = new int[Math.max(mIds.length, INITIAL_CAPACITY)];
+        for (int i = 0; i < mSize; i++) {
+            order[i] = getOriginalIndex(i);
+        }
+
+        int offset = 0;
+        if (first >= 0 && first < mSize) {
+            // keep first in front, shuffle the tracks behind it
+            int firstIndex = order[first];
+            System.arraycopy(order, 0, order, 1, first);
+            order[0] = firstIndex;
+            offset = 1;
+        }
+
+        for (int i = mSize - offset; i > 1; i--) {
+            int j = random.nextInt(i);
+            int tmp = order[offset + i - 1];
+            order[offset + i - 1] = order[offset + j];
+            order[offset + j] = tmp;
+        }
+
+        mOrder = order;
+        modCount++;
+    }
+
+    /**
+     * Restores the order the tracks had before the first shuffle. Tracks added
+     * while shuffled are at the end.
+     */
+    public void unshuffle() {
+        if (mOrder != null) {
+            mOrder = null;
+            modCount++;
+        }
+    }
+
+    /**
+     * Returns the ids in original (unshuffled) order
+     */
+    public long getOriginalId(int originalIndex) {
+        if (originalIndex < 0 || originalIndex >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + originalIndex + " Size: " + mSize);
+        }
+        return mIds[originalIndex];
+    }
+
+    /**
+     * Sets the shuffle permutation, order[i] is the original index of the
+     * track at position i. Used for restoring a shuffled playlist.
+     */
+    public void setOrder(int[] order) {
+        if (order == null) {
+            unshuffle();
+            return;
+        }
+        if (order.length < mSize) {
+            throw new IllegalArgumentException("Order has " + order.length + " entries for " + mSize + " tracks");
+        }
+        mOrder = new int[Math.max(mIds.length, INITIAL_CAPACITY)];
+        System.arraycopy(order, 0, mOrder, 0, mSize);
+        modCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mIds.length) {
+            long[] ids = new long[Math.max(capacity, mIds.length * 2)];
+            System.arraycopy(mIds, 0, ids, 0, mSize);
+            mIds = ids;
+        }
+        if (mOrder != null && mOrder.length < mIds.length) {
+            int[] order = new int[mIds.length];
+            System.arraycopy(mOrder, 0, order, 0, mSize);
+            mOrder = order;
+        }
+    }
+
+    private void acquire(long id, TrackItem item) {
+        CacheEntry entry = mMetadata.get(id);
+        if (entry == null) {
+            entry = new CacheEntry(new TrackItem(item.getTrackTitle(), intern(item.getTrackArtist()), intern(item.getTrackAlbum()), item.getTrackURL(), item.getTrackNumber(), item.getTrackDuration(), intern(item.getTrackAlbumKey()),
+                    id));
+            mMetadata.put(id, entry);
+        }
+        entry.mReferences++;
+    }
+
+    private void release(long id) {
+        CacheEntry entry = mMetadata.get(id);
+        if (entry != null && --entry.mReferences <= 0) {
+            mMetadata.remove(id);
+        }
+    }
+
+    private String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String interned = mStrings.get(value);
+        if (interned == null) {
+            mStrings.put(value, value);
+            interned = value;
+        }
+        return interned;
+    }
+}
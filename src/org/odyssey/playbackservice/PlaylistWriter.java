@@ -0,0 +1,251 @@
+package org.odyssey.playbackservice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.odyssey.MusicLibraryHelper;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/**
+ * Writes a queue as a MediaStore playlist. The audio ids are checked and
+ * missing ones resolved from the file paths with a few chunked IN queries,
+ * then the members are inserted in batches with bulkInsert(). Tracks that
+ * are not in the MediaStore are skipped.
+ *
+ * The writer works on a copy of the queue, so write() can run on any thread.
+ * A playlist with the same name is only replaced once the new one is
+ * complete, a cancelled writer removes the partially written playlist again
+ * and keeps the old one.
+ */
+public class PlaylistWriter {
+
+    private static final String TAG = "OdysseyPlaylistWriter";
+
+    // Members inserted with one bulkInsert() call
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    /**
+     * Called on the writing thread after every batch of members
+     */
+    public interface ProgressListener {
+        public void onProgress(int written, int total);
+    }
+
+    private ContentResolver mResolver;
+    private String mName;
+    private long[] mIds;
+    private String[] mUrls;
+
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Copies the ids and urls of the queue, call it on the thread that owns
+     * the queue.
+     */
+    public PlaylistWriter(ContentResolver resolver, String name, PlaylistQueue queue) {
+        mResolver = resolver;
+        mName = name;
+        mIds = new long[queue.size()];
+        mUrls = new String[queue.size()];
+        for (int i = 0; i < mIds.length; i++) {
+            mIds[i] = queue.getId(i);
+            mUrls[i] = queue.get(i).getTrackURL();
+        }
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Replaces the playlist with the name of this writer. Returns false if it
+     * was cancelled or could not be created.
+     */
+    public boolean write(ProgressListener listener) {
+        long startTime = System.currentTimeMillis();
+
+        // remember the playlists to replace, they are removed once the new
+        // one is written
+        ArrayList<Long> oldPlaylistIds = queryPlaylistIds();
+
+        // create new playlist and save row
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Audio.Playlists.NAME, mName);
+        values.put(MediaStore.Audio.Playlists.DATE_ADDED, System.currentTimeMillis());
+        values.put(MediaStore.Audio.Playlists.DATE_MODIFIED, System.currentTimeMillis());
+
+        Uri playlistUri = mResolver.insert(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, values);
+        if (playlistUri == null) {
+            Log.e(TAG, "Could not create playlist " + mName);
+            return false;
+        }
+        long playlistId = Long.parseLong(playlistUri.getLastPathSegment());
+        Uri membersUri = MediaStore.Audio.Playlists.Members.getContentUri("external", playlistId);
+
+        long[] audioIds = resolveAudioIds();
+        if (mCancelled) {
+            removePlaylist(playlistUri);
+            return false;
+        }
+
+        int total = 0;
+        for (long audioId : audioIds) {
+            if (audioId >= 0) {
+                total++;
+            }
+        }
+
+        ArrayList<ContentValues> batch = new ArrayList<ContentValues>(INSERT_BATCH_SIZE);
+        int written = 0;
+        for (int i = 0; i < audioIds.length; i++) {
+            if (audioIds[i] < 0) {
+                continue;
+            }
+            ContentValues member = new ContentValues(2);
+            member.put(MediaStore.Audio.Playlists.Members.AUDIO_ID, audioIds[i]);
+            member.put(MediaStore.Audio.Playlists.Members.PLAY_ORDER, i);
+            batch.add(member);
+
+            if (batch.size() == INSERT_BATCH_SIZE) {
+                if (mCancelled) {
+                    removePlaylist(playlistUri);
+                    return false;
+                }
+                written += insertBatch(membersUri, batch, written, total, listener);
+            }
+        }
+
+        // the rest that did not fill a batch
+        if (!batch.isEmpty() && !mCancelled) {
+            written += insertBatch(membersUri, batch, written, total, listener);
+        }
+
+        if (mCancelled) {
+            removePlaylist(playlistUri);
+            return false;
+        }
+        for (long oldPlaylistId : oldPlaylistIds) {
+            mResolver.delete(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, MediaStore.Audio.Playlists._ID + "=?", new String[] { String.valueOf(oldPlaylistId) });
+        }
+
+        Log.v(TAG, "Saved playlist " + mName + " with " + written + " of " + mIds.length + " tracks in " + (System.currentTimeMillis() - startTime) + " ms");
+        return true;
+    }
+
+    /*
+     * Returns the ids of the existing playlists with the name of this writer
+     */
+    private ArrayList<Long> queryPlaylistIds() {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        Cursor cursor = mResolver.query(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, new String[] { MediaStore.Audio.Playlists._ID }, MediaStore.Audio.Playlists.NAME + "=?", new String[] { mName }, null);
+        if (cursor == null) {
+            return ids;
+        }
+        if (cursor.moveToFirst()) {
+            do {
+                ids.add(cursor.getLong(0));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return ids;
+    }
+
+    /*
+     * Inserts and clears the batch, returns the number of inserted members
+     */
+    private int insertBatch(Uri membersUri, ArrayList<ContentValues> batch, int written, int total, ProgressListener listener) {
+        int inserted = mResolver.bulkInsert(membersUri, batch.toArray(new ContentValues[batch.size()]));
+        batch.clear();
+        if (listener != null) {
+            listener.onProgress(written + inserted, total);
+        }
+        return inserted;
+    }
+
+    private void removePlaylist(Uri playlistUri) {
+        Log.v(TAG, "Saving playlist " + mName + " cancelled");
+        mResolver.delete(playlistUri, null, null);
+    }
+
+    /*
+     * Returns the MediaStore audio id for every queue entry, -1 if the track
+     * is not in the MediaStore. Known ids are only checked, the others are
+     * looked up by path.
+     */
+    private long[] resolveAudioIds() {
+        HashSet<String> candidates = new HashSet<String>();
+        for (long id : mIds) {
+            if (id >= 0) {
+                candidates.add(String.valueOf(id));
+            }
+        }
+        HashMap<String, Long> existingIds = queryAudioIds(MediaStore.Audio.Media._ID, candidates);
+
+        long[] audioIds = new long[mIds.length];
+        HashSet<String> missingUrls = new HashSet<String>();
+        for (int i = 0; i < mIds.length; i++) {
+            Long id = mIds[i] >= 0 ? existingIds.get(String.valueOf(mIds[i])) : null;
+            audioIds[i] = id != null ? id : -1;
+            if (id == null && mUrls[i] != null) {
+                missingUrls.add(mUrls[i]);
+            }
+        }
+
+        if (!missingUrls.isEmpty() && !mCancelled) {
+            HashMap<String, Long> urlIds = queryAudioIds(MediaStore.Audio.Media.DATA, missingUrls);
+            for (int i = 0; i < mIds.length; i++) {
+                if (audioIds[i] < 0 && mUrls[i] != null) {
+                    Long id = urlIds.get(mUrls[i]);
+                    audioIds[i] = id != null ? id : -1;
+                }
+            }
+        }
+        return audioIds;
+    }
+
+    /*
+     * Returns the audio ids of the rows whose column has one of the values,
+     * keyed by that value
+     */
+    private HashMap<String, Long> queryAudioIds(String column, HashSet<String> values) {
+        HashMap<String, Long> ids = new HashMap<String, Long>();
+        String[] projection = { MediaStore.Audio.Media._ID, column };
+        String[] allValues = values.toArray(new String[values.size()]);
+
+        // sqlite limits the number of arguments per query
+        for (int start = 0; start < allValues.length && !mCancelled; start += MusicLibraryHelper.MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MusicLibraryHelper.MAX_SELECTION_ARGS, allValues.length);
+
+            StringBuilder selection = new StringBuilder(column + " IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                selectionArgs[i - start] = allValues[i];
+            }
+            selection.append(")");
+
+            Cursor cursor = mResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projection, selection.toString(), selectionArgs, null);
+            if (cursor == null) {
+                continue;
+            }
+            if (cursor.moveToFirst()) {
+                do {
+                    ids.put(cursor.getString(1), cursor.getLong(0));
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,155 @@
+package org.odyssey.playbackservice;
+
+import java.util.ArrayList;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * The one binding of the UI process to the PlaybackService, shared by all
+ * PlaybackServiceConnections. It is bound by the first open connection and
+ * unbound UNBIND_DELAY ms after the last one was closed, so switching between
+ * screens does not rebind every time.
+ *
+ * If the service dies the system normally restarts and reconnects it, the
+ * binding is only renewed if that did not happen within RECONNECT_TIMEOUT ms.
+ * If bindService() fails it is retried with a growing delay between the
+ * attempts.
+ *
+ * Must only be used from the UI thread, except getService().
+ */
+class SharedServiceConnection implements ServiceConnection {
+    private static final String TAG = "OdysseySharedServiceConnection";
+
+    private static final int UNBIND_DELAY = 5000;
+    private static final int RECONNECT_TIMEOUT = 10000;
+    private static final int MIN_RETRY_DELAY = 500;
+    private static final int MAX_RETRY_DELAY = 30000;
+
+    private static SharedServiceConnection mInstance = null;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private volatile IOdysseyPlaybackService mService = null;
+    private boolean mBound = false;
+    private int mRetryDelay = MIN_RETRY_DELAY;
+
+    // Open connections
+    private final ArrayList<PlaybackServiceConnection> mClients = new ArrayList<PlaybackServiceConnection>();
+
+    private final Runnable mUnbindRunner = new Runnable() {
+        @Override
+        public void run() {
+            if (mClients.isEmpty()) {
+                unbind();
+            }
+        }
+    };
+
+    private final Runnable mRetryRunner = new Runnable() {
+        @Override
+        public void run() {
+            if (mService != null || mClients.isEmpty()) {
+                return;
+            }
+            Log.v(TAG, "Service still not connected, binding again");
+            unbind();
+            mRetryDelay = Math.min(mRetryDelay * 2, MAX_RETRY_DELAY);
+            bind();
+        }
+    };
+
+    private SharedServiceConnection(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized SharedServiceConnection getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new SharedServiceConnection(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    public IOdysseyPlaybackService getService() {
+        return mService;
+    }
+
+    public void acquire(final PlaybackServiceConnection client) {
+        mClients.add(client);
+        mHandler.removeCallbacks(mUnbindRunner);
+
+        if (!mBound) {
+            bind();
+        } else if (mService != null) {
+            // already connected, but keep the callback asynchronous like a
+            // fresh binding
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    IOdysseyPlaybackService service = mService;
+                    if (service != null && mClients.contains(client)) {
+                        client.onServiceConnected(service);
+                    }
+                }
+            });
+        }
+    }
+
+    public void release(PlaybackServiceConnection client) {
+        mClients.remove(client);
+        if (mClients.isEmpty()) {
+            mHandler.postDelayed(mUnbindRunner, UNBIND_DELAY);
+        }
+    }
+
+    private void bind() {
+        Intent serviceStartIntent = new Intent(mContext, PlaybackService.class);
+        mBound = mContext.bindService(serviceStartIntent, this, Context.BIND_AUTO_CREATE);
+        mHandler.removeCallbacks(mRetryRunner);
+        if (!mBound) {
+            Log.e(TAG, "Binding failed, retrying in " + mRetryDelay + " ms");
+            mHandler.postDelayed(mRetryRunner, mRetryDelay);
+        }
+    }
+
+    private void unbind() {
+        mHandler.removeCallbacks(mRetryRunner);
+        if (mBound) {
+            mContext.unbindService(this);
+            mBound = false;
+        }
+        mService = null;
+    }
+
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder service) {
+        Log.v(TAG, "Service connection created");
+        mService = IOdysseyPlaybackService.Stub.asInterface(service);
+        mRetryDelay = MIN_RETRY_DELAY;
+        mHandler.removeCallbacks(mRetryRunner);
+
+        IOdysseyPlaybackService playbackService = mService;
+        for (PlaybackServiceConnection client : new ArrayList<PlaybackServiceConnection>(mClients)) {
+            client.onServiceConnected(playbackService);
+        }
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+        Log.v(TAG, "Service disconnected");
+        mService = null;
+        for (PlaybackServiceConnection client : new ArrayList<PlaybackServiceConnection>(mClients)) {
+            client.onServiceDisconnected();
+        }
+        // the binding stays, give the system time to restart the service
+        mHandler.removeCallbacks(mRetryRunner);
+        mHandler.postDelayed(mRetryRunner, RECONNECT_TIMEOUT);
+    }
+}
@@ -0,0 +1,263 @@
+package org.odyssey.playbackservice;
+
+import java.util.Random;
+
+/**
+ * Random playback order over the playlist indices. Every track is played once
+ * before any track is repeated: the indices not played in the current round
+ * are kept in a bag and the next track is drawn from it in O(1). The bag is
+ * only filled when random playback is actually used.
+ *
+ * Indices are kept in sync with the playlist by insert() and remove(), the
+ * playlist itself is never copied. The last played indices are kept in a
+ * bounded history for going back.
+ */
+public class ShuffleBag {
+
+    private static final int HISTORY_SIZE = 100;
+
+    private Random mRandom;
+
+    // Size of the playlist
+    private int mSize = 0;
+
+    // Currently playing index
+    private int mCurrent = -1;
+
+    // Drawn but not yet played index, stable until it is played
+    private int mCandidate = -1;
+
+    /*
+     * Indices not yet played in this round are mRemaining[0..mRemainingCount).
+     * mSlots maps a playlist index to its position in mRemaining or -1 if it
+     * was played already. Both are null until the first round starts.
+     */
+    private int[] mRemaining = null;
+    private int[] mSlots = null;
+    private int mRemainingCount = 0;
+
+    // Ring buffer of previously played indices
+    private int[] mHistory = new int[HISTORY_SIZE];
+    private int mHistoryStart = 0;
+    private int mHistoryCount = 0;
+
+    public ShuffleBag(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Forgets the current round and the history, used if the playlist was
+     * replaced or reordered.
+     */
+    public void reset(int size, int current) {
+        mSize = size;
+        mCurrent = current;
+        mCandidate = -1;
+        mRemaining = null;
+        mSlots = null;
+        mRemainingCount = 0;
+        mHistoryCount = 0;
+    }
+
+    /**
+     * Returns the index to play after the current one or -1 if every track was
+     * played and repeat is false. Repeated calls return the same index until
+     * it is played.
+     */
+    public int getNext(boolean repeat) {
+        if (mSize == 0) {
+            return -1;
+        }
+        if (mCandidate >= 0) {
+            return mCandidate;
+        }
+
+        if (mRemaining == null) {
+            startRound();
+        }
+        if (mRemainingCount == 0) {
+            if (!repeat) {
+                return -1;
+            }
+            startRound();
+        }
+
+        mCandidate = mRemaining[mRandom.nextInt(mRemainingCount)];
+        return mCandidate;
+    }
+
+    /**
+     * Returns the previously played index or -1 if the history is empty. The
+     * returned index becomes the current one without being added to the
+     * history again.
+     */
+    public int getPrevious() {
+        if (mHistoryCount == 0) {
+            return -1;
+        }
+        mHistoryCount--;
+        mCurrent = mHistory[(mHistoryStart + mHistoryCount) % HISTORY_SIZE];
+        if (mCurrent == mCandidate) {
+            mCandidate = -1;
+        }
+        return mCurrent;
+    }
+
+    /**
+     * Marks index as playing, called whenever a track starts.
+     */
+    public void setCurrent(int index) {
+        if (index == mCurrent) {
+            return;
+        }
+
+        if (mCurrent >= 0) {
+            addToHistory(mCurrent);
+        }
+        mCurrent = index;
+
+        if (index == mCandidate) {
+            mCandidate = -1;
+        }
+        if (mRemaining != null && index >= 0 && index < mSize) {
+            take(index);
+        }
+    }
+
+    /**
+     * count tracks were inserted at index. They are not played in this round
+     * yet.
+     */
+    public void insert(int index, int count) {
+        if (count <= 0) {
+            return;
+        }
+
+        if (mRemaining != null) {
+            ensureCapacity(mSize + count);
+
+            // move the slots of the following indices
+            if (index < mSize) {
+                for (int i = 0; i < mRemainingCount; i++) {
+                    if (mRemaining[i] >= index) {
+                        mRemaining[i] += count;
+                    }
+                }
+                System.arraycopy(mSlots, index, mSlots, index + count, mSize - index);
+            }
+            for (int i = index; i < index + count; i++) {
+                mSlots[i] = mRemainingCount;
+                mRemaining[mRemainingCount++] = i;
+            }
+        }
+        mSize += count;
+
+        mCurrent = shiftInserted(mCurrent, index, count);
+        mCandidate = shiftInserted(mCandidate, index, count);
+        for (int i = 0; i < mHistoryCount; i++) {
+            int position = (mHistoryStart + i) % HISTORY_SIZE;
+            mHistory[position] = shiftInserted(mHistory[position], index, count);
+        }
+    }
+
+    /**
+     * The track at index was removed from the playlist.
+     */
+    public void remove(int index) {
+        if (index < 0 || index >= mSize) {
+            return;
+        }
+
+        if (mRemaining != null) {
+            take(index);
+            for (int i = 0; i < mRemainingCount; i++) {
+                if (mRemaining[i] > index) {
+                    mRemaining[i]--;
+                }
+            }
+            System.arraycopy(mSlots, index + 1, mSlots, index, mSize - index - 1);
+        }
+        mSize--;
+
+        mCurrent = shiftRemoved(mCurrent, index);
+        mCandidate = shiftRemoved(mCandidate, index);
+
+        // drop the removed index from the history, keep the order of the rest
+        int count = 0;
+        for (int i = 0; i < mHistoryCount; i++) {
+            int value = shiftRemoved(mHistory[(mHistoryStart + i) % HISTORY_SIZE], index);
+            if (value >= 0) {
+                mHistory[(mHistoryStart + count) % HISTORY_SIZE] = value;
+                count++;
+            }
+        }
+        mHistoryCount = count;
+    }
+
+    /*
+     * Starts a new round with all indices except the current one.
+     */
+    private void startRound() {
+        if (mRemaining == null || mRemaining.length < mSize) {
+            mRemaining = new int[mSize];
+            mSlots = new int[mSize];
+        }
+        mRemainingCount = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (i == mCurrent && mSize > 1) {
+                mSlots[i] = -1;
+            } else {
+                mSlots[i] = mRemainingCount;
+                mRemaining[mRemainingCount++] = i;
+            }
+        }
+    }
+
+    /*
+     * Removes index from the bag by moving the last remaining index into its
+     * slot.
+     */
+    private void take(int index) {
+        int slot = mSlots[index];
+        if (slot < 0) {
+            return;
+        }
+        int last = mRemaining[--mRemainingCount];
+        mRemaining[slot] = last;
+        mSlots[last] = slot;
+        mSlots[index] = -1;
+    }
+
+    private void addToHistory(int index) {
+        if (mHistoryCount == HISTORY_SIZE) {
+            // drop the oldest entry
+            mHistoryStart = (mHistoryStart + 1) % HISTORY_SIZE;
+            mHistoryCount--;
+        }
+        mHistory[(mHistoryStart + mHistoryCount) % HISTORY_SIZE] = index;
+        mHistoryCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mRemaining.length) {
+            int newCapacity = Math.max(capacity, mRemaining.length * 2);
+            int[] remaining = new int[newCapacity];
+            int[] slots = new int[newCapacity];
+            System.arraycopy(mRemaining, 0, remaining, 0, mRemainingCount);
+            System.arraycopy(mSlots, 0, slots, 0, mSize);
+            mRemaining = remaining;
+            mSlots = slots;
+        }
+    }
+
+    private static int shiftInserted(int value, int index, int count) {
+        return value >= index ? value + count : value;
+    }
+
+    private static int shiftRemoved(int value, int index) {
+        if (value == index) {
+            return -1;
+        }
+        return value > index ? value - 1 : value;
+    }
+}
@@ -13,6 +13,8 @@ public class TrackItem implements Parcelable {
     private String mTrackArtist = null;
     private String mTrackURL = null;
     private String mTrackAlbumKey = null;
+    // MediaStore audio id, negative if unknown
+    private long mTrackId = -1;
 
     public String getTrackTitle() {
         return mTrackTitle;
@@ -42,7 +44,15 @@ public class TrackItem implements Parcelable {
         return mTrackAlbumKey;
     }
 
+    public long getTrackId() {
+        return mTrackId;
+    }
+
     public TrackItem(String title, String artist, String album, String url, int trackNo, long trackDuration, String albumKey) {
+        this(title, artist, album, url, trackNo, trackDuration, albumKey, -1);
+    }
+
+    public TrackItem(String title, String artist, String album, String url, int trackNo, long trackDuration, String albumKey, long id) {
         mTrackTitle = title;
         mTrackArtist = artist;
         mTrackAlbum = album;
@@ -50,6 +60,7 @@ public class TrackItem implements Parcelable {
         mTrackNumber = trackNo;
         mTrackDuration = trackDuration;
         mTrackAlbumKey = albumKey;
+        mTrackId = id;
     }
 
     public TrackItem() {
@@ -80,6 +91,7 @@ public class TrackItem implements Parcelable {
         dest.writeInt(mTrackNumber);
         dest.writeLong(mTrackDuration);
         dest.writeString(mTrackAlbumKey);
+        dest.writeLong(mTrackId);
     }
 
     public static Parcelable.Creator<TrackItem> CREATOR = new Creator<TrackItem>() {
@@ -98,8 +110,9 @@ public class TrackItem implements Parcelable {
             int trackno = source.readInt();
             long duration = source.readLong();
             String albumKey = source.readString();
+            long id = source.readLong();
 
-            TrackItem item = new TrackItem(title, artist, album, url, trackno, duration, albumKey);
+            TrackItem item = new TrackItem(title, artist, album, url, trackno, duration, albumKey, id);
             return item;
         }
     };
@@ -0,0 +1,104 @@
+package org.odyssey.playbackservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Describes a set of tracks (album, artist, saved playlist or the whole
+ * library) that PlaybackService resolves against the MediaStore itself. Only
+ * the selector crosses the process boundary instead of every TrackItem.
+ */
+public class TrackSelector implements Parcelable {
+    public static final int TYPE_ALBUM = 0;
+    public static final int TYPE_ARTIST = 1;
+    public static final int TYPE_PLAYLIST = 2;
+    public static final int TYPE_ALL_TRACKS = 3;
+
+    // Sort orders for TYPE_ALL_TRACKS
+    public static final int ORDER_TITLE = 0;
+    public static final int ORDER_ALBUM = 1;
+    public static final int ORDER_ARTIST = 2;
+
+    private int mType;
+    // artist id or playlist id
+    private long mId = -1;
+    // album key
+    private String mKey = null;
+    private int mOrder = ORDER_TITLE;
+
+    private TrackSelector(int type, long id, String key, int order) {
+        mType = type;
+        mId = id;
+        mKey = key;
+        mOrder = order;
+    }
+
+    public static TrackSelector forAlbum(String albumKey) {
+        return new TrackSelector(TYPE_ALBUM, -1, albumKey, ORDER_TITLE);
+    }
+
+    public static TrackSelector forArtist(long artistId) {
+        return new TrackSelector(TYPE_ARTIST, artistId, null, ORDER_TITLE);
+    }
+
+    public static TrackSelector forPlaylist(long playlistId) {
+        return new TrackSelector(TYPE_PLAYLIST, playlistId, null, ORDER_TITLE);
+    }
+
+    public static TrackSelector forAllTracks(int order) {
+        return new TrackSelector(TYPE_ALL_TRACKS, -1, null, order);
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public int getOrder() {
+        return mOrder;
+    }
+
+    @Override
+    public String toString() {
+        return "Type: " + mType + " ID: " + mId + " Key: " + mKey + " Order: " + mOrder;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mType);
+        dest.writeLong(mId);
+        dest.writeString(mKey);
+        dest.writeInt(mOrder);
+    }
+
+    public static Parcelable.Creator<TrackSelector> CREATOR = new Creator<TrackSelector>() {
+
+        @Override
+        public TrackSelector[] newArray(int size) {
+            return new TrackSelector[size];
+        }
+
+        @Override
+        public TrackSelector createFromParcel(Parcel source) {
+            int type = source.readInt();
+            long id = source.readLong();
+            String key = source.readString();
+            int order = source.readInt();
+
+            return new TrackSelector(type, id, key, order);
+        }
+    };
+
+}
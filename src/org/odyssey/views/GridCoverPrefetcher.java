@@ -0,0 +1,170 @@
+package org.odyssey.views;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.odyssey.manager.CoverCache;
+import org.odyssey.manager.CoverDecodePool;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.widget.AbsListView;
+import android.widget.GridView;
+
+/*
+ * Loads the covers of the rows ahead of the visible part of a GridView into
+ * the CoverCache, so they can be shown right away when the rows scroll in.
+ * Driven by the scroll callbacks of the grid: the covers of the visible rows
+ * and the next PREFETCH_ROWS rows in scroll direction are requested with the
+ * lowest priority. Requests for rows that left this window are cancelled.
+ *
+ * The faster the grid scrolls the fewer rows are prefetched, during a fast
+ * fling nothing is decoded at all because the rows are gone before their
+ * covers are ready.
+ *
+ * Must only be used from the UI thread.
+ */
+public class GridCoverPrefetcher {
+
+    private static final int PREFETCH_ROWS = 3;
+
+    // Above this velocity (rows per second) nothing is prefetched
+    private static final int MAX_PREFETCH_VELOCITY = 15;
+
+    /*
+     * Provides the cover path for an adapter position, null if there is none
+     */
+    public interface CoverPathProvider {
+        public String getCoverPath(int position);
+    }
+
+    private GridView mGrid;
+    private CoverPathProvider mProvider;
+
+    // Pending prefetches by adapter position
+    private HashMap<Integer, CoverDecodePool.Request> mRequests = new HashMap<Integer, CoverDecodePool.Request>();
+
+    private int mLastFirstVisibleItem = -1;
+    private long mLastTime = 0;
+    private int mVelocity = 0;
+    private boolean mScrollingDown = true;
+
+    private final CoverDecodePool.CoverListener mCacheOnlyListener = new CoverDecodePool.CoverListener() {
+        @Override
+        public void onCoverLoaded(Bitmap cover) {
+            // only the cache is filled, nothing shows the cover yet
+            CoverCache.getInstance(mGrid.getContext()).releaseBitmap(cover);
+        }
+    };
+
+    public GridCoverPrefetcher(GridView grid, CoverPathProvider provider) {
+        mGrid = grid;
+        mProvider = provider;
+    }
+
+    /*
+     * Forwarded from OnScrollListener.onScroll()
+     */
+    public void onScroll(int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem != mLastFirstVisibleItem) {
+            long currentTime = SystemClock.uptimeMillis();
+            int columns = Math.max(1, mGrid.getNumColumns());
+            if (mLastFirstVisibleItem >= 0 && currentTime > mLastTime) {
+                int rows = Math.abs(firstVisibleItem - mLastFirstVisibleItem) / columns;
+                mVelocity = (int) (rows * 1000 / (currentTime - mLastTime));
+                mScrollingDown = firstVisibleItem > mLastFirstVisibleItem;
+            }
+            mLastFirstVisibleItem = firstVisibleItem;
+            mLastTime = currentTime;
+        }
+
+        updateWindow(firstVisibleItem, visibleItemCount, totalItemCount);
+    }
+
+    /*
+     * Forwarded from OnScrollListener.onScrollStateChanged()
+     */
+    public void onScrollStateChanged(int scrollState) {
+        if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
+            mVelocity = 0;
+            updateWindow(mGrid.getFirstVisiblePosition(), mGrid.getChildCount(), mGrid.getCount());
+        }
+    }
+
+    /*
+     * Cancels all prefetches, used if the grid is paused or gets a new model.
+     */
+    public void cancel() {
+        for (CoverDecodePool.Request request : mRequests.values()) {
+            request.cancel();
+        }
+        mRequests.clear();
+        mLastFirstVisibleItem = -1;
+        mVelocity = 0;
+    }
+
+    private void updateWindow(int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (visibleItemCount == 0 || totalItemCount == 0) {
+            return;
+        }
+
+        int columns = Math.max(1, mGrid.getNumColumns());
+        int rows = 0;
+        if (mVelocity <= MAX_PREFETCH_VELOCITY) {
+            // fewer rows the faster we go
+            rows = PREFETCH_ROWS - (PREFETCH_ROWS * mVelocity) / (MAX_PREFETCH_VELOCITY + 1);
+        }
+
+        int start = firstVisibleItem;
+        int end = firstVisibleItem + visibleItemCount;
+        if (rows == 0) {
+            // too fast to decode anything in time
+            start = end;
+        } else if (mScrollingDown) {
+            end += rows * columns;
+        } else {
+            start -= rows * columns;
+        }
+        start = Math.max(0, start);
+        end = Math.min(totalItemCount, end);
+
+        // drop everything that left the window
+        Iterator<Map.Entry<Integer, CoverDecodePool.Request>> iterator = mRequests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, CoverDecodePool.Request> entry = iterator.next();
+            if (entry.getKey() < start || entry.getKey() >= end) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        if (start >= end) {
+            return;
+        }
+
+        int width = mGrid.getColumnWidth();
+        int height = width;
+        if (mGrid.getChildCount() > 0 && mGrid.getChildAt(0) instanceof GridItem) {
+            GridItem item = (GridItem) mGrid.getChildAt(0);
+            width = item.getCoverWidth();
+            height = item.getCoverHeight();
+        }
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        CoverCache cache = CoverCache.getInstance(mGrid.getContext());
+        CoverDecodePool pool = CoverDecodePool.getInstance(mGrid.getContext());
+        for (int i = start; i < end; i++) {
+            if (mRequests.containsKey(i)) {
+                continue;
+            }
+            String path = mProvider.getCoverPath(i);
+            if (path == null || cache.getCachedBitmap(path, width, height) != null) {
+                continue;
+            }
+            mRequests.put(i, pool.loadCover(path, width, height, CoverDecodePool.PRIORITY_PREFETCH, mCacheOnlyListener));
+        }
+    }
+}
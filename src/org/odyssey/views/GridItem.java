@@ -1,11 +1,11 @@
 package org.odyssey.views;
 
-import java.lang.ref.WeakReference;
-
 import org.odyssey.R;
-import org.odyssey.manager.AsyncLoader;
+import org.odyssey.manager.CoverCache;
+import org.odyssey.manager.CoverDecodePool;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.animation.AnimationUtils;
 import android.widget.ImageView;
@@ -15,13 +15,16 @@ import android.widget.ViewSwitcher;
 
 /*
  * Class for GridItems inside a GridView.
- * Provides an easy way to asynchronously load images.
- * And to reuse the item with resetting the image and cancel the previous task.
+ * Provides an easy way to asynchronously load images through the CoverDecodePool.
+ * And to reuse the item with resetting the image and cancel the previous request.
  */
 public class GridItem extends RelativeLayout {
 
-    private AsyncLoader.CoverViewHolder mHolder;
     private static final String TAG = "OdysseyAlbumGridItem";
+    private String mImagePath;
+    private CoverDecodePool.Request mCoverRequest;
+    // Shown cover, acquired from the CoverCache
+    private Bitmap mCoverBitmap;
     private boolean mCoverDone = false;
 
     private TextView mTextView;
@@ -37,10 +40,7 @@ public class GridItem extends RelativeLayout {
         mTextView = ((TextView) this.findViewById(R.id.textViewAlbumItem));
         mTextView.setText(text);
 
-        mHolder = new AsyncLoader.CoverViewHolder();
-        mHolder.coverViewReference = new WeakReference<ImageView>((ImageView) this.findViewById(R.id.imageViewAlbum));
-        mHolder.coverViewSwitcher = new WeakReference<ViewSwitcher>((ViewSwitcher) this.findViewById(R.id.albumgridSwitcher));
-        mHolder.imagePath = imageURL;
+        mImagePath = imageURL;
 
         mSwitcher = (ViewSwitcher) this.findViewById(R.id.albumgridSwitcher);
         mCoverImage = (ImageView) this.findViewById(R.id.imageViewAlbum);
@@ -49,28 +49,77 @@ public class GridItem extends RelativeLayout {
 
     /*
      * If this GridItem gets detached from the parent it makes no sense to let
-     * the task for image retrieval runnig. (non-Javadoc)
+     * the request for image retrieval wait. (non-Javadoc)
      * 
      * @see android.view.View#onDetachedFromWindow()
      */
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        if (mHolder.task != null) {
-            mHolder.task.cancel(true);
-            mHolder.task = null;
+        if (mCoverRequest != null) {
+            mCoverRequest.cancel();
+            mCoverRequest = null;
+            // request it again if the item is shown again
+            mCoverDone = false;
         }
     }
 
     /*
-     * Starts the image retrieval task
+     * Starts the image retrieval request
      */
     public void startCoverImageTask() {
-        if (mHolder.imagePath != null && mHolder.task == null && !mCoverDone) {
+        int width = getCoverWidth();
+        int height = getCoverHeight();
+        if (width <= 0 || height <= 0) {
+            // size unknown yet, never decode the full sized cover
+            return;
+        }
+        if (mImagePath != null && mCoverRequest == null && !mCoverDone) {
             mCoverDone = true;
-            mHolder.task = new AsyncLoader();
-            mHolder.task.execute(mHolder);
+
+            // show covers from the memory cache right away
+            Bitmap cover = CoverCache.getInstance(getContext()).getCachedBitmap(mImagePath, width, height, true);
+            if (cover != null) {
+                showCover(cover);
+                return;
+            }
+
+            mCoverRequest = CoverDecodePool.getInstance(getContext()).loadCover(mImagePath, width, height, CoverDecodePool.PRIORITY_VISIBLE, new CoverReceiver(mImagePath));
+        }
+    }
+
+    /*
+     * Shows the cover if it is in the memory cache already, used while the
+     * grid scrolls too fast for starting new requests.
+     */
+    public void showCachedCover() {
+        if (mImagePath != null && mCoverRequest == null && !mCoverDone) {
+            Bitmap cover = CoverCache.getInstance(getContext()).getCachedBitmap(mImagePath, getCoverWidth(), getCoverHeight(), true);
+            if (cover != null) {
+                mCoverDone = true;
+                showCover(cover);
+            }
+        }
+    }
+
+    /*
+     * Size of the cover. The cover fills the whole item, so until the item is
+     * laid out the size from its layout params (the column width) is used.
+     */
+    public int getCoverWidth() {
+        int width = mCoverImage.getWidth();
+        if (width <= 0 && getLayoutParams() != null) {
+            width = getLayoutParams().width;
         }
+        return width;
+    }
+
+    public int getCoverHeight() {
+        int height = mCoverImage.getHeight();
+        if (height <= 0 && getLayoutParams() != null) {
+            height = getLayoutParams().height;
+        }
+        return height;
     }
 
     public void setText(String text) {
@@ -83,19 +132,64 @@ public class GridItem extends RelativeLayout {
      * dummy picture.
      */
     public void setImageURL(String url) {
-        // Cancel old task
-        if (mHolder.task != null) {
-            mHolder.task.cancel(true);
-            mHolder.task = null;
+        // Cancel old request
+        if (mCoverRequest != null) {
+            mCoverRequest.cancel();
+            mCoverRequest = null;
         }
         mCoverDone = false;
-        mHolder.imagePath = url;
+        mImagePath = url;
         mSwitcher.setOutAnimation(null);
         mSwitcher.setInAnimation(null);
         mCoverImage.setImageDrawable(null);
+        // the old cover can be reused for decoding other covers now
+        if (mCoverBitmap != null) {
+            CoverCache.getInstance(getContext()).releaseBitmap(mCoverBitmap);
+            mCoverBitmap = null;
+        }
         mSwitcher.setDisplayedChild(0);
         mSwitcher.setOutAnimation(AnimationUtils.loadAnimation(getContext(), android.R.anim.fade_out));
         mSwitcher.setInAnimation(AnimationUtils.loadAnimation(getContext(), android.R.anim.fade_in));
     }
 
+    /*
+     * Shows a cover that was acquired for this item.
+     */
+    private void showCover(Bitmap cover) {
+        if (mCoverBitmap != null) {
+            CoverCache.getInstance(getContext()).releaseBitmap(mCoverBitmap);
+        }
+        mCoverBitmap = cover;
+        mCoverImage.setImageBitmap(cover);
+        mSwitcher.setDisplayedChild(1);
+    }
+
+    /*
+     * Receives the cover on a decode thread and shows it on the UI thread if
+     * the item still wants it.
+     */
+    private class CoverReceiver implements CoverDecodePool.CoverListener {
+        private String mPath;
+
+        public CoverReceiver(String path) {
+            mPath = path;
+        }
+
+        @Override
+        public void onCoverLoaded(final Bitmap cover) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCoverRequest != null && mPath.equals(mImagePath)) {
+                        mCoverRequest = null;
+                        showCover(cover);
+                    } else {
+                        // cancelled or the item shows another album now
+                        CoverCache.getInstance(getContext()).releaseBitmap(cover);
+                    }
+                }
+            });
+        }
+    }
+
 }
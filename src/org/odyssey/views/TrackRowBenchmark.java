@@ -0,0 +1,52 @@
+package org.odyssey.views;
+
+import android.os.Debug;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Adapter;
+
+/*
+ * Counts the allocations of binding track rows. All rows of the adapter are
+ * bound into one recycled row view, like a list does while it scrolls, first
+ * once to fill the text caches of TrackRowHolder and then again while the
+ * allocations of the UI thread are counted.
+ *
+ * Meant to be run from a debug session or an instrumentation on the UI thread
+ * with a list that is shown already, for example
+ * TrackRowBenchmark.run(listView.getAdapter(), listView).
+ */
+public class TrackRowBenchmark {
+
+    private static final String TAG = "OdysseyTrackRowBenchmark";
+
+    /*
+     * Returns the average number of allocations per bound row
+     */
+    public static float run(Adapter adapter, ViewGroup parent) {
+        int count = adapter.getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        // warm up the row view and the text caches
+        View row = null;
+        for (int i = 0; i < count; i++) {
+            row = adapter.getView(i, row, parent);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            row = adapter.getView(i, row, parent);
+        }
+        long bindTime = System.nanoTime() - startTime;
+        Debug.stopAllocCounting();
+
+        int allocations = Debug.getThreadAllocCount();
+        float allocationsPerBind = (float) allocations / count;
+        Log.v(TAG, "Bound " + count + " rows: " + allocations + " allocations (" + allocationsPerBind + " per row), " + (bindTime / count) + " ns per row");
+        return allocationsPerBind;
+    }
+}
@@ -0,0 +1,133 @@
+package org.odyssey.views;
+
+import java.util.HashMap;
+
+import android.support.v4.util.LruCache;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/*
+ * View holder for the rows of the track lists. The child views are looked up
+ * once per row view, and the texts derived from a track (duration, track
+ * number, artist and album line) are created once and cached, so binding a
+ * recycled row does not allocate (see TrackRowBenchmark). The caches are
+ * bounded, a full cache of durations or track numbers is simply started
+ * again, artists drop out least recently used.
+ *
+ * Must only be used from the UI thread.
+ */
+public class TrackRowHolder {
+
+    // Cached texts per cache, more than the rows of a long list need
+    private static final int MAX_CACHED_TEXTS = 1024;
+    private static final int MAX_CACHED_ARTISTS = 256;
+
+    // Texts shared by all rows, formatted on first use
+    private static final SparseArray<String> sDurations = new SparseArray<String>();
+    private static final SparseArray<String> sTrackNumbers = new SparseArray<String>();
+    private static final LruCache<String, HashMap<String, String>> sArtistAlbums = new LruCache<String, HashMap<String, String>>(MAX_CACHED_ARTISTS);
+
+    private final TextView mTitleView;
+    private final TextView mDurationView;
+    private final TextView mNumberView;
+    private final TextView mArtistView;
+    private final ImageView mPlayingView;
+
+    /*
+     * playingId is the indicator of the playing track, 0 if the row has none
+     */
+    private TrackRowHolder(View row, int titleId, int durationId, int numberId, int artistId, int playingId) {
+        mTitleView = (TextView) row.findViewById(titleId);
+        mDurationView = (TextView) row.findViewById(durationId);
+        mNumberView = (TextView) row.findViewById(numberId);
+        mArtistView = (TextView) row.findViewById(artistId);
+        mPlayingView = playingId != 0 ? (ImageView) row.findViewById(playingId) : null;
+    }
+
+    /*
+     * Returns the holder of a row, creates it the first time the row is bound
+     */
+    public static TrackRowHolder get(View row, int titleId, int durationId, int numberId, int artistId, int playingId) {
+        TrackRowHolder holder = (TrackRowHolder) row.getTag();
+        if (holder == null) {
+            holder = new TrackRowHolder(row, titleId, durationId, numberId, artistId, playingId);
+            row.setTag(holder);
+        }
+        return holder;
+    }
+
+    /*
+     * Shows a track, the artist line is "artist - album" or only the artist
+     * if album is null
+     */
+    public void bind(String title, String artist, String album, int trackNumber, long duration) {
+        mTitleView.setText(title);
+        mDurationView.setText(getDurationText(duration));
+        mNumberView.setText(getTrackNumberText(trackNumber));
+        mArtistView.setText(album != null ? getArtistAlbumText(artist, album) : artist);
+    }
+
+    public void setPlaying(boolean playing) {
+        if (mPlayingView != null) {
+            mPlayingView.setVisibility(playing ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    /*
+     * Duration in minutes and seconds
+     */
+    public static String getDurationText(long duration) {
+        int seconds = (int) (duration / 1000);
+        String text = sDurations.get(seconds);
+        if (text == null) {
+            StringBuilder builder = new StringBuilder(8);
+            builder.append(seconds / 60).append(':');
+            if (seconds % 60 < 10) {
+                builder.append('0');
+            }
+            builder.append(seconds % 60);
+            text = builder.toString();
+            if (sDurations.size() >= MAX_CACHED_TEXTS) {
+                sDurations.clear();
+            }
+            sDurations.put(seconds, text);
+        }
+        return text;
+    }
+
+    private static String getTrackNumberText(int trackNumber) {
+        String text = sTrackNumbers.get(trackNumber);
+        if (text == null) {
+            text = String.valueOf(trackNumber);
+            if (text.length() >= 4) {
+                // the first two digits are the disc number
+                text = text.substring(2);
+            }
+            if (sTrackNumbers.size() >= MAX_CACHED_TEXTS) {
+                sTrackNumbers.clear();
+            }
+            sTrackNumbers.put(trackNumber, text);
+        }
+        return text;
+    }
+
+    private static String getArtistAlbumText(String artist, String album) {
+        if (artist == null) {
+            // LruCache takes no null keys
+            return artist + " - " + album;
+        }
+        HashMap<String, String> albums = sArtistAlbums.get(artist);
+        if (albums == null) {
+            albums = new HashMap<String, String>();
+            sArtistAlbums.put(artist, albums);
+        }
+        String text = albums.get(album);
+        if (text == null) {
+            text = artist + " - " + album;
+            albums.put(album, text);
+        }
+        return text;
+    }
+}
@@ -7,6 +7,7 @@ import org.odyssey.MusicLibraryHelper;
 import org.odyssey.MusicLibraryHelper.CoverBitmapGenerator;
 import org.odyssey.NowPlayingInformation;
 import org.odyssey.R;
+import org.odyssey.manager.CoverDecodePool;
 import org.odyssey.playbackservice.PlaybackService;
 import org.odyssey.playbackservice.TrackItem;
 
@@ -116,7 +117,8 @@ public class OdysseyAppWidgetProvider extends AppWidgetProvider {
                 views.setTextViewText(R.id.odysseyWidgetTextViewArtist, item.getTrackArtist());
 
                 views.setImageViewResource(R.id.odysseyWidgetImageView, R.drawable.ic_big_notification);
-                mCoverGenerator = new CoverBitmapGenerator(context, new CoverReceiver(views));
+                int coverSize = context.getResources().getDimensionPixelSize(R.dimen.widget_cover_height);
+                mCoverGenerator = new CoverBitmapGenerator(context, new CoverReceiver(views), coverSize, coverSize, CoverDecodePool.PRIORITY_BACKGROUND);
                 mCoverGenerator.getImage(item);
             }
 